@@ -0,0 +1,64 @@
+package com.lyl.demoChatRoom.netty;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 一条聊天消息经过管道的开销（mvn -Pjmh verify）
+ * 向发送方写入一个客户端文本帧：帧解码、JSON解析、分配序号、序列化，再广播给recipients个连接（含发送方）
+ * 并编码成帧，各连接写出的数据随即释放。
+ * 结果中的gc.alloc.rate.norm即每条入站消息分配的字节数
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ChatBroadcastBenchmark {
+
+    @Param({"1", "100", "10000"})
+    public int recipients;
+
+    private PipelineFixture fixture;
+    private EmbeddedChannel sender;
+    private List<EmbeddedChannel> receivers;
+    private ByteBuf frame;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        fixture = new PipelineFixture();
+        sender = fixture.connect("sender");
+        receivers = new ArrayList<>(recipients - 1);
+        for (int i = 1; i < recipients; i++) {
+            receivers.add(fixture.connect("user" + i));
+        }
+        frame = PipelineFixture.textFrame(
+                "{\"user\":\"sender\",\"content\":\"benchmark message with a typical length\",\"conversationId\":\"lobby\"}");
+    }
+
+    @Benchmark
+    public int broadcast() {
+        sender.writeInbound(frame.retainedDuplicate());
+        int delivered = PipelineFixture.drain(sender);
+        for (EmbeddedChannel receiver : receivers) {
+            delivered += PipelineFixture.drain(receiver);
+        }
+        return delivered;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        sender.finishAndReleaseAll();
+        for (EmbeddedChannel receiver : receivers) {
+            receiver.finishAndReleaseAll();
+        }
+        frame.release();
+        fixture.close();
+    }
+}
@@ -0,0 +1,36 @@
+package com.lyl.demoChatRoom.netty;
+
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 新连接的开销：建立管道，HTTP升级请求经过HttpServerCodec、CorsHandler和协议处理器完成握手，再关闭连接
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HandshakeBenchmark {
+
+    private PipelineFixture fixture;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        fixture = new PipelineFixture();
+    }
+
+    @Benchmark
+    public boolean connect() {
+        EmbeddedChannel channel = fixture.connect("user");
+        return channel.finishAndReleaseAll();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        fixture.close();
+    }
+}
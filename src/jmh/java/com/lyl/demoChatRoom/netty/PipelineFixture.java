@@ -0,0 +1,106 @@
+package com.lyl.demoChatRoom.netty;
+
+import com.lyl.demoChatRoom.config.NettyServerProperties;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.DefaultChannelId;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.util.ReferenceCountUtil;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 基准测试共用的管道搭建：默认配置、不启用可选组件，连接用EmbeddedChannel模拟
+ */
+final class PipelineFixture {
+
+    private static final byte[] MASK = {0x1f, 0x2e, 0x3d, 0x4c};
+
+    private final IdleConnectionMonitor idleMonitor;
+    private final WebSocketServerInitializer initializer;
+    private final String websocketPath;
+
+    PipelineFixture() {
+        NettyServerProperties properties = new NettyServerProperties();
+        // 心跳定时器在独立线程上触发，EmbeddedChannel不是线程安全的，测试期间不发送Ping
+        NettyServerProperties.Heartbeat heartbeat = properties.getHeartbeat();
+        heartbeat.setPingIntervalMillis(TimeUnit.HOURS.toMillis(1));
+        heartbeat.setIdleTimeoutMillis(TimeUnit.HOURS.toMillis(2));
+        this.idleMonitor = new IdleConnectionMonitor(
+                heartbeat.getPingIntervalMillis(), heartbeat.getIdleTimeoutMillis(), heartbeat.getSlackMillis());
+        ServerContext context = new ServerContext(properties, null, idleMonitor, null, null, null,
+                new ConversationSequencer(properties.getDelivery()), null, null, null, null, "bench", null, null, null,
+                Collections.emptyMap());
+        this.initializer = new WebSocketServerInitializer(context);
+        this.websocketPath = properties.getWebsocketPath();
+    }
+
+    /**
+     * 新建连接并完成WebSocket升级握手
+     */
+    EmbeddedChannel connect(String user) {
+        // EmbeddedChannel默认共用一个id，ChannelGroup按id去重，每个连接需要独立的id
+        EmbeddedChannel channel = new EmbeddedChannel(DefaultChannelId.newInstance(), initializer);
+        channel.writeInbound(Unpooled.copiedBuffer("GET " + websocketPath + "?user=" + user + " HTTP/1.1\r\n"
+                + "Host: localhost\r\n"
+                + "Origin: http://localhost\r\n"
+                + "Upgrade: websocket\r\n"
+                + "Connection: Upgrade\r\n"
+                + "Sec-WebSocket-Key: dGhlIHNhbXBsZSBub25jZQ==\r\n"
+                + "Sec-WebSocket-Version: 13\r\n\r\n", StandardCharsets.US_ASCII));
+        ByteBuf response = channel.readOutbound();
+        try {
+            if (response == null || !response.toString(StandardCharsets.US_ASCII).startsWith("HTTP/1.1 101")) {
+                throw new IllegalStateException("WebSocket握手失败: "
+                        + (response == null ? "无响应" : response.toString(StandardCharsets.US_ASCII)));
+            }
+        } finally {
+            ReferenceCountUtil.release(response);
+        }
+        drain(channel);
+        return channel;
+    }
+
+    /**
+     * 客户端发出的文本帧（带掩码），调用方负责释放
+     */
+    static ByteBuf textFrame(String text) {
+        byte[] payload = text.getBytes(StandardCharsets.UTF_8);
+        ByteBuf frame = Unpooled.buffer(payload.length + 14);
+        frame.writeByte(0x81);
+        if (payload.length < 126) {
+            frame.writeByte(0x80 | payload.length);
+        } else if (payload.length < 65536) {
+            frame.writeByte(0x80 | 126);
+            frame.writeShort(payload.length);
+        } else {
+            frame.writeByte(0x80 | 127);
+            frame.writeLong(payload.length);
+        }
+        frame.writeBytes(MASK);
+        for (int i = 0; i < payload.length; i++) {
+            frame.writeByte(payload[i] ^ MASK[i & 3]);
+        }
+        return frame;
+    }
+
+    /**
+     * 释放连接已写出的数据，相当于写入socket
+     * @return 释放的消息数
+     */
+    static int drain(EmbeddedChannel channel) {
+        int count = 0;
+        Object msg;
+        while ((msg = channel.readOutbound()) != null) {
+            ReferenceCountUtil.release(msg);
+            count++;
+        }
+        return count;
+    }
+
+    void close() {
+        idleMonitor.stop();
+    }
+}
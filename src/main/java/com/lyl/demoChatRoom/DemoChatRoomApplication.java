@@ -1,20 +1,17 @@
 package com.lyl.demoChatRoom;
 
-import com.lyl.demoChatRoom.netty.NettyWebSocketServer;
-import org.springframework.boot.CommandLineRunner;
+import com.lyl.demoChatRoom.config.NettyServerProperties;
+import com.lyl.demoChatRoom.config.RouterProperties;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
 
 @SpringBootApplication
-public class DemoChatRoomApplication implements CommandLineRunner {
+@EnableConfigurationProperties({NettyServerProperties.class, RouterProperties.class})
+public class DemoChatRoomApplication {
 
     public static void main(String[] args) {
+        // Netty服务由NettyWebSocketServer随Spring容器启停
         SpringApplication.run(DemoChatRoomApplication.class, args);
     }
-
-    @Override
-    public void run(String... args) throws Exception {
-        // 启动Netty服务（端口8081）
-        new NettyWebSocketServer(8081).start();
-    }
 }
@@ -0,0 +1,524 @@
+package com.lyl.demoChatRoom.config;
+
+import com.lyl.demoChatRoom.netty.RateLimiter;
+import com.lyl.demoChatRoom.netty.TlsContextManager;
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Netty服务配置（application.yml中的chat.netty）
+ */
+@Data
+@ConfigurationProperties(prefix = "chat.netty")
+public class NettyServerProperties {
+
+    /**
+     * 监听端口
+     */
+    private int port = 8081;
+
+    /**
+     * boss线程数
+     */
+    private int bossThreads = 1;
+
+    /**
+     * worker线程数，0表示使用Netty默认值（CPU核数*2）
+     */
+    private int workerThreads = 0;
+
+    /**
+     * WebSocket路径
+     */
+    private String websocketPath = "/chat";
+
+    /**
+     * 握手阶段HTTP请求的最大长度
+     */
+    private int maxContentLength = 65536;
+
+    private Heartbeat heartbeat = new Heartbeat();
+
+    private StaticResources staticResources = new StaticResources();
+
+    private RateLimit rateLimit = new RateLimit();
+
+    private Delivery delivery = new Delivery();
+
+    private Shutdown shutdown = new Shutdown();
+
+    private Presence presence = new Presence();
+
+    private Streaming streaming = new Streaming();
+
+    private Dedup dedup = new Dedup();
+
+    private Ephemeral ephemeral = new Ephemeral();
+
+    private Outbound outbound = new Outbound();
+
+    private Admission admission = new Admission();
+
+    private Search search = new Search();
+
+    private HotKeys hotKeys = new HotKeys();
+
+    private Tls tls = new Tls();
+
+    private Tenants tenants = new Tenants();
+
+    @Data
+    public static class Heartbeat {
+        /**
+         * 连接空闲多久后发送Ping
+         */
+        private long pingIntervalMillis = 30000;
+
+        /**
+         * 连接空闲多久后关闭
+         */
+        private long idleTimeoutMillis = 75000;
+
+        /**
+         * 时间轮刻度，即空闲检查允许的误差
+         */
+        private long slackMillis = 1000;
+    }
+
+    @Data
+    public static class StaticResources {
+        /**
+         * 是否由Netty直接提供静态页面
+         */
+        private boolean enabled = true;
+
+        /**
+         * classpath下的静态资源目录
+         */
+        private String location = "static/";
+
+        /**
+         * 脚本、样式等资源的缓存时间（html始终协商缓存）
+         */
+        private long maxAgeSeconds = 3600;
+    }
+
+    @Data
+    public static class RateLimit {
+        private boolean enabled = true;
+
+        /**
+         * 超限处理方式：DROP丢弃消息，DISCONNECT断开连接
+         */
+        private RateLimiter.Action action = RateLimiter.Action.DROP;
+
+        /**
+         * 单连接令牌桶容量和每秒补充数
+         */
+        private int connectionBurst = 20;
+        private double connectionPerSecond = 10;
+
+        /**
+         * 单用户（所有连接合计）令牌桶容量和每秒补充数
+         */
+        private int userBurst = 40;
+        private double userPerSecond = 20;
+
+        /**
+         * 单连接的确认和正在输入消息的令牌桶，与聊天消息分开计数
+         */
+        private int controlBurst = 20;
+        private double controlPerSecond = 5;
+    }
+
+    @Data
+    public static class Delivery {
+        /**
+         * 每个会话保留的最近消息条数（可重发范围）
+         */
+        private int logCapacity = 1024;
+
+        /**
+         * 最多同时保留的会话数
+         */
+        private int maxConversations = 10000;
+
+        /**
+         * 消息发出多久仍未确认才重发，同时也是同一连接两次重发的最小间隔
+         */
+        private long resendDelayMillis = 2000;
+
+        /**
+         * 单次最多重发的消息数
+         */
+        private int resendWindow = 256;
+    }
+
+    @Data
+    public static class Shutdown {
+        /**
+         * 等待已有连接发送完剩余数据并关闭的最长时间
+         */
+        private long drainTimeoutMillis = 10000;
+
+        /**
+         * EventLoop优雅关闭的静默期
+         */
+        private long quietPeriodMillis = 200;
+
+        /**
+         * EventLoop优雅关闭的最长时间
+         */
+        private long timeoutMillis = 5000;
+    }
+
+    @Data
+    public static class Presence {
+        private boolean enabled = true;
+
+        /**
+         * 是否把本节点的统计写入Redis并汇总集群数据
+         */
+        private boolean cluster = false;
+
+        /**
+         * 统计不同用户数的窗口长度
+         */
+        private long windowSeconds = 300;
+
+        /**
+         * 发布和汇总的间隔，查询结果最多滞后这么久
+         */
+        private long publishIntervalMillis = 5000;
+
+        /**
+         * HyperLogLog精度，寄存器数为2^precision
+         */
+        private int precision = 14;
+    }
+
+    @Data
+    public static class Streaming {
+        /**
+         * 是否逐片转发分片消息，关闭时在内存中拼装完整消息后再处理
+         */
+        private boolean enabled = true;
+
+        /**
+         * 转发分片的最大长度；浏览器不分片，超过这个长度的单帧消息按此长度切成分片流式转发
+         */
+        private int maxFrameSize = 65536;
+
+        /**
+         * 一条消息（所有分片合计）的最大长度
+         */
+        private int maxMessageSize = 4 * 1024 * 1024;
+
+        /**
+         * 接收方在流进行中最多排队的其他消息数
+         */
+        private int maxPendingMessages = 1024;
+
+        /**
+         * 接收方的流超过这个时间没有新分片就中止，释放排在后面的消息
+         */
+        private long stallTimeoutMillis = 10000;
+    }
+
+    @Data
+    public static class Dedup {
+        /**
+         * 是否按clientMsgId丢弃重复发送的消息
+         */
+        private boolean enabled = true;
+
+        /**
+         * 记住已发送消息的时间窗口，应覆盖客户端断线重连并重发的时间
+         */
+        private long windowSeconds = 120;
+
+        /**
+         * 窗口分成的时间桶数，过期以桶为单位
+         */
+        private int buckets = 4;
+
+        /**
+         * 整个窗口最多记录的消息数，决定内存占用（每条约16字节）
+         */
+        private int maxEntries = 262144;
+
+        /**
+         * 分段锁数量
+         */
+        private int stripes = 64;
+    }
+
+    @Data
+    public static class Ephemeral {
+        /**
+         * 是否转发正在输入等临时状态，关闭时直接丢弃
+         */
+        private boolean enabled = true;
+
+        /**
+         * 合并后统一广播的间隔，即每个发送者每个会话的最高发送频率
+         */
+        private long flushIntervalMillis = 250;
+
+        /**
+         * 最多同时等待广播的 发送者+会话 数
+         */
+        private int maxPending = 10000;
+    }
+
+    @Data
+    public static class Outbound {
+        /**
+         * 是否按优先级通道排队出站消息，关闭时所有消息按写入顺序发送
+         */
+        private boolean enabled = true;
+
+        /**
+         * 写缓冲的高低水位，超过高水位后开始排队，降到低水位以下恢复写出
+         */
+        private int lowWaterMark = 32 * 1024;
+        private int highWaterMark = 64 * 1024;
+
+        /**
+         * 恢复写出时每轮从各通道取出的消息数
+         */
+        private int directWeight = 8;
+        private int roomWeight = 4;
+        private int bulkWeight = 1;
+
+        /**
+         * 每个通道最多排队的消息数
+         */
+        private int laneCapacity = 4096;
+    }
+
+    @Data
+    public static class Admission {
+        /**
+         * 是否启用接入控制
+         */
+        private boolean enabled = true;
+
+        /**
+         * WebSocket连接数上限；TCP连接数超过 上限+握手突发数 时接受后立即关闭
+         */
+        private int maxConnections = 50000;
+
+        /**
+         * 握手令牌桶容量和每秒补充数
+         */
+        private int handshakeBurst = 500;
+        private double handshakesPerSecond = 200;
+
+        /**
+         * EventLoop延迟超过该值时拒绝新握手
+         */
+        private long maxEventLoopLagMillis = 200;
+
+        /**
+         * EventLoop延迟的探测间隔
+         */
+        private long lagProbeIntervalMillis = 100;
+
+        /**
+         * 503响应中建议客户端的重试间隔
+         */
+        private int retryAfterSeconds = 5;
+
+        /**
+         * 从路由器刷新负载最低节点的间隔
+         */
+        private long hintRefreshMillis = 5000;
+    }
+
+    @Data
+    public static class Search {
+        /**
+         * 是否为聊天记录建立全文索引
+         */
+        private boolean enabled = true;
+
+        /**
+         * 索引目录，每个会话一个子目录
+         */
+        private String directory = "data/search";
+
+        /**
+         * 等待索引的消息数上限，超过后丢弃不索引
+         */
+        private int queueCapacity = 65536;
+
+        /**
+         * 内存表达到该文档数或存在超过该时间后写成段
+         */
+        private int flushDocs = 4096;
+        private long flushIntervalMillis = 2000;
+
+        /**
+         * 每个会话的段数超过max-segments时，把相邻的merge-factor个段合并成一个
+         */
+        private int mergeFactor = 4;
+        private int maxSegments = 8;
+
+        /**
+         * 检查合并的间隔
+         */
+        private long mergeIntervalMillis = 10000;
+
+        /**
+         * 每页默认条数和上限
+         */
+        private int defaultLimit = 20;
+        private int maxLimit = 100;
+
+        /**
+         * 执行查询的线程数和排队上限，打开分区要读文件和映射内存，不在EventLoop上执行；排满时响应503
+         */
+        private int searchThreads = 2;
+        private int searchQueueCapacity = 256;
+
+        /**
+         * 同时打开的会话分区数上限，超过后把最久未用的分区落盘关闭，再次用到时重新打开
+         */
+        private int maxOpenPartitions = 1024;
+
+        /**
+         * 索引目录下的会话数上限，达到后新会话的消息不再索引
+         */
+        private int maxConversations = 100000;
+    }
+
+    @Data
+    public static class HotKeys {
+        /**
+         * 是否统计热点用户、房间和路由key
+         */
+        private boolean enabled = true;
+
+        /**
+         * Count-Min草图每行的计数器数和行数，误差约为 总次数*e/width，误差超出的概率约为 e^-depth
+         */
+        private int width = 2048;
+        private int depth = 4;
+
+        /**
+         * 每类保留的热点数
+         */
+        private int topK = 20;
+
+        /**
+         * 计数的半衰期和衰减间隔
+         */
+        private double halfLifeSeconds = 60;
+        private long decayIntervalMillis = 5000;
+
+        /**
+         * 房间每秒消息数加加入数达到该值时视为热点，新成员分散到所有候选节点
+         */
+        private double hotRoomPerSecond = 50;
+    }
+
+    @Data
+    public static class Tls {
+        /**
+         * 是否在本端口终止TLS（wss://、https://）
+         */
+        private boolean enabled = false;
+
+        /**
+         * PEM格式的证书链和PKCS#8私钥，私钥未加密时不填密码
+         */
+        private String certificate;
+        private String privateKey;
+        private String privateKeyPassword;
+
+        /**
+         * AUTO: 有netty-tcnative（mvn -Popenssl）时用OpenSSL，否则用JDK
+         */
+        private TlsContextManager.Provider provider = TlsContextManager.Provider.AUTO;
+
+        private List<String> protocols = Arrays.asList("TLSv1.3", "TLSv1.2");
+
+        /**
+         * 服务端会话缓存条数和会话有效期，断线重连时复用会话可省去完整握手
+         */
+        private long sessionCacheSize = 20480;
+        private long sessionTimeoutSeconds = 3600;
+
+        /**
+         * 会话票据密钥轮换间隔（仅OpenSSL），保留上一把密钥，票据最长有效两个间隔
+         */
+        private long ticketKeyRotationMinutes = 720;
+
+        /**
+         * 检查证书文件是否更新的间隔，0表示不自动重载
+         */
+        private long reloadIntervalMillis = 30000;
+
+        private long handshakeTimeoutMillis = 10000;
+    }
+
+    @Data
+    public static class Tenants {
+        /**
+         * 是否按租户隔离连接、会话和配额；未启用时所有连接共用一个广播组
+         */
+        private boolean enabled = false;
+
+        /**
+         * 租户由握手地址/chat/{tenant}指定，地址中没有时读取该请求头，都没有时属于default-tenant
+         */
+        private String header = "X-Chat-Tenant";
+        private String defaultTenant = "default";
+
+        /**
+         * 是否接受未在quotas中配置的租户（使用defaults配额），以及租户数上限
+         */
+        private boolean allowUnknown = true;
+        private int maxTenants = 1000;
+
+        /**
+         * 未单独配置的租户使用的配额
+         */
+        private Quota defaults = new Quota();
+
+        /**
+         * 租户 -> 配额，未填写的项使用Quota的默认值而不是defaults
+         */
+        private Map<String, Quota> quotas = new LinkedHashMap<>();
+    }
+
+    @Data
+    public static class Quota {
+        /**
+         * 本节点上该租户的WebSocket连接数上限
+         */
+        private int maxConnections = 10000;
+
+        /**
+         * 该租户所有连接合计的入站消息速率
+         */
+        private double messagesPerSecond = 2000;
+        private int messageBurst = 4000;
+
+        /**
+         * 广播出站字节速率（消息大小 * 接收连接数），超出时丢弃新消息
+         */
+        private long outboundBytesPerSecond = 64L * 1024 * 1024;
+
+        /**
+         * 大于0时该租户的连接使用独立的EventLoop线程，不与其他租户争用
+         */
+        private int dedicatedThreads = 0;
+    }
+}
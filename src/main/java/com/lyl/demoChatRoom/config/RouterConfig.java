@@ -0,0 +1,79 @@
+package com.lyl.demoChatRoom.config;
+
+import com.lyl.demoChatRoom.util.ConnectionRouter.IAsyncConnectionRouter;
+import com.lyl.demoChatRoom.util.ConnectionRouter.LettuceAsyncConsistentHashRouter;
+import com.lyl.demoChatRoom.util.ConnectionRouter.NonBlockingRouter;
+import com.lyl.demoChatRoom.util.ConnectionRouter.RouterExecutor;
+import com.lyl.demoChatRoom.util.ConnectionRouter.RoomPlacement;
+import com.lyl.demoChatRoom.util.ConnectionRouter.RouterRedisTemplates;
+import com.lyl.demoChatRoom.util.ConnectionRouter.StatelessConsistentHashRouter;
+import io.lettuce.core.RedisClient;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+
+/**
+ * 连接路由相关Bean，chat.router.enabled=true时生效
+ * chat.router.mode=async时Netty使用Lettuce异步路由器，blocking时使用线程池包装的同步路由器
+ */
+@Configuration
+@ConditionalOnProperty(prefix = "chat.router", name = "enabled", havingValue = "true")
+public class RouterConfig {
+
+    @Bean(destroyMethod = "shutdown")
+    @ConditionalOnProperty(prefix = "chat.router", name = "mode", havingValue = "blocking")
+    public StatelessConsistentHashRouter connectionRouter(RedisConnectionFactory connectionFactory,
+                                                          RouterProperties properties, RoomPlacement roomPlacement) {
+        StatelessConsistentHashRouter router = new StatelessConsistentHashRouter(
+                RouterRedisTemplates.create(connectionFactory), properties.getVirtualNodes(),
+                properties.getNearCacheSize(), properties.getVersionCheckIntervalMillis());
+        router.setRoomPlacement(roomPlacement);
+        router.setMigrationChunkSize(properties.getMigrationChunkSize());
+        router.setRoomTtlSeconds(properties.getRoom().getTtlSeconds());
+        return router;
+    }
+
+    @Bean(destroyMethod = "shutdown")
+    @ConditionalOnProperty(prefix = "chat.router", name = "mode", havingValue = "blocking")
+    public RouterExecutor routerExecutor(RouterProperties properties) {
+        RouterProperties.Executor executor = properties.getExecutor();
+        return new RouterExecutor(executor.getThreads(), executor.getQueueCapacity(),
+                executor.getMaxConcurrency(), executor.isPreferVirtualThreads());
+    }
+
+    @Bean
+    @ConditionalOnProperty(prefix = "chat.router", name = "mode", havingValue = "blocking")
+    public IAsyncConnectionRouter nonBlockingRouter(StatelessConsistentHashRouter connectionRouter,
+                                                    RouterExecutor routerExecutor) {
+        return new NonBlockingRouter(connectionRouter, routerExecutor);
+    }
+
+    /**
+     * 复用Spring创建的RedisClient，只支持单机模式
+     */
+    @Bean(destroyMethod = "shutdown")
+    @ConditionalOnProperty(prefix = "chat.router", name = "mode", havingValue = "async", matchIfMissing = true)
+    public IAsyncConnectionRouter lettuceAsyncRouter(LettuceConnectionFactory connectionFactory,
+                                                     RouterProperties properties, RoomPlacement roomPlacement) {
+        Object client = connectionFactory.getRequiredNativeClient();
+        if (!(client instanceof RedisClient)) {
+            throw new IllegalStateException("chat.router.mode=async只支持单机Redis，当前客户端: "
+                    + client.getClass().getName());
+        }
+        LettuceAsyncConsistentHashRouter router = new LettuceAsyncConsistentHashRouter((RedisClient) client,
+                properties.getVirtualNodes(), properties.getVersionCheckIntervalMillis());
+        router.setRoomPlacement(roomPlacement);
+        router.setRoomTtlSeconds(properties.getRoom().getTtlSeconds());
+        return router;
+    }
+
+    /**
+     * 各路由器共用，Netty服务启动时注入热点房间判断
+     */
+    @Bean
+    public RoomPlacement roomPlacement(RouterProperties properties) {
+        return new RoomPlacement(properties.getRoom().getCapacityPerNode(), properties.getRoom().getMaxNodes());
+    }
+}
@@ -0,0 +1,88 @@
+package com.lyl.demoChatRoom.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * 连接路由配置（application.yml中的chat.router）
+ */
+@Data
+@ConfigurationProperties(prefix = "chat.router")
+public class RouterProperties {
+
+    /**
+     * 是否启用基于Redis的连接路由
+     */
+    private boolean enabled = false;
+
+    /**
+     * 当前节点在哈希环上的标识，为空时使用 主机名:端口
+     */
+    private String nodeId;
+
+    /**
+     * 每个节点的虚拟节点数
+     */
+    private int virtualNodes = 150;
+
+    /**
+     * Netty使用的路由实现：async为Lettuce异步路由器，blocking为线程池包装的同步路由器
+     */
+    private String mode = "async";
+
+    /**
+     * 查询路径上两次检查哈希环版本的最小间隔
+     */
+    private long versionCheckIntervalMillis = 1000;
+
+    /**
+     * 路由结果近端缓存的最大条目数
+     */
+    private long nearCacheSize = 100_000;
+
+    /**
+     * 服务器变更时每次HSCAN读取并计算迁移的连接数
+     */
+    private int migrationChunkSize = 10_000;
+
+    private Room room = new Room();
+
+    private Executor executor = new Executor();
+
+    @Data
+    public static class Room {
+        /**
+         * 同一房间在一个节点上的成员数上限，超过后溢出到下一个节点
+         */
+        private int capacityPerNode = 5000;
+
+        /**
+         * 一个房间最多使用的节点数
+         */
+        private int maxNodes = 3;
+
+        /**
+         * room_members/room_meta在最后一次加入或离开后的保留时间，节点崩溃留下的成员计数到期后清除
+         */
+        private long ttlSeconds = 86400;
+    }
+
+    @Data
+    public static class Executor {
+        /**
+         * JDK 21+上优先使用虚拟线程
+         */
+        private boolean preferVirtualThreads = true;
+
+        /**
+         * 虚拟线程模式下的最大并发调用数
+         */
+        private int maxConcurrency = 256;
+
+        /**
+         * 平台线程模式下的线程数和等待队列长度
+         */
+        private int threads = 16;
+        private int queueCapacity = 10000;
+    }
+}
@@ -1,9 +1,45 @@
 package com.lyl.demoChatRoom.entity;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
 import lombok.Data;
 
 @Data
+@JsonInclude(JsonInclude.Include.NON_NULL)
 public class ChatMessage {
+    /**
+     * 消息类型：为空或chat表示聊天消息，ack表示客户端的累计确认
+     */
+    public static final String TYPE_ACK = "ack";
+    /**
+     * 服务端回给发送方的回执：该clientMsgId已经广播过，本次重发被丢弃
+     */
+    public static final String TYPE_DUPLICATE = "duplicate";
+    /**
+     * 正在输入的临时状态，content为start或stop；只合并转发最新状态，不分配序号也不重发
+     */
+    public static final String TYPE_TYPING = "typing";
+    /**
+     * 流式转发的分片消息，服务端加的信封：user为发送方握手时的用户，body为发送方的原消息；不分配序号
+     */
+    public static final String TYPE_STREAM = "stream";
+
+    private String type;
     private String user;
     private String content;
+    /**
+     * 会话ID，为空时归入默认会话
+     */
+    private String conversationId;
+    /**
+     * 服务端分配的会话内序号；ack消息中表示已连续收到的最大序号
+     */
+    private Long seq;
+    /**
+     * 序号所属的纪元，服务重启或会话重建后变大；ack消息中带上收到的纪元
+     */
+    private Long epoch;
+    /**
+     * 客户端生成的消息ID，重连后重发同一条消息时保持不变，服务端据此去重
+     */
+    private String clientMsgId;
 }
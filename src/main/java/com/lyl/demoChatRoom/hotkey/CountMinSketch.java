@@ -0,0 +1,57 @@
+package com.lyl.demoChatRoom.hotkey;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Count-Min草图：depth行、每行width个计数器，估计值只会偏大
+ * 每行的位置由两个64位哈希按 h1 + i*h2 生成，计数器用原子数组，增加时不加锁
+ */
+class CountMinSketch {
+
+    private final int depth;
+    private final int mask;
+    private final AtomicLongArray counters;
+
+    /**
+     * @param width 每行计数器数，向上取2的幂
+     */
+    CountMinSketch(int width, int depth) {
+        int size = width <= 16 ? 16 : Integer.highestOneBit(width - 1) << 1;
+        this.depth = Math.max(1, depth);
+        this.mask = size - 1;
+        this.counters = new AtomicLongArray(size * this.depth);
+    }
+
+    /**
+     * 增加计数
+     * @return 增加后的估计值
+     */
+    long add(long h1, long h2, long weight) {
+        long estimate = Long.MAX_VALUE;
+        for (int i = 0; i < depth; i++) {
+            estimate = Math.min(estimate, counters.addAndGet(index(i, h1, h2), weight));
+        }
+        return estimate;
+    }
+
+    long estimate(long h1, long h2) {
+        long estimate = Long.MAX_VALUE;
+        for (int i = 0; i < depth; i++) {
+            estimate = Math.min(estimate, counters.get(index(i, h1, h2)));
+        }
+        return estimate;
+    }
+
+    /**
+     * 所有计数器乘以factor，实现按时间衰减
+     */
+    void decay(double factor) {
+        for (int i = 0; i < counters.length(); i++) {
+            counters.updateAndGet(i, value -> (long) (value * factor));
+        }
+    }
+
+    private int index(int row, long h1, long h2) {
+        return row * (mask + 1) + (int) ((h1 + row * h2) & mask);
+    }
+}
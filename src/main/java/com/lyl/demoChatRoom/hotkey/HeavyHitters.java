@@ -0,0 +1,110 @@
+package com.lyl.demoChatRoom.hotkey;
+
+import com.google.common.hash.HashCode;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * 固定内存的高频key统计：Count-Min草图估计每个key的计数，小根堆保留估计值最大的k个
+ * 估计值低于堆顶时只更新草图，不加锁；计数定期按半衰期衰减，反映的是近期流量
+ */
+class HeavyHitters {
+
+    private static final HashFunction HASH = Hashing.murmur3_128();
+
+    private final CountMinSketch sketch;
+    private final int k;
+    private final PriorityQueue<Entry> heap = new PriorityQueue<>(Comparator.comparingLong(entry -> entry.count));
+    private final Map<String, Entry> entries = new HashMap<>();
+    // 堆满时等于堆顶计数，低于它的key不可能进入前k
+    private volatile long threshold;
+
+    HeavyHitters(int width, int depth, int k) {
+        this.sketch = new CountMinSketch(width, depth);
+        this.k = Math.max(1, k);
+    }
+
+    void add(String key) {
+        HashCode hash = HASH.hashString(key, StandardCharsets.UTF_8);
+        long h1 = hash.asLong();
+        long h2 = ByteBuffer.wrap(hash.asBytes()).getLong(8);
+        long estimate = sketch.add(h1, h2, 1);
+        if (estimate <= threshold) {
+            return;
+        }
+        synchronized (this) {
+            Entry entry = entries.get(key);
+            if (entry != null) {
+                // 优先队列不支持原地调整，先移出再放回
+                heap.remove(entry);
+                entry.count = estimate;
+                heap.add(entry);
+            } else if (entries.size() < k) {
+                entry = new Entry(key, estimate);
+                entries.put(key, entry);
+                heap.add(entry);
+            } else if (estimate > heap.peek().count) {
+                entries.remove(heap.poll().key);
+                entry = new Entry(key, estimate);
+                entries.put(key, entry);
+                heap.add(entry);
+            }
+            threshold = entries.size() < k ? 0 : heap.peek().count;
+        }
+    }
+
+    /**
+     * key是否在前k中且计数不低于minCount
+     */
+    synchronized boolean isHot(String key, long minCount) {
+        Entry entry = entries.get(key);
+        return entry != null && entry.count >= minCount;
+    }
+
+    /**
+     * 前k个key及计数，按计数从大到小
+     */
+    synchronized List<Map.Entry<String, Long>> top() {
+        List<Map.Entry<String, Long>> result = new ArrayList<>(entries.size());
+        for (Entry entry : entries.values()) {
+            result.add(new AbstractMap.SimpleImmutableEntry<>(entry.key, entry.count));
+        }
+        result.sort(Map.Entry.<String, Long>comparingByValue().reversed());
+        return result;
+    }
+
+    /**
+     * 草图和前k的计数一起乘以factor，衰减到0的key移出前k
+     */
+    synchronized void decay(double factor) {
+        sketch.decay(factor);
+        List<Entry> kept = new ArrayList<>(entries.size());
+        for (Entry entry : entries.values()) {
+            entry.count = (long) (entry.count * factor);
+            if (entry.count > 0) {
+                kept.add(entry);
+            }
+        }
+        entries.clear();
+        heap.clear();
+        for (Entry entry : kept) {
+            entries.put(entry.key, entry);
+            heap.add(entry);
+        }
+        threshold = entries.size() < k ? 0 : heap.peek().count;
+    }
+
+    private static final class Entry {
+        final String key;
+        long count;
+
+        Entry(String key, long count) {
+            this.key = key;
+            this.count = count;
+        }
+    }
+}
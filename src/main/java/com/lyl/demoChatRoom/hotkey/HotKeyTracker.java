@@ -0,0 +1,112 @@
+package com.lyl.demoChatRoom.hotkey;
+
+import com.lyl.demoChatRoom.config.NettyServerProperties;
+import io.netty.util.concurrent.DefaultThreadFactory;
+
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 本节点的热点统计：发消息最多的用户、消息和加入最多的房间、查询最多的路由key
+ * 每类一个HeavyHitters，内存固定，与用户数和流量无关；计数按半衰期指数衰减，
+ * 稳定流量下的计数约为 每秒次数 * 半衰期 / ln2，接口中换算成每秒次数。
+ * 房间达到hot-room-per-second时判定为热点，路由器据此把新成员分散到所有候选节点
+ */
+public class HotKeyTracker {
+
+    private static final double LN2 = Math.log(2);
+
+    private final NettyServerProperties.HotKeys config;
+    private final HeavyHitters talkers;
+    private final HeavyHitters rooms;
+    private final HeavyHitters routeKeys;
+    private final ScheduledExecutorService scheduler;
+    // 计数与每秒次数的换算系数
+    private final double countPerRate;
+    private final long hotRoomCount;
+
+    public HotKeyTracker(NettyServerProperties.HotKeys config) {
+        this.config = config;
+        this.talkers = new HeavyHitters(config.getWidth(), config.getDepth(), config.getTopK());
+        this.rooms = new HeavyHitters(config.getWidth(), config.getDepth(), config.getTopK());
+        this.routeKeys = new HeavyHitters(config.getWidth(), config.getDepth(), config.getTopK());
+        this.countPerRate = config.getHalfLifeSeconds() / LN2;
+        this.hotRoomCount = Math.max(1, (long) (config.getHotRoomPerSecond() * countPerRate));
+
+        // 每个间隔衰减 2^(-间隔/半衰期)
+        double factor = Math.pow(0.5, config.getDecayIntervalMillis() / (config.getHalfLifeSeconds() * 1000.0));
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(new DefaultThreadFactory("hotkey-decay", true));
+        scheduler.scheduleWithFixedDelay(() -> {
+            talkers.decay(factor);
+            rooms.decay(factor);
+            routeKeys.decay(factor);
+        }, config.getDecayIntervalMillis(), config.getDecayIntervalMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 一条聊天消息
+     */
+    public void recordMessage(String user, String conversationId) {
+        if (user != null) {
+            talkers.add(user);
+        }
+        rooms.add(conversationId);
+    }
+
+    /**
+     * 一次路由查询，room不为null时同时计入房间
+     */
+    public void recordLookup(String routeKey, String room) {
+        routeKeys.add(routeKey);
+        if (room != null) {
+            rooms.add(room);
+        }
+    }
+
+    /**
+     * 房间近期的消息和加入速率是否达到热点阈值
+     */
+    public boolean isHotRoom(String roomId) {
+        return rooms.isHot(roomId, hotRoomCount);
+    }
+
+    /**
+     * 各类的前k个key，供/api/hot使用
+     */
+    public Map<String, Object> getSnapshot(int limit) {
+        Map<String, Object> snapshot = new LinkedHashMap<>();
+        snapshot.put("halfLifeSeconds", config.getHalfLifeSeconds());
+        snapshot.put("talkers", top(talkers, limit));
+        snapshot.put("rooms", top(rooms, limit));
+        snapshot.put("routeKeys", top(routeKeys, limit));
+        List<String> hotRooms = new ArrayList<>();
+        for (Map.Entry<String, Long> entry : rooms.top()) {
+            if (entry.getValue() >= hotRoomCount) {
+                hotRooms.add(entry.getKey());
+            }
+        }
+        snapshot.put("hotRooms", hotRooms);
+        return snapshot;
+    }
+
+    private List<Map<String, Object>> top(HeavyHitters hitters, int limit) {
+        List<Map<String, Object>> result = new ArrayList<>();
+        for (Map.Entry<String, Long> entry : hitters.top()) {
+            if (result.size() >= limit) {
+                break;
+            }
+            Map<String, Object> item = new LinkedHashMap<>();
+            item.put("key", entry.getKey());
+            item.put("count", entry.getValue());
+            item.put("perSecond", Math.round(entry.getValue() / countPerRate * 100) / 100.0);
+            result.add(item);
+        }
+        return result;
+    }
+
+    public void shutdown() {
+        scheduler.shutdownNow();
+    }
+}
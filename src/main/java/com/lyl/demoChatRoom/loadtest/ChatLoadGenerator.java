@@ -0,0 +1,325 @@
+package com.lyl.demoChatRoom.loadtest;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.ChannelPipeline;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.group.ChannelGroup;
+import io.netty.channel.group.DefaultChannelGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.handler.codec.http.DefaultHttpHeaders;
+import io.netty.handler.codec.http.HttpClientCodec;
+import io.netty.handler.codec.http.HttpObjectAggregator;
+import io.netty.handler.codec.http.websocketx.WebSocketClientHandshakerFactory;
+import io.netty.handler.codec.http.websocketx.WebSocketClientProtocolHandler;
+import io.netty.handler.codec.http.websocketx.WebSocketVersion;
+import io.netty.util.concurrent.GlobalEventExecutor;
+
+import java.net.URI;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * WebSocket压测/浸泡测试工具
+ * 建立N个并发连接到/chat，按chat.js的协议以指定速率发送消息，
+ * 周期性输出吞吐量、投递延迟百分位和建连速率
+ *
+ * 用法: ChatLoadGenerator --url=ws://localhost:8081/chat --connections=5000 --rate=1000 --duration=300
+ */
+public class ChatLoadGenerator {
+
+    static final String USER_PREFIX = "load-";
+    private static final String CONTENT_PREFIX = "LT|";
+
+    private final Options options;
+    private final URI uri;
+    private final String padding;
+
+    // 统计
+    private final LatencyHistogram deliveryLatency = new LatencyHistogram();
+    private final LatencyHistogram intervalLatency = new LatencyHistogram();
+    private final LatencyHistogram connectLatency = new LatencyHistogram();
+    private final LongAdder connected = new LongAdder();
+    private final LongAdder connectFailed = new LongAdder();
+    private final LongAdder disconnected = new LongAdder();
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder sendSkipped = new LongAdder();
+    private final LongAdder received = new LongAdder();
+    private final LongAdder foreign = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+
+    public ChatLoadGenerator(Options options) {
+        this.options = options;
+        this.uri = URI.create(options.url);
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < options.payloadBytes; i++) {
+            sb.append('x');
+        }
+        this.padding = sb.toString();
+    }
+
+    public void run() throws InterruptedException {
+        EventLoopGroup group = new NioEventLoopGroup(options.threads);
+        ChannelGroup channels = new DefaultChannelGroup(GlobalEventExecutor.INSTANCE);
+
+        try {
+            Bootstrap bootstrap = new Bootstrap();
+            bootstrap.group(group)
+                    .channel(NioSocketChannel.class)
+                    .option(ChannelOption.TCP_NODELAY, true)
+                    .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, 10000);
+
+            System.out.printf("压测开始: url=%s, connections=%d, rate=%d msg/s, rooms=%d, duration=%ds%n",
+                    options.url, options.connections, options.rate, options.rooms, options.durationSeconds);
+
+            // 1. 按建连速率逐步建立连接
+            long rampStart = System.nanoTime();
+            long connectIntervalNanos = options.connectRate > 0
+                    ? TimeUnit.SECONDS.toNanos(1) / options.connectRate : 0;
+            for (int i = 0; i < options.connections; i++) {
+                connect(bootstrap, channels, i);
+                if (connectIntervalNanos > 0) {
+                    long next = rampStart + (i + 1) * connectIntervalNanos;
+                    long sleep = next - System.nanoTime();
+                    if (sleep > 0) {
+                        TimeUnit.NANOSECONDS.sleep(sleep);
+                    }
+                }
+            }
+            waitForConnections(rampStart);
+            double rampSeconds = (System.nanoTime() - rampStart) / 1e9;
+            System.out.printf("建连完成: 成功 %d, 失败 %d, 耗时 %.2fs, 建连速率 %.1f conn/s, 握手耗时 p50=%dms p99=%dms%n",
+                    connected.sum(), connectFailed.sum(), rampSeconds, connected.sum() / rampSeconds,
+                    connectLatency.percentile(50) / 1000, connectLatency.percentile(99) / 1000);
+
+            // 2. 预热结束后清零，进入稳定测量阶段
+            TimeUnit.SECONDS.sleep(options.warmupSeconds);
+            resetCounters();
+            long measureStart = System.nanoTime();
+            long lastSent = 0;
+            long lastReceived = 0;
+            long deadline = measureStart + TimeUnit.SECONDS.toNanos(options.durationSeconds);
+
+            while (System.nanoTime() < deadline) {
+                TimeUnit.SECONDS.sleep(options.reportIntervalSeconds);
+                long nowSent = sent.sum();
+                long nowReceived = received.sum();
+                System.out.printf("[%4ds] conns=%d sent=%.0f/s recv=%.0f/s latency(ms) p50=%.2f p99=%.2f p999=%.2f%n",
+                        TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - measureStart),
+                        channels.size(),
+                        (nowSent - lastSent) / (double) options.reportIntervalSeconds,
+                        (nowReceived - lastReceived) / (double) options.reportIntervalSeconds,
+                        intervalLatency.percentile(50) / 1000.0,
+                        intervalLatency.percentile(99) / 1000.0,
+                        intervalLatency.percentile(99.9) / 1000.0);
+                intervalLatency.reset();
+                lastSent = nowSent;
+                lastReceived = nowReceived;
+            }
+
+            printSummary((System.nanoTime() - measureStart) / 1e9, rampSeconds);
+        } finally {
+            channels.close().awaitUninterruptibly(10, TimeUnit.SECONDS);
+            group.shutdownGracefully();
+        }
+    }
+
+    private void connect(Bootstrap bootstrap, ChannelGroup channels, int index) {
+        long start = System.nanoTime();
+        Bootstrap b = bootstrap.clone().handler(new ChannelInitializer<SocketChannel>() {
+            @Override
+            protected void initChannel(SocketChannel ch) {
+                ChannelPipeline pipeline = ch.pipeline();
+                pipeline.addLast(new HttpClientCodec());
+                pipeline.addLast(new HttpObjectAggregator(65536));
+                // 与chat.js一致，握手地址带上用户名
+                URI userUri = URI.create(options.url + (options.url.contains("?") ? "&" : "?")
+                        + "user=" + USER_PREFIX + index);
+                pipeline.addLast(new WebSocketClientProtocolHandler(
+                        WebSocketClientHandshakerFactory.newHandshaker(
+                                userUri, WebSocketVersion.V13, null, false, new DefaultHttpHeaders())));
+                pipeline.addLast(new LoadClientHandler(ChatLoadGenerator.this, index, start));
+            }
+        });
+
+        int port = uri.getPort() > 0 ? uri.getPort() : 80;
+        ChannelFuture future = b.connect(uri.getHost(), port);
+        future.addListener(f -> {
+            if (f.isSuccess()) {
+                Channel channel = future.channel();
+                channels.add(channel);
+            } else {
+                connectFailed.increment();
+            }
+        });
+    }
+
+    private void waitForConnections(long rampStart) throws InterruptedException {
+        long deadline = rampStart + TimeUnit.SECONDS.toNanos(options.connectTimeoutSeconds);
+        while (connected.sum() + connectFailed.sum() < options.connections && System.nanoTime() < deadline) {
+            TimeUnit.MILLISECONDS.sleep(100);
+        }
+    }
+
+    private void resetCounters() {
+        deliveryLatency.reset();
+        intervalLatency.reset();
+        sent.reset();
+        sendSkipped.reset();
+        received.reset();
+        foreign.reset();
+        errors.reset();
+    }
+
+    private void printSummary(double seconds, double rampSeconds) {
+        System.out.println("=== 压测结果 ===");
+        System.out.printf("测量时长: %.1fs%n", seconds);
+        System.out.printf("连接: 成功 %d, 失败 %d, 断开 %d, 建连速率 %.1f conn/s%n",
+                connected.sum(), connectFailed.sum(), disconnected.sum(), connected.sum() / rampSeconds);
+        System.out.printf("发送: %d (%.1f msg/s), 因背压跳过 %d%n", sent.sum(), sent.sum() / seconds, sendSkipped.sum());
+        System.out.printf("接收: %d (%.1f msg/s), 非压测消息 %d, 错误 %d%n",
+                received.sum(), received.sum() / seconds, foreign.sum(), errors.sum());
+        System.out.printf("投递延迟(ms): p50=%.2f p99=%.2f p999=%.2f max≈%.2f%n",
+                deliveryLatency.percentile(50) / 1000.0,
+                deliveryLatency.percentile(99) / 1000.0,
+                deliveryLatency.percentile(99.9) / 1000.0,
+                deliveryLatency.percentile(100) / 1000.0);
+    }
+
+    // ==================== 供LoadClientHandler回调 ====================
+
+    void onConnected(long handshakeNanos) {
+        connected.increment();
+        connectLatency.record(TimeUnit.NANOSECONDS.toMicros(handshakeNanos));
+    }
+
+    void onConnectFailed() {
+        connectFailed.increment();
+    }
+
+    void onDisconnected() {
+        disconnected.increment();
+    }
+
+    void onSent() {
+        sent.increment();
+    }
+
+    void onSendSkipped() {
+        sendSkipped.increment();
+    }
+
+    void onReceived(long latencyNanos) {
+        received.increment();
+        long micros = TimeUnit.NANOSECONDS.toMicros(latencyNanos);
+        deliveryLatency.record(micros);
+        intervalLatency.record(micros);
+    }
+
+    void onForeignMessage() {
+        foreign.increment();
+    }
+
+    void onError() {
+        errors.increment();
+    }
+
+    Options options() {
+        return options;
+    }
+
+    /**
+     * 每个连接的发送间隔，使所有连接合计达到目标速率
+     */
+    long sendIntervalMicros() {
+        if (options.rate <= 0) {
+            return 0;
+        }
+        return Math.max(1, TimeUnit.SECONDS.toMicros(1) * options.connections / options.rate);
+    }
+
+    /**
+     * 生成消息内容: LT|发送时间|房间|填充
+     * 房间按hotRoomRatio的比例落到热点房间0，其余均匀分布
+     */
+    String nextContent(long sendNanos, Random random) {
+        int room = 0;
+        if (options.rooms > 1 && random.nextDouble() >= options.hotRoomRatio) {
+            room = 1 + random.nextInt(options.rooms - 1);
+        }
+        return CONTENT_PREFIX + sendNanos + "|room-" + room + "|" + padding;
+    }
+
+    static long parseSendNanos(String content) {
+        if (content == null || !content.startsWith(CONTENT_PREFIX)) {
+            return -1;
+        }
+        int end = content.indexOf('|', CONTENT_PREFIX.length());
+        if (end < 0) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(content.substring(CONTENT_PREFIX.length(), end));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * 压测参数
+     */
+    public static class Options {
+        String url = "ws://localhost:8081/chat";
+        int connections = 1000;
+        int connectRate = 500;
+        int connectTimeoutSeconds = 120;
+        int rate = 100;
+        int rooms = 1;
+        double hotRoomRatio = 0.5;
+        int payloadBytes = 64;
+        int durationSeconds = 60;
+        int warmupSeconds = 5;
+        int reportIntervalSeconds = 5;
+        int threads = 0;
+        long seed = 42;
+
+        static Options parse(String[] args) {
+            Options options = new Options();
+            for (String arg : args) {
+                if (!arg.startsWith("--") || !arg.contains("=")) {
+                    throw new IllegalArgumentException("无效参数: " + arg);
+                }
+                String key = arg.substring(2, arg.indexOf('='));
+                String value = arg.substring(arg.indexOf('=') + 1);
+                switch (key) {
+                    case "url": options.url = value; break;
+                    case "connections": options.connections = Integer.parseInt(value); break;
+                    case "connect-rate": options.connectRate = Integer.parseInt(value); break;
+                    case "connect-timeout": options.connectTimeoutSeconds = Integer.parseInt(value); break;
+                    case "rate": options.rate = Integer.parseInt(value); break;
+                    case "rooms": options.rooms = Integer.parseInt(value); break;
+                    case "hot-room-ratio": options.hotRoomRatio = Double.parseDouble(value); break;
+                    case "payload": options.payloadBytes = Integer.parseInt(value); break;
+                    case "duration": options.durationSeconds = Integer.parseInt(value); break;
+                    case "warmup": options.warmupSeconds = Integer.parseInt(value); break;
+                    case "report-interval": options.reportIntervalSeconds = Integer.parseInt(value); break;
+                    case "threads": options.threads = Integer.parseInt(value); break;
+                    case "seed": options.seed = Long.parseLong(value); break;
+                    default:
+                        throw new IllegalArgumentException("未知参数: " + key);
+                }
+            }
+            return options;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        new ChatLoadGenerator(Options.parse(args)).run();
+    }
+}
@@ -0,0 +1,123 @@
+package com.lyl.demoChatRoom.loadtest;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.lyl.demoChatRoom.entity.ChatMessage;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.WebSocketClientProtocolHandler;
+import io.netty.util.concurrent.ScheduledFuture;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 压测客户端处理器：按chat.js的协议收发消息并统计投递延迟
+ */
+public class LoadClientHandler extends SimpleChannelInboundHandler<TextWebSocketFrame> {
+
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    private final ChatLoadGenerator generator;
+    private final int index;
+    private final long connectStartNanos;
+    private final Random random;
+
+    private ScheduledFuture<?> sendTask;
+    // 握手完成前的失败（握手被拒绝、超时、连接被关闭）只按建连失败计一次
+    private boolean handshakeComplete;
+    private boolean connectFailed;
+
+    public LoadClientHandler(ChatLoadGenerator generator, int index, long connectStartNanos) {
+        this.generator = generator;
+        this.index = index;
+        this.connectStartNanos = connectStartNanos;
+        // 固定种子，保证多次压测的消息分布可复现
+        this.random = new Random(generator.options().seed + index);
+    }
+
+    @Override
+    public void userEventTriggered(ChannelHandlerContext ctx, Object evt) throws Exception {
+        if (evt == WebSocketClientProtocolHandler.ClientHandshakeStateEvent.HANDSHAKE_COMPLETE) {
+            handshakeComplete = true;
+            generator.onConnected(System.nanoTime() - connectStartNanos);
+            startTasks(ctx);
+        } else if (evt == WebSocketClientProtocolHandler.ClientHandshakeStateEvent.HANDSHAKE_TIMEOUT) {
+            connectFailed();
+        }
+        super.userEventTriggered(ctx, evt);
+    }
+
+    private void startTasks(ChannelHandlerContext ctx) {
+        long intervalMicros = generator.sendIntervalMicros();
+        if (intervalMicros > 0) {
+            // 随机初始延迟，避免所有连接同时发送
+            long initialDelay = random.nextInt((int) Math.min(intervalMicros, Integer.MAX_VALUE));
+            sendTask = ctx.executor().scheduleAtFixedRate(
+                    () -> sendMessage(ctx), initialDelay, intervalMicros, TimeUnit.MICROSECONDS);
+        }
+        // 心跳与chat.js一致：服务端发送Ping控制帧，由WebSocketClientProtocolHandler自动回复Pong
+    }
+
+    private void sendMessage(ChannelHandlerContext ctx) {
+        if (!ctx.channel().isActive()) {
+            return;
+        }
+        if (!ctx.channel().isWritable()) {
+            generator.onSendSkipped();
+            return;
+        }
+
+        ChatMessage message = new ChatMessage();
+        message.setUser(ChatLoadGenerator.USER_PREFIX + index);
+        message.setContent(generator.nextContent(System.nanoTime(), random));
+        try {
+            ctx.writeAndFlush(new TextWebSocketFrame(mapper.writeValueAsString(message)));
+            generator.onSent();
+        } catch (Exception e) {
+            generator.onError();
+        }
+    }
+
+    @Override
+    protected void channelRead0(ChannelHandlerContext ctx, TextWebSocketFrame msg) throws Exception {
+        ChatMessage message = mapper.readValue(msg.text(), ChatMessage.class);
+        long sentNanos = ChatLoadGenerator.parseSendNanos(message.getContent());
+        if (sentNanos > 0) {
+            generator.onReceived(System.nanoTime() - sentNanos);
+        } else {
+            generator.onForeignMessage();
+        }
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        if (sendTask != null) {
+            sendTask.cancel(false);
+        }
+        if (handshakeComplete) {
+            generator.onDisconnected();
+        } else {
+            connectFailed();
+        }
+        super.channelInactive(ctx);
+    }
+
+    @Override
+    public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+        // 握手被拒绝（503/404/429等）时WebSocketClientProtocolHandler抛出异常，算作建连失败
+        if (handshakeComplete) {
+            generator.onError();
+        } else {
+            connectFailed();
+        }
+        ctx.close();
+    }
+
+    private void connectFailed() {
+        if (!connectFailed) {
+            connectFailed = true;
+            generator.onConnectFailed();
+        }
+    }
+}
@@ -0,0 +1,196 @@
+package com.lyl.demoChatRoom.netty;
+
+import com.lyl.demoChatRoom.config.NettyServerProperties;
+import com.lyl.demoChatRoom.util.ConnectionRouter.IAsyncConnectionRouter;
+import io.netty.channel.Channel;
+import io.netty.channel.EventLoopGroup;
+import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.concurrent.ScheduledFuture;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 接入控制
+ * 接受连接时检查打开的连接总数，超出直接关闭；握手时依次检查WebSocket连接上限、握手速率和EventLoop延迟，
+ * 过载时由AdmissionHandler返回503，并附上负载最低的其他节点。
+ * 负载最低节点由后台线程定期从路由器读取，拒绝路径上不访问Redis
+ */
+public class AdmissionController {
+
+    private static final Logger log = LoggerFactory.getLogger(AdmissionController.class);
+
+    /**
+     * 拒绝原因
+     */
+    public enum Rejection {
+        CONNECTIONS, HANDSHAKE_RATE, EVENT_LOOP_LAG
+    }
+
+    private final NettyServerProperties.Admission config;
+    private final IAsyncConnectionRouter router;
+    private final String nodeId;
+    private final TokenBucket handshakes;
+
+    // 已接受的TCP连接（含尚未握手的）和已完成准入的WebSocket连接
+    private final AtomicInteger openSockets = new AtomicInteger();
+    private final AtomicInteger connections = new AtomicInteger();
+    private final Map<Rejection, LongAdder> rejected = new EnumMap<>(Rejection.class);
+    private final LongAdder refusedSockets = new LongAdder();
+
+    // 每个EventLoop最近一次探测到的延迟
+    private volatile AtomicLongArray lagNanos = new AtomicLongArray(0);
+    private final List<ScheduledFuture<?>> probes = new ArrayList<>();
+    private ScheduledExecutorService hintScheduler;
+    private volatile String redirectNode;
+
+    /**
+     * @param router 为null时拒绝响应中不带重定向节点
+     */
+    public AdmissionController(NettyServerProperties.Admission config, IAsyncConnectionRouter router, String nodeId) {
+        this.config = config;
+        this.router = router;
+        this.nodeId = nodeId;
+        this.handshakes = new TokenBucket(config.getHandshakeBurst(), config.getHandshakesPerSecond());
+        for (Rejection rejection : Rejection.values()) {
+            rejected.put(rejection, new LongAdder());
+        }
+    }
+
+    /**
+     * 在每个worker EventLoop上启动延迟探测，并开始刷新重定向节点
+     */
+    public void start(EventLoopGroup workers) {
+        List<EventExecutor> loops = new ArrayList<>();
+        workers.forEach(loops::add);
+        lagNanos = new AtomicLongArray(loops.size());
+        long interval = TimeUnit.MILLISECONDS.toNanos(config.getLagProbeIntervalMillis());
+        for (int i = 0; i < loops.size(); i++) {
+            int index = i;
+            long[] expected = {System.nanoTime() + interval};
+            // 固定延迟的任务实际执行时间晚于预期的部分即为EventLoop的排队延迟
+            probes.add(loops.get(i).scheduleWithFixedDelay(() -> {
+                long now = System.nanoTime();
+                lagNanos.set(index, Math.max(0, now - expected[0]));
+                expected[0] = now + interval;
+            }, interval, interval, TimeUnit.NANOSECONDS));
+        }
+
+        if (router != null) {
+            hintScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "admission-hint");
+                thread.setDaemon(true);
+                return thread;
+            });
+            hintScheduler.scheduleWithFixedDelay(this::refreshRedirectNode, 0,
+                    config.getHintRefreshMillis(), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public void shutdown() {
+        probes.forEach(probe -> probe.cancel(false));
+        probes.clear();
+        if (hintScheduler != null) {
+            hintScheduler.shutdownNow();
+        }
+    }
+
+    /**
+     * 接受TCP连接时调用，打开的连接数超过上限返回false，调用方直接关闭连接
+     * 上限为WebSocket连接上限加上允许的握手突发数，给正在握手的连接留出余量
+     */
+    public boolean tryAccept(Channel channel) {
+        if (openSockets.incrementAndGet() > config.getMaxConnections() + config.getHandshakeBurst()) {
+            openSockets.decrementAndGet();
+            refusedSockets.increment();
+            return false;
+        }
+        channel.closeFuture().addListener(future -> openSockets.decrementAndGet());
+        return true;
+    }
+
+    /**
+     * WebSocket握手请求的准入检查，通过时占用一个连接名额，连接关闭后自动归还
+     * @return 通过返回null，否则返回拒绝原因
+     */
+    public Rejection tryAdmit(Channel channel) {
+        Rejection rejection = check();
+        if (rejection != null) {
+            rejected.get(rejection).increment();
+            return rejection;
+        }
+        channel.closeFuture().addListener(future -> connections.decrementAndGet());
+        return null;
+    }
+
+    private Rejection check() {
+        // 先做不修改状态的检查，拒绝时不消耗令牌
+        if (maxLagNanos() > TimeUnit.MILLISECONDS.toNanos(config.getMaxEventLoopLagMillis())) {
+            return Rejection.EVENT_LOOP_LAG;
+        }
+        if (connections.incrementAndGet() > config.getMaxConnections()) {
+            connections.decrementAndGet();
+            return Rejection.CONNECTIONS;
+        }
+        if (!handshakes.tryAcquire()) {
+            connections.decrementAndGet();
+            return Rejection.HANDSHAKE_RATE;
+        }
+        return null;
+    }
+
+    private long maxLagNanos() {
+        long max = 0;
+        for (int i = 0; i < lagNanos.length(); i++) {
+            max = Math.max(max, lagNanos.get(i));
+        }
+        return max;
+    }
+
+    private void refreshRedirectNode() {
+        try {
+            // 在独立线程上等待，Redis慢时下一次刷新顺延
+            redirectNode = router.getLoadStats().get(config.getHintRefreshMillis(), TimeUnit.MILLISECONDS)
+                    .leastLoaded(nodeId);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            log.warn("刷新重定向节点失败", e);
+        }
+    }
+
+    /**
+     * 负载最低的其他节点，未知时为null
+     */
+    public String getRedirectNode() {
+        return redirectNode;
+    }
+
+    public NettyServerProperties.Admission getConfig() {
+        return config;
+    }
+
+    /**
+     * 当前状态和累计拒绝数，供/api/admission使用
+     */
+    public Map<String, Object> getSnapshot() {
+        Map<String, Object> snapshot = new LinkedHashMap<>();
+        snapshot.put("openSockets", openSockets.get());
+        snapshot.put("connections", connections.get());
+        snapshot.put("maxConnections", config.getMaxConnections());
+        snapshot.put("eventLoopLagMillis", TimeUnit.NANOSECONDS.toMillis(maxLagNanos()));
+        snapshot.put("refusedSockets", refusedSockets.sum());
+        Map<String, Long> rejections = new LinkedHashMap<>();
+        rejected.forEach((rejection, count) -> rejections.put(rejection.name(), count.sum()));
+        snapshot.put("rejected", rejections);
+        snapshot.put("redirectNode", redirectNode);
+        return snapshot;
+    }
+}
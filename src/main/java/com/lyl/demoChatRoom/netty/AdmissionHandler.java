@@ -0,0 +1,76 @@
+package com.lyl.demoChatRoom.netty;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.handler.codec.http.*;
+import io.netty.util.ReferenceCountUtil;
+
+/**
+ * WebSocket握手的准入检查，紧跟在HttpServerCodec之后，
+ * 在请求体聚合、跨域处理和握手之前拒绝，过载时只付出解析请求行和请求头的代价。
+ * 拒绝时返回503，Retry-After为建议的重试间隔，X-Chat-Redirect为负载最低的其他节点；
+ * 准入后从管道中移除自己，普通HTTP请求不做检查
+ */
+public class AdmissionHandler extends ChannelInboundHandlerAdapter {
+
+    public static final String REDIRECT_HEADER = "X-Chat-Redirect";
+
+    private final AdmissionController admission;
+    // 已拒绝，丢弃该请求剩余的内容直到连接关闭
+    private boolean rejected;
+
+    public AdmissionHandler(AdmissionController admission) {
+        this.admission = admission;
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) {
+        if (rejected) {
+            ReferenceCountUtil.release(msg);
+            return;
+        }
+        if (!(msg instanceof HttpRequest) || !isUpgrade((HttpRequest) msg)) {
+            ctx.fireChannelRead(msg);
+            return;
+        }
+
+        AdmissionController.Rejection rejection = admission.tryAdmit(ctx.channel());
+        if (rejection == null) {
+            ctx.pipeline().remove(this);
+            ctx.fireChannelRead(msg);
+            return;
+        }
+        rejected = true;
+        ReferenceCountUtil.release(msg);
+        reject(ctx, rejection);
+    }
+
+    private static boolean isUpgrade(HttpRequest request) {
+        return request.headers().containsValue(HttpHeaderNames.UPGRADE, HttpHeaderValues.WEBSOCKET, true);
+    }
+
+    private void reject(ChannelHandlerContext ctx, AdmissionController.Rejection rejection) {
+        String redirect = admission.getRedirectNode();
+        StringBuilder json = new StringBuilder("{\"error\":\"overloaded\",\"reason\":\"")
+                .append(rejection.name()).append('"');
+        if (redirect != null) {
+            json.append(",\"redirect\":\"").append(redirect).append('"');
+        }
+        ByteBuf content = ByteBufUtil.writeUtf8(ctx.alloc(), json.append('}'));
+
+        FullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1,
+                HttpResponseStatus.SERVICE_UNAVAILABLE, content);
+        HttpHeaders headers = response.headers();
+        headers.set(HttpHeaderNames.CONTENT_TYPE, "application/json; charset=UTF-8");
+        headers.set(HttpHeaderNames.RETRY_AFTER, admission.getConfig().getRetryAfterSeconds());
+        headers.set(HttpHeaderNames.CONNECTION, HttpHeaderValues.CLOSE);
+        if (redirect != null) {
+            headers.set(REDIRECT_HEADER, redirect);
+        }
+        HttpUtil.setContentLength(response, content.readableBytes());
+        ctx.writeAndFlush(response).addListener(ChannelFutureListener.CLOSE);
+    }
+}
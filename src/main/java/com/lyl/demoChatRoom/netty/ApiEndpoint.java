@@ -0,0 +1,19 @@
+package com.lyl.demoChatRoom.netty;
+
+import io.netty.handler.codec.http.QueryStringDecoder;
+
+/**
+ * /api下的只读JSON接口
+ * 在EventLoop上执行，只能读取内存中已经准备好的数据；需要读文件等阻塞操作的接口返回CompletionStage，
+ * 在自己的线程池上完成，响应回到连接的EventLoop写出
+ */
+@FunctionalInterface
+public interface ApiEndpoint {
+
+    /**
+     * @return 序列化为JSON的响应体，返回null时响应404；也可以返回结果为响应体的CompletionStage，
+     *         以IllegalArgumentException失败时响应400，以RejectedExecutionException失败时响应503
+     * @throws IllegalArgumentException 参数错误，响应400
+     */
+    Object handle(QueryStringDecoder query) throws Exception;
+}
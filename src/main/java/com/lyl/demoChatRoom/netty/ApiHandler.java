@@ -0,0 +1,131 @@
+package com.lyl.demoChatRoom.netty;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.handler.codec.http.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * 处理/api/开头的HTTP请求，按路径分发给ApiEndpoint并返回JSON
+ * 接口返回CompletionStage时，完成后在连接的EventLoop上写出响应
+ */
+public class ApiHandler extends ChannelInboundHandlerAdapter {
+
+    private static final Logger log = LoggerFactory.getLogger(ApiHandler.class);
+
+    public static final String PREFIX = "/api/";
+
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    private final Map<String, ApiEndpoint> endpoints;
+
+    public ApiHandler(Map<String, ApiEndpoint> endpoints) {
+        this.endpoints = endpoints;
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        if (!(msg instanceof FullHttpRequest)) {
+            ctx.fireChannelRead(msg);
+            return;
+        }
+
+        FullHttpRequest request = (FullHttpRequest) msg;
+        QueryStringDecoder query = new QueryStringDecoder(request.uri());
+        if (!query.path().startsWith(PREFIX)) {
+            ctx.fireChannelRead(msg);
+            return;
+        }
+
+        try {
+            handle(ctx, request, query);
+        } finally {
+            request.release();
+        }
+    }
+
+    private void handle(ChannelHandlerContext ctx, FullHttpRequest request, QueryStringDecoder query) {
+        boolean keepAlive = HttpUtil.isKeepAlive(request);
+        if (request.method() != HttpMethod.GET) {
+            send(ctx, keepAlive, HttpResponseStatus.METHOD_NOT_ALLOWED, error("method not allowed"));
+            return;
+        }
+
+        ApiEndpoint endpoint = endpoints.get(query.path());
+        Object body = null;
+        if (endpoint != null) {
+            try {
+                body = endpoint.handle(query);
+            } catch (Exception e) {
+                respond(ctx, keepAlive, query.path(), null, e);
+                return;
+            }
+        }
+        if (body instanceof CompletionStage) {
+            String path = query.path();
+            ((CompletionStage<?>) body).whenComplete((result, error) ->
+                    ctx.executor().execute(() -> respond(ctx, keepAlive, path, result, error)));
+            return;
+        }
+        respond(ctx, keepAlive, query.path(), body, null);
+    }
+
+    private void respond(ChannelHandlerContext ctx, boolean keepAlive, String path, Object body, Throwable error) {
+        if (error instanceof CompletionException && error.getCause() != null) {
+            error = error.getCause();
+        }
+        if (error instanceof IllegalArgumentException) {
+            send(ctx, keepAlive, HttpResponseStatus.BAD_REQUEST, error(error.getMessage()));
+        } else if (error instanceof RejectedExecutionException) {
+            send(ctx, keepAlive, HttpResponseStatus.SERVICE_UNAVAILABLE, error("busy"));
+        } else if (error != null) {
+            log.error("接口处理失败: {}", path, error);
+            send(ctx, keepAlive, HttpResponseStatus.INTERNAL_SERVER_ERROR, error("internal error"));
+        } else if (body == null) {
+            send(ctx, keepAlive, HttpResponseStatus.NOT_FOUND, error("not found"));
+        } else {
+            send(ctx, keepAlive, HttpResponseStatus.OK, body);
+        }
+    }
+
+    private static Map<String, String> error(String message) {
+        return Collections.singletonMap("error", message);
+    }
+
+    private void send(ChannelHandlerContext ctx, boolean keepAlive, HttpResponseStatus status, Object body) {
+        ByteBuf content;
+        try {
+            content = Unpooled.wrappedBuffer(mapper.writeValueAsBytes(body));
+        } catch (Exception e) {
+            log.error("接口响应序列化失败", e);
+            status = HttpResponseStatus.INTERNAL_SERVER_ERROR;
+            content = ByteBufUtil.writeUtf8(ctx.alloc(), "{\"error\":\"internal error\"}");
+        }
+
+        FullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, status, content);
+        HttpHeaders headers = response.headers();
+        headers.set(HttpHeaderNames.CONTENT_TYPE, "application/json; charset=UTF-8");
+        headers.set(HttpHeaderNames.CACHE_CONTROL, HttpHeaderValues.NO_STORE);
+        headers.set(HttpHeaderNames.ACCESS_CONTROL_ALLOW_ORIGIN, "*");
+        HttpUtil.setContentLength(response, content.readableBytes());
+
+        HttpUtil.setKeepAlive(response, keepAlive);
+        ChannelFuture future = ctx.writeAndFlush(response);
+        if (!keepAlive) {
+            future.addListener(ChannelFutureListener.CLOSE);
+        }
+    }
+}
@@ -2,34 +2,216 @@ package com.lyl.demoChatRoom.netty;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.lyl.demoChatRoom.entity.ChatMessage;
+import com.lyl.demoChatRoom.hotkey.HotKeyTracker;
+import com.lyl.demoChatRoom.presence.PresenceService;
+import com.lyl.demoChatRoom.search.ChatSearchIndex;
+import com.lyl.demoChatRoom.tenant.Tenant;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.SimpleChannelInboundHandler;
 import io.netty.channel.group.ChannelGroup;
 import io.netty.channel.group.DefaultChannelGroup;
 import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.WebSocketServerProtocolHandler;
 import io.netty.util.concurrent.GlobalEventExecutor;
 
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
 public class ChatHandler extends SimpleChannelInboundHandler<TextWebSocketFrame> {
     // 使用ChannelGroup管理所有连接
     private static final ChannelGroup channels =
         new DefaultChannelGroup(GlobalEventExecutor.INSTANCE);
+    // 已完成WebSocket握手的连接，广播只发给这些连接
+    private static final ChannelGroup upgraded =
+        new DefaultChannelGroup(GlobalEventExecutor.INSTANCE);
+
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    private final ConversationSequencer sequencer;
+    private final MessageDeduplicator deduplicator;
+    private final EphemeralConflator ephemeral;
+    private final ChatSearchIndex search;
+    private final PresenceService presence;
+    private final HotKeyTracker hotKeys;
+
+    // 握手完成后登记的在线状态，连接移除时据此下线
+    private boolean online;
+    // 握手地址中的用户，在线统计和消息去重使用
+    private String user;
+    // 所属租户，未启用租户时为null；启用时广播和会话序号都限于本租户
+    private Tenant tenant;
+
+    // 本连接在各会话中的确认进度，只在本连接的EventLoop上访问
+    private final Map<String, AckWindow> ackWindows = new HashMap<>();
+
+    public ChatHandler(ConversationSequencer sequencer, MessageDeduplicator deduplicator,
+                       EphemeralConflator ephemeral, ChatSearchIndex search, PresenceService presence,
+                       HotKeyTracker hotKeys) {
+        this.sequencer = sequencer;
+        this.deduplicator = deduplicator;
+        this.ephemeral = ephemeral;
+        this.search = search;
+        this.presence = presence;
+        this.hotKeys = hotKeys;
+    }
+
+    /**
+     * 当前节点的所有连接（用于优雅关闭）
+     */
+    static ChannelGroup channelGroup() {
+        return channels;
+    }
 
-    private final ObjectMapper mapper = new ObjectMapper();
+    /**
+     * 当前节点已完成WebSocket握手的连接，不含还在HTTP阶段的连接
+     */
+    static ChannelGroup upgradedGroup() {
+        return upgraded;
+    }
 
     @Override
     protected void channelRead0(ChannelHandlerContext ctx, TextWebSocketFrame msg)
         throws Exception {
+        // 兼容旧客户端的文本心跳，新客户端使用协议层Ping/Pong
         if (msg.text().equals("ping")) {
-            ctx.writeAndFlush(new TextWebSocketFrame("pong"));
+            ctx.writeAndFlush(new LaneFrame(OutboundLane.CONTROL, "pong"));
             return;
         }
-        
+
         // 解析JSON消息
         ChatMessage chatMessage = mapper.readValue(msg.text(), ChatMessage.class);
-        
-        // 广播给所有客户端
-        String json = mapper.writeValueAsString(chatMessage);
-        channels.writeAndFlush(new TextWebSocketFrame(json));
+
+        if (ChatMessage.TYPE_ACK.equals(chatMessage.getType())) {
+            handleAck(ctx, chatMessage);
+            return;
+        }
+
+        if (ChatMessage.TYPE_TYPING.equals(chatMessage.getType())) {
+            handleTyping(chatMessage);
+            return;
+        }
+
+        // 按开头被限流当作控制消息放行的，解析出来却是聊天消息（例如重复的type字段），不能绕过聊天消息的限额
+        if (ControlFrames.isControl(msg.content())) {
+            return;
+        }
+
+        ChannelGroup recipients = recipients();
+        if (tenant != null && !tenant.tryAcquireOutbound(System.nanoTime(),
+                (long) msg.content().readableBytes() * recipients.size())) {
+            // 租户的广播流量超出配额，在去重登记之前丢弃，客户端未收到回显会保留消息并在重连后重发
+            return;
+        }
+
+        // 重连后重发的消息在广播前丢弃，只给发送方回执
+        if (deduplicator != null && chatMessage.getClientMsgId() != null
+                && !deduplicator.firstSeen(scoped(user != null ? user : chatMessage.getUser()), chatMessage.getClientMsgId())) {
+            ChatMessage receipt = new ChatMessage();
+            receipt.setType(ChatMessage.TYPE_DUPLICATE);
+            receipt.setClientMsgId(chatMessage.getClientMsgId());
+            ctx.writeAndFlush(new TextWebSocketFrame(mapper.writeValueAsString(receipt)));
+            return;
+        }
+
+        // 分配会话内序号并广播给所有客户端
+        ConversationLog log = sequencer().get(chatMessage.getConversationId());
+        if (hotKeys != null) {
+            hotKeys.recordMessage(scoped(user != null ? user : chatMessage.getUser()), scoped(log.getConversationId()));
+        }
+        chatMessage.setType(null);
+        chatMessage.setConversationId(log.getConversationId());
+        log.append(seq -> {
+            chatMessage.setSeq(seq);
+            chatMessage.setEpoch(log.getEpoch());
+            return mapper.writeValueAsString(chatMessage);
+        }, json -> recipients.writeAndFlush(new LaneFrame(OutboundLane.ROOM, json)));
+        if (search != null) {
+            search.offer(scoped(log.getConversationId()), chatMessage);
+        }
+    }
+
+    private ConversationSequencer sequencer() {
+        return tenant != null ? tenant.getSequencer() : sequencer;
+    }
+
+    private ChannelGroup recipients() {
+        return tenant != null ? tenant.getChannels() : upgraded;
+    }
+
+    /**
+     * 用户、会话等跨租户共用的key加上租户前缀
+     */
+    private String scoped(String key) {
+        return tenant != null ? tenant.scope(key) : key;
+    }
+
+    /**
+     * 处理累计确认：第一次确认作为续传起点，之后若有超时未确认的消息则从会话缓冲中重发
+     * 确认中的纪元与当前日志不同（服务重启或会话重建）时，客户端的序号对当前日志无效，按从头续传处理
+     */
+    private void handleAck(ChannelHandlerContext ctx, ChatMessage ack) {
+        if (ack.getSeq() == null) {
+            return;
+        }
+        ConversationLog log = sequencer().get(ack.getConversationId());
+        long acked = ack.getEpoch() != null && ack.getEpoch() != log.getEpoch() ? 0 : ack.getSeq();
+        AckWindow window = ackWindows.get(log.getConversationId());
+        boolean resume = window == null || window.epoch != log.getEpoch();
+        if (resume) {
+            window = new AckWindow();
+            window.epoch = log.getEpoch();
+            window.acked = acked;
+            ackWindows.put(log.getConversationId(), window);
+        } else {
+            window.acked = Math.max(window.acked, acked);
+        }
+
+        long now = System.nanoTime();
+        long resendDelay = TimeUnit.MILLISECONDS.toNanos(sequencer.getConfig().getResendDelayMillis());
+        if (log.head() <= window.acked || (!resume && now - window.lastResendNanos < resendDelay)) {
+            return;
+        }
+
+        // 续传时补发全部缺失消息；之后只重发已发出足够久仍未确认的，刚发出的可能还在路上
+        window.lastResendNanos = now;
+        log.replay(window.acked, resume ? now : now - resendDelay, sequencer.getConfig().getResendWindow(),
+                json -> ctx.write(new LaneFrame(OutboundLane.BULK, json)));
+        ctx.flush();
+    }
+
+    /**
+     * 正在输入状态交给合并器，未启用时丢弃
+     */
+    private void handleTyping(ChatMessage typing) {
+        if (ephemeral == null) {
+            return;
+        }
+        String sender = user != null ? user : typing.getUser();
+        ChatMessage state = new ChatMessage();
+        state.setType(ChatMessage.TYPE_TYPING);
+        state.setUser(sender);
+        state.setContent(typing.getContent());
+        state.setConversationId(typing.getConversationId() == null || typing.getConversationId().isEmpty()
+                ? ConversationSequencer.DEFAULT_CONVERSATION : typing.getConversationId());
+        ephemeral.offer(recipients(), scoped(sender), state);
+    }
+
+    @Override
+    public void userEventTriggered(ChannelHandlerContext ctx, Object evt) throws Exception {
+        if (evt instanceof WebSocketServerProtocolHandler.HandshakeComplete) {
+            user = Handshakes.user((WebSocketServerProtocolHandler.HandshakeComplete) evt);
+            tenant = TenantHandler.tenant(ctx.channel());
+            upgraded.add(ctx.channel());
+            if (tenant != null) {
+                tenant.getChannels().add(ctx.channel());
+            }
+            if (presence != null && !online) {
+                online = true;
+                presence.online(scoped(user));
+            }
+        }
+        super.userEventTriggered(ctx, evt);
     }
 
     @Override
@@ -40,6 +222,11 @@ public class ChatHandler extends SimpleChannelInboundHandler<TextWebSocketFrame>
     @Override
     public void handlerRemoved(ChannelHandlerContext ctx) {
         channels.remove(ctx.channel());
+        upgraded.remove(ctx.channel());
+        if (online) {
+            online = false;
+            presence.offline(scoped(user));
+        }
     }
 
     @Override
@@ -47,4 +234,13 @@ public class ChatHandler extends SimpleChannelInboundHandler<TextWebSocketFrame>
         cause.printStackTrace();
         ctx.close();
     }
-}
\ No newline at end of file
+
+    /**
+     * 单个会话的确认窗口：所属纪元、已确认序号和上次重发时间
+     */
+    private static final class AckWindow {
+        long epoch;
+        long acked;
+        long lastResendNanos;
+    }
+}
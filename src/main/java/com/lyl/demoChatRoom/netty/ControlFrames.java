@@ -0,0 +1,54 @@
+package com.lyl.demoChatRoom.netty;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.WebSocketFrame;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 确认和正在输入这类控制消息的识别
+ * 限流处理器在解析JSON之前按开头判断，控制消息单独计数，不占用聊天消息的额度；
+ * 只认客户端（chat.js）生成的格式：type是第一个字段，且消息不超过MAX_SIZE
+ */
+final class ControlFrames {
+
+    static final int MAX_SIZE = 512;
+
+    private static final byte[][] PREFIXES = {
+            "{\"type\":\"ack\"".getBytes(StandardCharsets.UTF_8),
+            "{\"type\":\"typing\"".getBytes(StandardCharsets.UTF_8)
+    };
+
+    private ControlFrames() {
+    }
+
+    static boolean isControl(WebSocketFrame frame) {
+        return frame instanceof TextWebSocketFrame && frame.isFinalFragment() && isControl(frame.content());
+    }
+
+    static boolean isControl(ByteBuf content) {
+        if (content.readableBytes() > MAX_SIZE) {
+            return false;
+        }
+        for (byte[] prefix : PREFIXES) {
+            if (startsWith(content, prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean startsWith(ByteBuf content, byte[] prefix) {
+        if (content.readableBytes() < prefix.length) {
+            return false;
+        }
+        int start = content.readerIndex();
+        for (int i = 0; i < prefix.length; i++) {
+            if (content.getByte(start + i) != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,110 @@
+package com.lyl.demoChatRoom.netty;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * 单个会话的序号分配和最近消息环形缓冲
+ * 序号和编码后的消息按槽位存放在数组里，确认和重发只比较long序号，不为每条消息建对象
+ */
+public class ConversationLog {
+
+    // 纪元以启动时间（微秒）为起点递增，重启后的纪元大于重启前的，除非上次运行中平均每毫秒新建超过1000个会话
+    private static final AtomicLong EPOCHS = new AtomicLong(TimeUnit.MILLISECONDS.toMicros(System.currentTimeMillis()));
+
+    private final String conversationId;
+    private final long epoch = EPOCHS.incrementAndGet();
+    private final String[] frames;
+    private final long[] seqs;
+    private final long[] timestamps;
+    private long head;
+
+    public ConversationLog(String conversationId, int capacity) {
+        this.conversationId = conversationId;
+        this.frames = new String[capacity];
+        this.seqs = new long[capacity];
+        this.timestamps = new long[capacity];
+    }
+
+    /**
+     * 分配下一个序号，编码并存入缓冲后投递
+     * 只有分配和存储持有锁，投递（广播）在锁外，慢的广播不会阻塞同一会话的其他发送方；
+     * 并发发送时各连接收到的顺序可能与序号不同，由客户端按序号缓冲重排
+     */
+    public long append(Encoder encoder, Consumer<String> deliver) throws Exception {
+        long seq;
+        String frame;
+        synchronized (this) {
+            seq = head + 1;
+            frame = encoder.encode(seq);
+            int slot = (int) (seq % frames.length);
+            frames[slot] = frame;
+            seqs[slot] = seq;
+            timestamps[slot] = System.nanoTime();
+            head = seq;
+        }
+        deliver.accept(frame);
+        return seq;
+    }
+
+    public synchronized long head() {
+        return head;
+    }
+
+    /**
+     * 环形缓冲中仍保留的最小序号
+     */
+    public synchronized long oldest() {
+        return Math.max(1, head - frames.length + 1);
+    }
+
+    /**
+     * 回放(afterSeq, head]中早于指定时间写入的消息，最多limit条
+     * @return 回放的最后一个序号，没有可回放的消息时返回afterSeq
+     */
+    public long replay(long afterSeq, long writtenBeforeNanos, int limit, Consumer<String> consumer) {
+        String[] batch;
+        long last = afterSeq;
+        synchronized (this) {
+            long from = Math.max(afterSeq + 1, oldest());
+            long to = Math.min(head, from + limit - 1);
+            if (from > to) {
+                return afterSeq;
+            }
+            batch = new String[(int) (to - from + 1)];
+            int n = 0;
+            for (long seq = from; seq <= to; seq++) {
+                int slot = (int) (seq % frames.length);
+                if (seqs[slot] != seq || timestamps[slot] - writtenBeforeNanos > 0) {
+                    break;
+                }
+                batch[n++] = frames[slot];
+                last = seq;
+            }
+        }
+        for (String frame : batch) {
+            if (frame == null) {
+                break;
+            }
+            consumer.accept(frame);
+        }
+        return last;
+    }
+
+    public String getConversationId() {
+        return conversationId;
+    }
+
+    /**
+     * 本日志的纪元：服务重启或会话被淘汰后重建时序号从1重新开始，纪元随之变大，客户端据此重置确认进度
+     */
+    public long getEpoch() {
+        return epoch;
+    }
+
+    @FunctionalInterface
+    public interface Encoder {
+        String encode(long seq) throws Exception;
+    }
+}
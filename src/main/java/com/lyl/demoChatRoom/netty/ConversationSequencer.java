@@ -0,0 +1,38 @@
+package com.lyl.demoChatRoom.netty;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.lyl.demoChatRoom.config.NettyServerProperties;
+
+import java.util.concurrent.ExecutionException;
+
+/**
+ * 管理所有会话的序号和重发缓冲，会话数量有上限，长期不活跃的会话优先淘汰
+ */
+public class ConversationSequencer {
+
+    public static final String DEFAULT_CONVERSATION = "lobby";
+
+    private final NettyServerProperties.Delivery config;
+    private final Cache<String, ConversationLog> logs;
+
+    public ConversationSequencer(NettyServerProperties.Delivery config) {
+        this.config = config;
+        this.logs = CacheBuilder.newBuilder()
+                .maximumSize(config.getMaxConversations())
+                .build();
+    }
+
+    public ConversationLog get(String conversationId) {
+        String id = conversationId == null || conversationId.isEmpty() ? DEFAULT_CONVERSATION : conversationId;
+        try {
+            return logs.get(id, () -> new ConversationLog(id, config.getLogCapacity()));
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    public NettyServerProperties.Delivery getConfig() {
+        return config;
+    }
+}
@@ -0,0 +1,127 @@
+package com.lyl.demoChatRoom.netty;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.lyl.demoChatRoom.config.NettyServerProperties;
+import com.lyl.demoChatRoom.entity.ChatMessage;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.group.ChannelGroup;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 临时状态消息的合并发送
+ * 同一发送者对同一会话只保留最新状态，按固定间隔统一广播，所以每个发送者每个会话的广播频率有上限；
+ * 不分配序号、不进入重发缓冲，只发给已完成WebSocket握手且当前可写的连接
+ */
+public class EphemeralConflator {
+
+    private static final Logger log = LoggerFactory.getLogger(EphemeralConflator.class);
+
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    private final ChannelGroup recipients;
+    private final int maxPending;
+    // 发送者 + 会话 -> 最新状态
+    private final Map<String, Pending> latest = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService scheduler;
+    private final LongAdder conflated = new LongAdder();
+
+    public EphemeralConflator(ChannelGroup recipients, NettyServerProperties.Ephemeral config) {
+        this.recipients = recipients;
+        this.maxPending = config.getMaxPending();
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "ephemeral-flush");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::flush, config.getFlushIntervalMillis(),
+                config.getFlushIntervalMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 提交一条临时状态，覆盖同一发送者在同一会话中尚未发出的状态
+     */
+    public void offer(String sender, ChatMessage message) {
+        offer(recipients, sender, message);
+    }
+
+    /**
+     * 提交一条只发给指定连接的临时状态（启用租户时为本租户的连接）
+     * @param sender 已加上租户前缀的发送者，用于合并
+     */
+    public void offer(ChannelGroup recipients, String sender, ChatMessage message) {
+        String key = sender + '\0' + message.getConversationId();
+        if (latest.size() >= maxPending && !latest.containsKey(key)) {
+            // 积压过多时新的发送者直接丢弃
+            conflated.increment();
+            return;
+        }
+        if (latest.put(key, new Pending(recipients, message)) != null) {
+            conflated.increment();
+        }
+    }
+
+    /**
+     * 定时任务抛出异常后不会再执行，所有异常都在这里吞掉
+     */
+    private void flush() {
+        try {
+            flushPending();
+        } catch (Throwable t) {
+            log.error("临时状态发送失败", t);
+        }
+    }
+
+    private void flushPending() {
+        Set<ChannelGroup> written = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (String key : latest.keySet()) {
+            // 取出时以remove为准，遍历期间的新状态不会丢
+            Pending pending = latest.remove(key);
+            if (pending == null) {
+                continue;
+            }
+            try {
+                byte[] json = mapper.writeValueAsBytes(pending.message);
+                pending.recipients.write(new EphemeralFrame(Unpooled.wrappedBuffer(json)), channel -> channel.isWritable());
+                written.add(pending.recipients);
+            } catch (JsonProcessingException e) {
+                log.warn("临时状态序列化失败", e);
+            }
+        }
+        for (ChannelGroup group : written) {
+            group.flush();
+        }
+    }
+
+    /**
+     * 被合并或丢弃的临时状态数
+     */
+    public long getConflated() {
+        return conflated.sum();
+    }
+
+    public void shutdown() {
+        scheduler.shutdownNow();
+    }
+
+    private static final class Pending {
+        final ChannelGroup recipients;
+        final ChatMessage message;
+
+        Pending(ChannelGroup recipients, ChatMessage message) {
+            this.recipients = recipients;
+            this.message = message;
+        }
+    }
+}
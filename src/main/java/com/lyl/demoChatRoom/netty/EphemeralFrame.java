@@ -0,0 +1,33 @@
+package com.lyl.demoChatRoom.netty;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+
+/**
+ * 临时状态消息（正在输入等）的帧
+ * 内容与普通文本帧相同，出站处理器据此识别：连接忙时直接丢弃，不排队也不重发
+ */
+public class EphemeralFrame extends TextWebSocketFrame {
+
+    public EphemeralFrame(ByteBuf content) {
+        super(content);
+    }
+
+    @Override
+    public EphemeralFrame replace(ByteBuf content) {
+        // ChannelGroup写入时经retainedDuplicate调用，保持帧类型
+        return new EphemeralFrame(content);
+    }
+
+    @Override
+    public EphemeralFrame retain() {
+        super.retain();
+        return this;
+    }
+
+    @Override
+    public EphemeralFrame touch(Object hint) {
+        super.touch(hint);
+        return this;
+    }
+}
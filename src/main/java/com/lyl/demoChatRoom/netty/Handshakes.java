@@ -0,0 +1,34 @@
+package com.lyl.demoChatRoom.netty;
+
+import io.netty.handler.codec.http.QueryStringDecoder;
+import io.netty.handler.codec.http.websocketx.WebSocketServerProtocolHandler;
+
+import java.util.List;
+
+/**
+ * 握手请求相关的工具方法
+ */
+final class Handshakes {
+
+    private Handshakes() {
+    }
+
+    /**
+     * 握手地址中的user参数，没有或为空时返回null
+     */
+    static String user(WebSocketServerProtocolHandler.HandshakeComplete handshake) {
+        return parameter(handshake, "user");
+    }
+
+    /**
+     * 握手地址中的room参数（要加入的房间/会话），没有或为空时返回null
+     */
+    static String room(WebSocketServerProtocolHandler.HandshakeComplete handshake) {
+        return parameter(handshake, "room");
+    }
+
+    private static String parameter(WebSocketServerProtocolHandler.HandshakeComplete handshake, String name) {
+        List<String> values = new QueryStringDecoder(handshake.requestUri()).parameters().get(name);
+        return values != null && !values.isEmpty() && !values.get(0).isEmpty() ? values.get(0) : null;
+    }
+}
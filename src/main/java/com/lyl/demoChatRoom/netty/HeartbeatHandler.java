@@ -0,0 +1,123 @@
+package com.lyl.demoChatRoom.netty;
+
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.http.websocketx.PingWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.PongWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.WebSocketServerProtocolHandler;
+import io.netty.util.ReferenceCountUtil;
+import io.netty.util.Timeout;
+import io.netty.util.TimerTask;
+
+/**
+ * 协议层心跳处理
+ * 服务端在连接空闲时发送WebSocket Ping控制帧（浏览器会自动回复Pong），
+ * 超过空闲时间仍无任何入站数据则关闭连接
+ */
+public class HeartbeatHandler extends ChannelDuplexHandler {
+
+    private final IdleConnectionMonitor monitor;
+
+    private ChannelHandlerContext ctx;
+    // 时间轮到期后切回EventLoop执行检查，任务对象复用
+    private final Runnable checkTask = this::check;
+    private final TimerTask timerTask = t -> ctx.executor().execute(checkTask);
+    private Timeout timeout;
+    private long lastReadNanos;
+    private long lastPingNanos;
+    private boolean upgraded;
+
+    public HeartbeatHandler(IdleConnectionMonitor monitor) {
+        this.monitor = monitor;
+    }
+
+    @Override
+    public void handlerAdded(ChannelHandlerContext ctx) {
+        this.ctx = ctx;
+        if (ctx.channel().isActive()) {
+            start();
+        }
+    }
+
+    @Override
+    public void channelActive(ChannelHandlerContext ctx) throws Exception {
+        start();
+        super.channelActive(ctx);
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        cancel();
+        super.channelInactive(ctx);
+    }
+
+    @Override
+    public void handlerRemoved(ChannelHandlerContext ctx) {
+        cancel();
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        // 任何入站数据都视为活跃，只记录时间戳，不重新调度
+        lastReadNanos = System.nanoTime();
+        if (msg instanceof PongWebSocketFrame) {
+            ReferenceCountUtil.release(msg);
+            return;
+        }
+        super.channelRead(ctx, msg);
+    }
+
+    @Override
+    public void userEventTriggered(ChannelHandlerContext ctx, Object evt) throws Exception {
+        if (evt instanceof WebSocketServerProtocolHandler.HandshakeComplete) {
+            upgraded = true;
+        }
+        super.userEventTriggered(ctx, evt);
+    }
+
+    private void start() {
+        if (timeout != null) {
+            return;
+        }
+        lastReadNanos = System.nanoTime();
+        lastPingNanos = lastReadNanos;
+        timeout = monitor.schedule(timerTask, monitor.pingIntervalNanos());
+    }
+
+    private void cancel() {
+        if (timeout != null) {
+            timeout.cancel();
+            timeout = null;
+        }
+    }
+
+    /**
+     * 在连接所属的EventLoop上执行，无需同步
+     */
+    private void check() {
+        if (timeout == null || !ctx.channel().isActive()) {
+            return;
+        }
+
+        long now = System.nanoTime();
+        long idle = now - lastReadNanos;
+        if (idle >= monitor.idleTimeoutNanos()) {
+            monitor.onEvicted();
+            timeout = null;
+            ctx.close();
+            return;
+        }
+
+        if (upgraded && idle >= monitor.pingIntervalNanos()
+                && now - lastPingNanos >= monitor.pingIntervalNanos()) {
+            lastPingNanos = now;
+            monitor.onPingSent();
+            ctx.writeAndFlush(new PingWebSocketFrame());
+        }
+
+        // 下一次检查：最近的Ping时间点或关闭时间点
+        long nextPing = Math.max(lastReadNanos, lastPingNanos) + monitor.pingIntervalNanos() - now;
+        long nextEvict = lastReadNanos + monitor.idleTimeoutNanos() - now;
+        timeout = monitor.schedule(timerTask, Math.min(nextPing, nextEvict));
+    }
+}
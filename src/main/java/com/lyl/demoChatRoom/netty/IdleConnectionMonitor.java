@@ -0,0 +1,74 @@
+package com.lyl.demoChatRoom.netty;
+
+import io.netty.util.HashedWheelTimer;
+import io.netty.util.Timeout;
+import io.netty.util.TimerTask;
+import io.netty.util.concurrent.DefaultThreadFactory;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 全局共享的空闲连接监控
+ * 所有连接共用一个哈希时间轮，每个连接只挂一个轻量的Timeout，
+ * 到期后才检查是否需要发送Ping或关闭，读消息时不重新调度
+ */
+public class IdleConnectionMonitor {
+
+    private final HashedWheelTimer timer;
+    private final long pingIntervalNanos;
+    private final long idleTimeoutNanos;
+    private final long slackNanos;
+
+    // 统计
+    private final LongAdder pingsSent = new LongAdder();
+    private final LongAdder evicted = new LongAdder();
+
+    /**
+     * @param pingIntervalMillis 连接空闲多久后发送一次Ping
+     * @param idleTimeoutMillis  连接空闲多久后关闭
+     * @param slackMillis        时间轮刻度，即允许的检查误差
+     */
+    public IdleConnectionMonitor(long pingIntervalMillis, long idleTimeoutMillis, long slackMillis) {
+        this.pingIntervalNanos = TimeUnit.MILLISECONDS.toNanos(pingIntervalMillis);
+        this.idleTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(idleTimeoutMillis);
+        this.slackNanos = TimeUnit.MILLISECONDS.toNanos(slackMillis);
+        this.timer = new HashedWheelTimer(
+                new DefaultThreadFactory("idle-monitor", true), slackMillis, TimeUnit.MILLISECONDS, 512);
+    }
+
+    Timeout schedule(TimerTask task, long delayNanos) {
+        return timer.newTimeout(task, Math.max(delayNanos, slackNanos), TimeUnit.NANOSECONDS);
+    }
+
+    long pingIntervalNanos() {
+        return pingIntervalNanos;
+    }
+
+    long idleTimeoutNanos() {
+        return idleTimeoutNanos;
+    }
+
+    void onPingSent() {
+        pingsSent.increment();
+    }
+
+    void onEvicted() {
+        evicted.increment();
+    }
+
+    public long getPingsSent() {
+        return pingsSent.sum();
+    }
+
+    public long getEvicted() {
+        return evicted.sum();
+    }
+
+    /**
+     * 停止时间轮，未到期的检查全部丢弃
+     */
+    public void stop() {
+        timer.stop();
+    }
+}
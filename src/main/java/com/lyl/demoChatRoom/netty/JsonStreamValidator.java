@@ -0,0 +1,241 @@
+package com.lyl.demoChatRoom.netty;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.util.ByteProcessor;
+
+/**
+ * 增量JSON结构校验
+ * 逐字节检查分片到达的消息是否是一个完整的JSON对象，只保存嵌套栈和当前状态，不保存任何值，
+ * 因此内存占用与消息长度无关（Jackson的非阻塞解析器会把整个字符串值缓存下来）。
+ * UTF-8编码由Netty的WebSocket解码器校验
+ */
+class JsonStreamValidator implements ByteProcessor {
+
+    private static final int VALUE = 0;
+    private static final int VALUE_OR_END = 1;
+    private static final int AFTER_VALUE = 2;
+    private static final int KEY_OR_END = 3;
+    private static final int KEY = 4;
+    private static final int COLON = 5;
+    private static final int STRING = 6;
+    private static final int NUMBER = 7;
+    private static final int LITERAL = 8;
+    private static final int ERROR = 9;
+
+    private static final byte OBJECT = 1;
+    private static final byte ARRAY = 2;
+
+    private final byte[] stack;
+    private int depth;
+    private int state = VALUE;
+    private boolean inKey;
+    private boolean escaped;
+    private int hexRemaining;
+    private String literal;
+    private int literalPos;
+    private boolean complete;
+
+    /**
+     * @param maxDepth 最大嵌套层数
+     */
+    JsonStreamValidator(int maxDepth) {
+        this.stack = new byte[maxDepth];
+    }
+
+    /**
+     * 校验一段内容，不改变读写索引
+     * @return 出现语法错误时返回false
+     */
+    boolean feed(ByteBuf content) {
+        return content.forEachByte(this) == -1 && state != ERROR;
+    }
+
+    /**
+     * 消息结束时调用
+     * @return 是否恰好是一个完整的JSON对象
+     */
+    boolean finish() {
+        return complete && state == AFTER_VALUE;
+    }
+
+    @Override
+    public boolean process(byte b) {
+        switch (state) {
+            case STRING:
+                return string(b);
+            case NUMBER:
+                if (isNumberPart(b)) {
+                    return true;
+                }
+                endValue();
+                return process(b);
+            case LITERAL:
+                if (b != literal.charAt(literalPos++)) {
+                    return fail();
+                }
+                if (literalPos == literal.length()) {
+                    endValue();
+                }
+                return true;
+            case ERROR:
+                return false;
+            default:
+                break;
+        }
+
+        if (b == ' ' || b == '\t' || b == '\n' || b == '\r') {
+            return true;
+        }
+
+        switch (state) {
+            case VALUE_OR_END:
+                if (b == ']') {
+                    depth--;
+                    endValue();
+                    return true;
+                }
+                return startValue(b);
+            case VALUE:
+                return startValue(b);
+            case KEY_OR_END:
+                if (b == '}') {
+                    depth--;
+                    endValue();
+                    return true;
+                }
+                return startKey(b);
+            case KEY:
+                return startKey(b);
+            case COLON:
+                if (b != ':') {
+                    return fail();
+                }
+                state = VALUE;
+                return true;
+            case AFTER_VALUE:
+                return afterValue(b);
+            default:
+                return fail();
+        }
+    }
+
+    private boolean startValue(byte b) {
+        // 根节点必须是对象
+        if (depth == 0 && b != '{') {
+            return fail();
+        }
+        switch (b) {
+            case '{':
+                return push(OBJECT, KEY_OR_END);
+            case '[':
+                return push(ARRAY, VALUE_OR_END);
+            case '"':
+                state = STRING;
+                return true;
+            case 't':
+                return startLiteral("true");
+            case 'f':
+                return startLiteral("false");
+            case 'n':
+                return startLiteral("null");
+            default:
+                if (b == '-' || (b >= '0' && b <= '9')) {
+                    state = NUMBER;
+                    return true;
+                }
+                return fail();
+        }
+    }
+
+    private boolean startKey(byte b) {
+        if (b != '"') {
+            return fail();
+        }
+        inKey = true;
+        state = STRING;
+        return true;
+    }
+
+    private boolean afterValue(byte b) {
+        if (depth == 0) {
+            // 根对象之后不允许再有内容
+            return fail();
+        }
+        byte container = stack[depth - 1];
+        if (b == ',') {
+            state = container == OBJECT ? KEY : VALUE;
+            return true;
+        }
+        if ((container == OBJECT && b == '}') || (container == ARRAY && b == ']')) {
+            depth--;
+            endValue();
+            return true;
+        }
+        return fail();
+    }
+
+    private boolean string(byte b) {
+        if (hexRemaining > 0) {
+            if (Character.digit(b, 16) < 0) {
+                return fail();
+            }
+            hexRemaining--;
+            return true;
+        }
+        if (escaped) {
+            escaped = false;
+            if (b == 'u') {
+                hexRemaining = 4;
+                return true;
+            }
+            return "\"\\/bfnrt".indexOf(b) >= 0 || fail();
+        }
+        if (b == '\\') {
+            escaped = true;
+            return true;
+        }
+        if (b == '"') {
+            if (inKey) {
+                inKey = false;
+                state = COLON;
+            } else {
+                endValue();
+            }
+            return true;
+        }
+        // 字符串中不允许未转义的控制字符
+        return (b & 0xff) >= 0x20 || fail();
+    }
+
+    private boolean startLiteral(String value) {
+        literal = value;
+        literalPos = 1;
+        state = LITERAL;
+        return true;
+    }
+
+    private boolean push(byte container, int nextState) {
+        if (depth == stack.length) {
+            return fail();
+        }
+        stack[depth++] = container;
+        state = nextState;
+        return true;
+    }
+
+    private void endValue() {
+        state = AFTER_VALUE;
+        if (depth == 0) {
+            complete = true;
+        }
+    }
+
+    private boolean fail() {
+        state = ERROR;
+        return false;
+    }
+
+    private static boolean isNumberPart(byte b) {
+        return (b >= '0' && b <= '9') || b == '.' || b == 'e' || b == 'E' || b == '+' || b == '-';
+    }
+}
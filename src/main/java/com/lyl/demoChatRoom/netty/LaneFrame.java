@@ -0,0 +1,44 @@
+package com.lyl.demoChatRoom.netty;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+
+/**
+ * 标记了出站通道的文本帧，由PriorityOutboundHandler按通道排队
+ */
+public class LaneFrame extends TextWebSocketFrame {
+
+    private final OutboundLane lane;
+
+    public LaneFrame(OutboundLane lane, String text) {
+        super(text);
+        this.lane = lane;
+    }
+
+    public LaneFrame(OutboundLane lane, ByteBuf content) {
+        super(content);
+        this.lane = lane;
+    }
+
+    public OutboundLane getLane() {
+        return lane;
+    }
+
+    @Override
+    public LaneFrame replace(ByteBuf content) {
+        // ChannelGroup写入时经retainedDuplicate调用，保持通道标记
+        return new LaneFrame(lane, content);
+    }
+
+    @Override
+    public LaneFrame retain() {
+        super.retain();
+        return this;
+    }
+
+    @Override
+    public LaneFrame touch(Object hint) {
+        super.touch(hint);
+        return this;
+    }
+}
@@ -0,0 +1,137 @@
+package com.lyl.demoChatRoom.netty;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import com.lyl.demoChatRoom.config.NettyServerProperties;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 按 发送者+客户端消息ID 去重，只记住最近一个时间窗口
+ * 窗口分成若干时间桶，每个桶是固定容量的long开放寻址表，保存64位指纹而不是字符串，
+ * 桶过期时整体清空；按指纹分段加锁。总内存在创建时确定，与消息量无关：
+ * 某个桶写满后新的指纹不再记录（消息照常投递），相当于高峰期窗口变短。
+ * 指纹冲突会把不同消息误判为重复，64位指纹下可以忽略
+ */
+public class MessageDeduplicator {
+
+    private static final HashFunction HASH = Hashing.murmur3_128();
+
+    // 桶内最多使用一半的槽位，保证线性探测的长度
+    private static final int LOAD_FACTOR_INVERSE = 2;
+
+    private final long bucketNanos;
+    private final Stripe[] stripes;
+    private final LongAdder duplicates = new LongAdder();
+    private final LongAdder overflows = new LongAdder();
+
+    public MessageDeduplicator(NettyServerProperties.Dedup config) {
+        int buckets = Math.max(2, config.getBuckets());
+        int stripeCount = Integer.highestOneBit(Math.max(1, config.getStripes()));
+        this.bucketNanos = Math.max(1, TimeUnit.SECONDS.toNanos(config.getWindowSeconds()) / buckets);
+        // 每个桶的槽位数取2的幂，便于用掩码定位
+        long perBucket = Math.max(16, (long) config.getMaxEntries() * LOAD_FACTOR_INVERSE / stripeCount / buckets);
+        int slots = Integer.highestOneBit((int) Math.min(perBucket, 1 << 30));
+        this.stripes = new Stripe[stripeCount];
+        for (int i = 0; i < stripeCount; i++) {
+            stripes[i] = new Stripe(buckets, slots);
+        }
+    }
+
+    /**
+     * 登记一条消息
+     * @return 窗口内第一次出现返回true，重复返回false
+     */
+    public boolean firstSeen(String sender, String clientMsgId) {
+        long fingerprint = HASH.newHasher()
+                .putString(sender == null ? "" : sender, StandardCharsets.UTF_8)
+                .putByte((byte) 0)
+                .putString(clientMsgId, StandardCharsets.UTF_8)
+                .hash().asLong();
+        if (fingerprint == 0) {
+            // 0表示空槽位
+            fingerprint = 1;
+        }
+        Stripe stripe = stripes[(int) (fingerprint >>> 32) & (stripes.length - 1)];
+        boolean first = stripe.add(fingerprint, System.nanoTime() / bucketNanos);
+        if (!first) {
+            duplicates.increment();
+        }
+        return first;
+    }
+
+    /**
+     * 丢弃的重复消息数
+     */
+    public long getDuplicates() {
+        return duplicates.sum();
+    }
+
+    /**
+     * 因桶已满未能记录的消息数，持续增长说明max-entries偏小
+     */
+    public long getOverflows() {
+        return overflows.sum();
+    }
+
+    private final class Stripe {
+        private final long[][] tables;
+        // 每个桶当前对应的时间段编号
+        private final long[] epochs;
+        private final int[] sizes;
+        private final int mask;
+
+        Stripe(int buckets, int slots) {
+            this.tables = new long[buckets][slots];
+            this.epochs = new long[buckets];
+            Arrays.fill(epochs, Long.MIN_VALUE);
+            this.sizes = new int[buckets];
+            this.mask = slots - 1;
+        }
+
+        synchronized boolean add(long fingerprint, long epoch) {
+            int buckets = tables.length;
+            int current = (int) Math.floorMod(epoch, (long) buckets);
+            if (epochs[current] != epoch) {
+                // 桶轮转到新的时间段，旧内容已超出窗口
+                Arrays.fill(tables[current], 0L);
+                sizes[current] = 0;
+                epochs[current] = epoch;
+            }
+
+            for (int i = 0; i < buckets; i++) {
+                if (epoch - epochs[i] < buckets && contains(tables[i], fingerprint)) {
+                    return false;
+                }
+            }
+
+            if (sizes[current] * LOAD_FACTOR_INVERSE >= tables[current].length) {
+                overflows.increment();
+                return true;
+            }
+            long[] table = tables[current];
+            int index = (int) fingerprint & mask;
+            while (table[index] != 0) {
+                index = (index + 1) & mask;
+            }
+            table[index] = fingerprint;
+            sizes[current]++;
+            return true;
+        }
+
+        private boolean contains(long[] table, long fingerprint) {
+            int index = (int) fingerprint & mask;
+            long value;
+            while ((value = table[index]) != 0) {
+                if (value == fingerprint) {
+                    return true;
+                }
+                index = (index + 1) & mask;
+            }
+            return false;
+        }
+    }
+}
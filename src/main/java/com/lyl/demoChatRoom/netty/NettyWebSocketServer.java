@@ -1,33 +1,335 @@
 package com.lyl.demoChatRoom.netty;
 
+import com.lyl.demoChatRoom.config.NettyServerProperties;
+import com.lyl.demoChatRoom.config.RouterProperties;
+import com.lyl.demoChatRoom.hotkey.HotKeyTracker;
+import com.lyl.demoChatRoom.presence.PresenceService;
+import com.lyl.demoChatRoom.search.ChatSearchIndex;
+import com.lyl.demoChatRoom.tenant.TenantRegistry;
+import com.lyl.demoChatRoom.util.ConnectionRouter.IAsyncConnectionRouter;
+import com.lyl.demoChatRoom.util.ConnectionRouter.RefCountedRouter;
+import com.lyl.demoChatRoom.util.ConnectionRouter.RoomPlacement;
 import io.netty.bootstrap.ServerBootstrap;
-import io.netty.channel.ChannelFuture;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelOption;
 import io.netty.channel.EventLoopGroup;
+import io.netty.channel.WriteBufferWaterMark;
+import io.netty.channel.group.ChannelGroup;
 import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.handler.codec.http.QueryStringDecoder;
+import io.netty.handler.codec.http.websocketx.CloseWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.WebSocketCloseStatus;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
 
-public class NettyWebSocketServer {
-    private final int port;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
-    public NettyWebSocketServer(int port) {
-        this.port = port;
+/**
+ * Netty WebSocket服务，随Spring容器启动和停止
+ */
+@Component
+public class NettyWebSocketServer implements SmartLifecycle {
+
+    private static final Logger log = LoggerFactory.getLogger(NettyWebSocketServer.class);
+
+    private final NettyServerProperties properties;
+    private final RouterProperties routerProperties;
+    private final IAsyncConnectionRouter router;
+    private final ObjectProvider<StringRedisTemplate> redisTemplate;
+    private final RoomPlacement roomPlacement;
+
+    private EventLoopGroup bossGroup;
+    private EventLoopGroup workerGroup;
+    private IdleConnectionMonitor idleMonitor;
+    private PresenceService presence;
+    private EphemeralConflator ephemeral;
+    private AdmissionController admission;
+    private ChatSearchIndex search;
+    private HotKeyTracker hotKeys;
+    private TlsContextManager tls;
+    private TenantRegistry tenants;
+    private String nodeId;
+    private Channel serverChannel;
+    private volatile boolean running;
+
+    public NettyWebSocketServer(NettyServerProperties properties, RouterProperties routerProperties,
+                                ObjectProvider<IAsyncConnectionRouter> router,
+                                ObjectProvider<StringRedisTemplate> redisTemplate,
+                                ObjectProvider<RoomPlacement> roomPlacement) {
+        this.properties = properties;
+        this.routerProperties = routerProperties;
+        IAsyncConnectionRouter asyncRouter = router.getIfAvailable();
+        this.router = asyncRouter != null ? new RefCountedRouter(asyncRouter) : null;
+        this.redisTemplate = redisTemplate;
+        this.roomPlacement = roomPlacement.getIfAvailable();
     }
 
-    public void start() throws Exception {
-        EventLoopGroup bossGroup = new NioEventLoopGroup();
-        EventLoopGroup workerGroup = new NioEventLoopGroup();
+    @Override
+    public void start() {
+        // 证书有问题时在创建其他组件之前失败
+        tls = properties.getTls().isEnabled() ? new TlsContextManager(properties.getTls()) : null;
+        NettyServerProperties.Heartbeat heartbeat = properties.getHeartbeat();
+        idleMonitor = new IdleConnectionMonitor(
+                heartbeat.getPingIntervalMillis(), heartbeat.getIdleTimeoutMillis(), heartbeat.getSlackMillis());
+        StaticResourceCache staticResources = properties.getStaticResources().isEnabled()
+                ? StaticResourceCache.load(properties.getStaticResources().getLocation()) : null;
+        RateLimiter rateLimiter = properties.getRateLimit().isEnabled()
+                ? new RateLimiter(properties.getRateLimit()) : null;
+        ConversationSequencer sequencer = new ConversationSequencer(properties.getDelivery());
+        MessageDeduplicator deduplicator = properties.getDedup().isEnabled()
+                ? new MessageDeduplicator(properties.getDedup()) : null;
+        ephemeral = properties.getEphemeral().isEnabled()
+                ? new EphemeralConflator(ChatHandler.upgradedGroup(), properties.getEphemeral()) : null;
+        tenants = properties.getTenants().isEnabled()
+                ? new TenantRegistry(properties.getTenants(), properties.getDelivery(), sequencer) : null;
+        search = properties.getSearch().isEnabled() ? new ChatSearchIndex(properties.getSearch()) : null;
+        hotKeys = properties.getHotKeys().isEnabled() ? new HotKeyTracker(properties.getHotKeys()) : null;
+        if (hotKeys != null && roomPlacement != null) {
+            roomPlacement.setHotRooms(hotKeys::isHotRoom);
+        }
+        nodeId = resolveNodeId();
+        NettyServerProperties.Presence presenceConfig = properties.getPresence();
+        presence = presenceConfig.isEnabled() ? new PresenceService(nodeId, presenceConfig,
+                presenceConfig.isCluster() ? redisTemplate.getIfAvailable() : null) : null;
+        admission = properties.getAdmission().isEnabled()
+                ? new AdmissionController(properties.getAdmission(), router, nodeId) : null;
+        ServerContext context = new ServerContext(properties, tls, idleMonitor, staticResources, rateLimiter, admission, sequencer,
+                deduplicator, ephemeral, search, router, nodeId, presence, hotKeys, tenants, apiEndpoints());
+        bossGroup = new NioEventLoopGroup(properties.getBossThreads(), new DefaultThreadFactory("netty-boss"));
+        workerGroup = new NioEventLoopGroup(properties.getWorkerThreads(), new DefaultThreadFactory("netty-worker"));
+        if (admission != null) {
+            admission.start(workerGroup);
+        }
 
         try {
             ServerBootstrap bootstrap = new ServerBootstrap();
             bootstrap.group(bossGroup, workerGroup)
                     .channel(NioServerSocketChannel.class)
-                    .childHandler(new WebSocketServerInitializer());
+                    .childHandler(new WebSocketServerInitializer(context));
+            NettyServerProperties.Outbound outbound = properties.getOutbound();
+            if (outbound.isEnabled()) {
+                // 写缓冲水位决定优先级队列何时开始排队
+                bootstrap.childOption(ChannelOption.WRITE_BUFFER_WATER_MARK,
+                        new WriteBufferWaterMark(outbound.getLowWaterMark(), outbound.getHighWaterMark()));
+            }
 
-            ChannelFuture future = bootstrap.bind(port).sync();
-            future.channel().closeFuture().sync();
-        } finally {
-            workerGroup.shutdownGracefully();
-            bossGroup.shutdownGracefully();
+            // 绑定失败直接抛出，让容器启动失败
+            serverChannel = bootstrap.bind(properties.getPort()).sync().channel();
+            running = true;
+            log.info("Netty WebSocket服务已启动，端口: {}", properties.getPort());
+            if (router != null) {
+                // 本节点加入哈希环后才会有用户被路由过来
+                router.addServer(nodeId).whenComplete((migrated, error) -> {
+                    if (error != null) {
+                        log.error("节点加入哈希环失败: {}", nodeId, error);
+                    } else {
+                        log.info("节点已加入哈希环: {}, 迁移连接数: {}", nodeId, migrated.size());
+                    }
+                });
+            }
+        } catch (Exception e) {
+            releaseResources();
+            throw new IllegalStateException("Netty WebSocket服务启动失败，端口: " + properties.getPort(), e);
+        }
+    }
+
+    @Override
+    public void stop() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        log.info("开始关闭Netty WebSocket服务");
+
+        // 1. 停止接收新连接，离开哈希环，新用户不再路由到本节点
+        serverChannel.close().syncUninterruptibly();
+        leaveRing();
+
+        // 2. 通知客户端下线，关闭帧排在未发送完的数据之后，发送完再关闭连接；
+        //    还没完成WebSocket握手的连接不能写WebSocket帧，直接关闭
+        ChannelGroup channels = ChatHandler.channelGroup();
+        ChannelGroup upgraded = ChatHandler.upgradedGroup();
+        int remaining = channels.size();
+        for (Channel channel : channels) {
+            if (upgraded.contains(channel)) {
+                channel.writeAndFlush(new CloseWebSocketFrame(WebSocketCloseStatus.ENDPOINT_UNAVAILABLE))
+                        .addListener(ChannelFutureListener.CLOSE);
+            } else {
+                channel.close();
+            }
+        }
+
+        // 3. 在截止时间内等待连接排空，超时则强制关闭
+        long drainTimeout = properties.getShutdown().getDrainTimeoutMillis();
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(drainTimeout);
+        while (!channels.isEmpty() && System.nanoTime() < deadline) {
+            try {
+                TimeUnit.MILLISECONDS.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        if (!channels.isEmpty()) {
+            log.warn("{}ms内仍有{}个连接未关闭，强制关闭", drainTimeout, channels.size());
+            channels.close().awaitUninterruptibly(drainTimeout, TimeUnit.MILLISECONDS);
+        }
+
+        // 4. 释放EventLoop
+        releaseResources();
+        log.info("Netty WebSocket服务已关闭，关闭时在线连接数: {}", remaining);
+    }
+
+    private void leaveRing() {
+        if (router == null) {
+            return;
+        }
+        try {
+            router.removeServer(nodeId).get(properties.getShutdown().getDrainTimeoutMillis(), TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException | TimeoutException e) {
+            log.warn("节点离开哈希环失败: {}", nodeId, e);
+        }
+    }
+
+    private void releaseResources() {
+        NettyServerProperties.Shutdown shutdown = properties.getShutdown();
+        if (idleMonitor != null) {
+            idleMonitor.stop();
+        }
+        if (presence != null) {
+            presence.shutdown();
+        }
+        if (ephemeral != null) {
+            ephemeral.shutdown();
+        }
+        if (admission != null) {
+            admission.shutdown();
+        }
+        if (hotKeys != null) {
+            hotKeys.shutdown();
+        }
+        if (tls != null) {
+            tls.shutdown();
         }
+        if (workerGroup != null) {
+            workerGroup.shutdownGracefully(shutdown.getQuietPeriodMillis(), shutdown.getTimeoutMillis(), TimeUnit.MILLISECONDS)
+                    .syncUninterruptibly();
+        }
+        if (bossGroup != null) {
+            bossGroup.shutdownGracefully(shutdown.getQuietPeriodMillis(), shutdown.getTimeoutMillis(), TimeUnit.MILLISECONDS)
+                    .syncUninterruptibly();
+        }
+        if (tenants != null) {
+            tenants.shutdown(shutdown.getQuietPeriodMillis(), shutdown.getTimeoutMillis());
+        }
+        // 连接都关闭后再停止索引，最后一批消息也能落盘
+        if (search != null) {
+            search.shutdown();
+        }
+    }
+
+    private Map<String, ApiEndpoint> apiEndpoints() {
+        Map<String, ApiEndpoint> endpoints = new HashMap<>();
+        if (admission != null) {
+            AdmissionController controller = admission;
+            endpoints.put("/api/admission", query -> controller.getSnapshot());
+        }
+        if (search != null) {
+            ChatSearchIndex index = search;
+            endpoints.put("/api/search", query -> index.searchAsync(
+                    scoped(query, firstParameter(query, "conversationId", ConversationSequencer.DEFAULT_CONVERSATION)),
+                    firstParameter(query, "q", ""),
+                    longParameter(query, "before"),
+                    query.parameters().containsKey("limit") ? longParameter(query, "limit").intValue() : null));
+            endpoints.put("/api/search/stats", query -> index.getSnapshot());
+        }
+        if (hotKeys != null) {
+            HotKeyTracker tracker = hotKeys;
+            endpoints.put("/api/hot", query -> {
+                Long limit = longParameter(query, "limit");
+                return tracker.getSnapshot(limit == null ? properties.getHotKeys().getTopK() : limit.intValue());
+            });
+        }
+        if (tls != null) {
+            TlsContextManager manager = tls;
+            endpoints.put("/api/tls", query -> manager.getSnapshot());
+        }
+        if (tenants != null) {
+            TenantRegistry registry = tenants;
+            endpoints.put("/api/tenants", query -> registry.getSnapshot());
+        }
+        if (presence != null) {
+            PresenceService service = presence;
+            endpoints.put("/api/presence", query -> service.getSnapshot());
+            endpoints.put("/api/presence/user", query -> {
+                List<String> ids = query.parameters().get("id");
+                if (ids == null || ids.isEmpty()) {
+                    throw new IllegalArgumentException("缺少参数id");
+                }
+                Map<String, Object> result = new LinkedHashMap<>();
+                result.put("user", ids.get(0));
+                result.put("online", service.isOnline(scoped(query, ids.get(0))));
+                return result;
+            });
+        }
+        return endpoints;
+    }
+
+    /**
+     * 启用租户时按tenant参数给用户、会话等key加上租户前缀，与连接上的Tenant.scope一致
+     */
+    private String scoped(QueryStringDecoder query, String key) {
+        return tenants != null ? tenants.scope(firstParameter(query, "tenant", null), key) : key;
+    }
+
+    private static String firstParameter(QueryStringDecoder query, String name, String defaultValue) {
+        List<String> values = query.parameters().get(name);
+        return values == null || values.isEmpty() || values.get(0).isEmpty() ? defaultValue : values.get(0);
+    }
+
+    private static Long longParameter(QueryStringDecoder query, String name) {
+        String value = firstParameter(query, name, null);
+        if (value == null) {
+            return null;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("参数" + name + "不是整数: " + value);
+        }
+    }
+
+    private String resolveNodeId() {
+        String nodeId = routerProperties.getNodeId();
+        if (nodeId != null && !nodeId.isEmpty()) {
+            return nodeId;
+        }
+        try {
+            return InetAddress.getLocalHost().getHostName() + ":" + properties.getPort();
+        } catch (UnknownHostException e) {
+            return "localhost:" + properties.getPort();
+        }
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
     }
 }
@@ -0,0 +1,23 @@
+package com.lyl.demoChatRoom.netty;
+
+/**
+ * 出站优先级通道，按优先级从高到低排列
+ */
+public enum OutboundLane {
+    /**
+     * 控制帧（关闭、Ping/Pong、文本pong），不排队
+     */
+    CONTROL,
+    /**
+     * 发给单个连接的消息，如回执；未标记通道的文本帧都归入这里
+     */
+    DIRECT,
+    /**
+     * 房间/会话广播，带序号，丢弃后客户端可以通过确认补齐
+     */
+    ROOM,
+    /**
+     * 断线续传、重发等批量补发
+     */
+    BULK
+}
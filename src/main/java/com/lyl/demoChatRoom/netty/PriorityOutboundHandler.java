@@ -0,0 +1,137 @@
+package com.lyl.demoChatRoom.netty;
+
+import com.lyl.demoChatRoom.config.NettyServerProperties;
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+import io.netty.handler.codec.http.websocketx.CloseWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.PingWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.PongWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.WebSocketFrame;
+import io.netty.util.ReferenceCountUtil;
+
+import java.util.ArrayDeque;
+
+/**
+ * 按优先级分通道的出站队列
+ * 连接可写且没有积压时消息直接写出；写缓冲超过高水位后按通道排队，
+ * 恢复可写时按权重轮流从DIRECT、ROOM、BULK通道取消息，控制帧始终直接写出。
+ * 通道满时ROOM和BULK丢弃新消息（带序号，客户端确认后会补发），流式分片不丢弃，
+ * DIRECT写入失败；有积压时临时状态帧直接丢弃。
+ * 关闭帧不排队，会先于积压的消息发出，客户端重连后通过确认补齐
+ */
+public class PriorityOutboundHandler extends ChannelDuplexHandler {
+
+    // 参与排队的通道，按轮询顺序
+    private static final OutboundLane[] QUEUED_LANES = {OutboundLane.DIRECT, OutboundLane.ROOM, OutboundLane.BULK};
+
+    private final int[] weights = new int[OutboundLane.values().length];
+    private final int laneCapacity;
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private final ArrayDeque<Pending>[] lanes = new ArrayDeque[OutboundLane.values().length];
+    private int queued;
+
+    public PriorityOutboundHandler(NettyServerProperties.Outbound config) {
+        weights[OutboundLane.DIRECT.ordinal()] = Math.max(1, config.getDirectWeight());
+        weights[OutboundLane.ROOM.ordinal()] = Math.max(1, config.getRoomWeight());
+        weights[OutboundLane.BULK.ordinal()] = Math.max(1, config.getBulkWeight());
+        this.laneCapacity = config.getLaneCapacity();
+        for (OutboundLane lane : QUEUED_LANES) {
+            lanes[lane.ordinal()] = new ArrayDeque<>();
+        }
+    }
+
+    @Override
+    public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) {
+        OutboundLane lane = laneOf(msg);
+        if (lane == OutboundLane.CONTROL || (queued == 0 && ctx.channel().isWritable())) {
+            ctx.write(msg, promise);
+            return;
+        }
+        if (msg instanceof EphemeralFrame) {
+            ReferenceCountUtil.release(msg);
+            promise.trySuccess();
+            return;
+        }
+
+        ArrayDeque<Pending> queue = lanes[lane.ordinal()];
+        if (queue.size() >= laneCapacity && !(msg instanceof StreamChunk)) {
+            ReferenceCountUtil.release(msg);
+            if (lane == OutboundLane.DIRECT) {
+                promise.tryFailure(new IllegalStateException("outbound lane " + lane + " is full"));
+            } else {
+                promise.trySuccess();
+            }
+            return;
+        }
+        queue.add(new Pending(msg, promise));
+        queued++;
+    }
+
+    @Override
+    public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+        if (ctx.channel().isWritable() && queued > 0) {
+            drain(ctx);
+        }
+        super.channelWritabilityChanged(ctx);
+    }
+
+    /**
+     * 按权重轮流写出积压的消息，直到再次不可写或全部写完
+     */
+    private void drain(ChannelHandlerContext ctx) {
+        boolean wrote = false;
+        while (queued > 0 && ctx.channel().isWritable()) {
+            for (OutboundLane lane : QUEUED_LANES) {
+                ArrayDeque<Pending> queue = lanes[lane.ordinal()];
+                // 每次取出前检查可写，变为不可写后后面的通道也不再写
+                for (int quota = weights[lane.ordinal()];
+                     quota > 0 && !queue.isEmpty() && ctx.channel().isWritable(); quota--) {
+                    Pending next = queue.poll();
+                    queued--;
+                    ctx.write(next.msg, next.promise);
+                    wrote = true;
+                }
+            }
+        }
+        if (wrote) {
+            ctx.flush();
+        }
+    }
+
+    private static OutboundLane laneOf(Object msg) {
+        if (msg instanceof LaneFrame) {
+            return ((LaneFrame) msg).getLane();
+        }
+        if (msg instanceof StreamChunk || msg instanceof EphemeralFrame) {
+            return OutboundLane.ROOM;
+        }
+        if (msg instanceof CloseWebSocketFrame || msg instanceof PingWebSocketFrame
+                || msg instanceof PongWebSocketFrame || !(msg instanceof WebSocketFrame)) {
+            return OutboundLane.CONTROL;
+        }
+        return OutboundLane.DIRECT;
+    }
+
+    @Override
+    public void handlerRemoved(ChannelHandlerContext ctx) {
+        for (OutboundLane lane : QUEUED_LANES) {
+            Pending next;
+            while ((next = lanes[lane.ordinal()].poll()) != null) {
+                ReferenceCountUtil.release(next.msg);
+                next.promise.tryFailure(new IllegalStateException("channel closed"));
+            }
+        }
+        queued = 0;
+    }
+
+    private static final class Pending {
+        final Object msg;
+        final ChannelPromise promise;
+
+        Pending(Object msg, ChannelPromise promise) {
+            this.msg = msg;
+            this.promise = promise;
+        }
+    }
+}
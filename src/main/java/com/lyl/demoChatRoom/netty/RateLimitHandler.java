@@ -0,0 +1,108 @@
+package com.lyl.demoChatRoom.netty;
+
+import com.lyl.demoChatRoom.tenant.Tenant;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.handler.codec.http.websocketx.BinaryWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.CloseWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.ContinuationWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.WebSocketCloseStatus;
+import io.netty.handler.codec.http.websocketx.WebSocketFrame;
+import io.netty.handler.codec.http.websocketx.WebSocketServerProtocolHandler;
+import io.netty.util.ReferenceCountUtil;
+
+/**
+ * 入站消息限流处理器
+ * 每条消息检查连接令牌桶和用户令牌桶，两个桶都有令牌时才各取一个，被任一个拒绝时都不消耗；
+ * 确认和正在输入消息（见ControlFrames）只用单独的控制桶计数，频繁的缺口确认不会挤掉聊天消息；
+ * 桶对象在握手时确定，逐帧检查时不查表也不分配对象。
+ * 用户来自握手地址的user参数，没有经过认证：冒用他人的user只会与对方共用一个用户桶（挤占对方的额度），
+ * 自己仍受连接桶限制，不能借此绕过限流。需要防止挤占时应在认证之后按认证得到的用户建桶
+ */
+public class RateLimitHandler extends ChannelInboundHandlerAdapter {
+
+    private final RateLimiter limiter;
+    // 只在本连接的EventLoop上访问，可以先检查再取令牌
+    private final TokenBucket connectionBucket;
+    private final TokenBucket controlBucket;
+    private RateLimiter.UserBucket userBucket;
+    private boolean closing;
+    // 被拒绝的首帧不是最后一帧时，丢弃后续帧直到FIN，不让下游收到没有首帧的分片
+    private boolean droppingFragments;
+
+    public RateLimitHandler(RateLimiter limiter) {
+        this.limiter = limiter;
+        this.connectionBucket = limiter.newConnectionBucket();
+        this.controlBucket = limiter.newControlBucket();
+    }
+
+    @Override
+    public void userEventTriggered(ChannelHandlerContext ctx, Object evt) throws Exception {
+        if (evt instanceof WebSocketServerProtocolHandler.HandshakeComplete) {
+            String user = Handshakes.user((WebSocketServerProtocolHandler.HandshakeComplete) evt);
+            Tenant tenant = TenantHandler.tenant(ctx.channel());
+            if (user != null && tenant != null) {
+                user = tenant.scope(user);
+            }
+            if (user != null) {
+                userBucket = limiter.acquireUserBucket(user);
+            }
+        }
+        super.userEventTriggered(ctx, evt);
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        // 只对消息的首帧计数：首帧被拒绝时连同后续帧一起丢弃，否则后续帧和控制帧直接放行
+        if (droppingFragments && msg instanceof ContinuationWebSocketFrame) {
+            droppingFragments = !((WebSocketFrame) msg).isFinalFragment();
+            ReferenceCountUtil.release(msg);
+            return;
+        }
+        if (msg instanceof TextWebSocketFrame || msg instanceof BinaryWebSocketFrame) {
+            long now = System.nanoTime();
+            if (ControlFrames.isControl((WebSocketFrame) msg)) {
+                if (!controlBucket.tryAcquire(now)) {
+                    ReferenceCountUtil.release(msg);
+                    reject(ctx);
+                    return;
+                }
+                ctx.fireChannelRead(msg);
+                return;
+            }
+            // 用户桶被多个连接共用，只能原子地取；连接桶先检查，用户桶取到后再取
+            if (!connectionBucket.canAcquire(now)
+                    || (userBucket != null && !userBucket.bucket.tryAcquire(now))) {
+                droppingFragments = !((WebSocketFrame) msg).isFinalFragment();
+                ReferenceCountUtil.release(msg);
+                reject(ctx);
+                return;
+            }
+            connectionBucket.tryAcquire(now);
+        }
+        ctx.fireChannelRead(msg);
+    }
+
+    private void reject(ChannelHandlerContext ctx) {
+        if (limiter.getAction() == RateLimiter.Action.DISCONNECT) {
+            if (!closing) {
+                closing = true;
+                limiter.onDisconnected();
+                ctx.writeAndFlush(new CloseWebSocketFrame(WebSocketCloseStatus.POLICY_VIOLATION, "rate limit exceeded"))
+                        .addListener(ChannelFutureListener.CLOSE);
+            }
+        } else {
+            limiter.onDropped();
+        }
+    }
+
+    @Override
+    public void handlerRemoved(ChannelHandlerContext ctx) {
+        if (userBucket != null) {
+            limiter.releaseUserBucket(userBucket);
+            userBucket = null;
+        }
+    }
+}
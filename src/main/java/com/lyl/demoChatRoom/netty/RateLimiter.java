@@ -0,0 +1,97 @@
+package com.lyl.demoChatRoom.netty;
+
+import com.lyl.demoChatRoom.config.NettyServerProperties;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 入站限流：管理按用户共享的令牌桶和限流统计
+ * 同一用户的多个连接共用一个桶，最后一个连接断开时回收
+ */
+public class RateLimiter {
+
+    public enum Action {
+        /**
+         * 超限消息直接丢弃
+         */
+        DROP,
+        /**
+         * 超限时断开连接
+         */
+        DISCONNECT
+    }
+
+    private final NettyServerProperties.RateLimit config;
+    private final ConcurrentMap<String, UserBucket> userBuckets = new ConcurrentHashMap<>();
+
+    // 统计
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder disconnected = new LongAdder();
+
+    public RateLimiter(NettyServerProperties.RateLimit config) {
+        this.config = config;
+    }
+
+    TokenBucket newConnectionBucket() {
+        return new TokenBucket(config.getConnectionBurst(), config.getConnectionPerSecond());
+    }
+
+    TokenBucket newControlBucket() {
+        return new TokenBucket(config.getControlBurst(), config.getControlPerSecond());
+    }
+
+    /**
+     * 获取用户令牌桶并增加引用计数，连接断开时需调用releaseUserBucket
+     */
+    UserBucket acquireUserBucket(String userId) {
+        return userBuckets.compute(userId, (k, bucket) -> {
+            if (bucket == null) {
+                bucket = new UserBucket(userId, new TokenBucket(config.getUserBurst(), config.getUserPerSecond()));
+            }
+            bucket.refCount.incrementAndGet();
+            return bucket;
+        });
+    }
+
+    void releaseUserBucket(UserBucket bucket) {
+        userBuckets.computeIfPresent(bucket.userId, (k, b) -> b.refCount.decrementAndGet() <= 0 ? null : b);
+    }
+
+    Action getAction() {
+        return config.getAction();
+    }
+
+    void onDropped() {
+        dropped.increment();
+    }
+
+    void onDisconnected() {
+        disconnected.increment();
+    }
+
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    public long getDisconnected() {
+        return disconnected.sum();
+    }
+
+    public int getTrackedUsers() {
+        return userBuckets.size();
+    }
+
+    static final class UserBucket {
+        final String userId;
+        final TokenBucket bucket;
+        final AtomicInteger refCount = new AtomicInteger();
+
+        UserBucket(String userId, TokenBucket bucket) {
+            this.userId = userId;
+            this.bucket = bucket;
+        }
+    }
+}
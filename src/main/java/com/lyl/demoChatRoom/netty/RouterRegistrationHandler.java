@@ -0,0 +1,96 @@
+package com.lyl.demoChatRoom.netty;
+
+import com.lyl.demoChatRoom.hotkey.HotKeyTracker;
+import com.lyl.demoChatRoom.tenant.Tenant;
+import com.lyl.demoChatRoom.util.ConnectionRouter.IAsyncConnectionRouter;
+import com.lyl.demoChatRoom.util.ConnectionRouter.RoomPlacement;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.handler.codec.http.websocketx.WebSocketServerProtocolHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * 握手完成后把用户登记到路由器，带room参数时按房间亲和登记，连接关闭时注销（离开房间）
+ * 路由调用不在EventLoop上执行，结果回到连接的EventLoop处理
+ */
+public class RouterRegistrationHandler extends ChannelInboundHandlerAdapter {
+
+    private static final Logger log = LoggerFactory.getLogger(RouterRegistrationHandler.class);
+
+    private final IAsyncConnectionRouter router;
+    private final String nodeId;
+    private final HotKeyTracker hotKeys;
+    // 已登记的用户和房间，连接关闭时据此注销
+    private String room;
+    private String user;
+
+    /**
+     * @param hotKeys 为null时不统计路由查询
+     */
+    public RouterRegistrationHandler(IAsyncConnectionRouter router, String nodeId, HotKeyTracker hotKeys) {
+        this.router = router;
+        this.nodeId = nodeId;
+        this.hotKeys = hotKeys;
+    }
+
+    @Override
+    public void userEventTriggered(ChannelHandlerContext ctx, Object evt) throws Exception {
+        if (evt instanceof WebSocketServerProtocolHandler.HandshakeComplete) {
+            WebSocketServerProtocolHandler.HandshakeComplete handshake = (WebSocketServerProtocolHandler.HandshakeComplete) evt;
+            String userId = Handshakes.user(handshake);
+            if (userId != null) {
+                // 不同租户的同名用户和房间在路由器中是不同的key
+                Tenant tenant = TenantHandler.tenant(ctx.channel());
+                String roomId = Handshakes.room(handshake);
+                register(ctx, tenant != null ? tenant.scope(userId) : userId,
+                        tenant != null ? tenant.scope(roomId) : roomId);
+            }
+        }
+        super.userEventTriggered(ctx, evt);
+    }
+
+    private void register(ChannelHandlerContext ctx, String userId, String roomId) {
+        if (roomId != null && roomId.indexOf(':') >= 0) {
+            // 房间ID中的冒号会和映射key的分隔符混淆，按普通用户登记
+            roomId = null;
+        }
+        this.room = roomId;
+        this.user = userId;
+        if (hotKeys != null) {
+            // 先计入再登记，加入速率高的房间本次就按热点放置
+            hotKeys.recordLookup(roomId != null ? RoomPlacement.roomKey(roomId) : "user:" + userId, roomId);
+        }
+        CompletableFuture<String> assigned = roomId != null ? router.addRoomMember(roomId, userId) : router.addUser(userId);
+        IAsyncConnectionRouter.onEventLoop(assigned, ctx.channel(), (server, error) -> {
+            if (error != null) {
+                log.warn("用户路由登记失败: {}", userId, error);
+                return;
+            }
+            // 登记只维护路由表和负载计数，连接不在分配的节点上时不迁移，只记录
+            if (server != null && nodeId != null && !nodeId.equals(server)) {
+                log.debug("用户 {} 应连接到 {}，当前节点 {}", userId, server, nodeId);
+            }
+        });
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        if (user != null) {
+            String roomId = room;
+            String userId = user;
+            CompletableFuture<Void> removed = roomId != null
+                    ? router.removeRoomMember(roomId, userId) : router.removeUser(userId);
+            removed.whenComplete((v, error) -> {
+                if (error != null) {
+                    log.warn("注销路由失败: {} / {}", roomId, userId, error);
+                }
+            });
+            room = null;
+            user = null;
+        }
+        super.channelInactive(ctx);
+    }
+}
@@ -0,0 +1,44 @@
+package com.lyl.demoChatRoom.netty;
+
+import com.lyl.demoChatRoom.config.NettyServerProperties;
+import com.lyl.demoChatRoom.hotkey.HotKeyTracker;
+import com.lyl.demoChatRoom.presence.PresenceService;
+import com.lyl.demoChatRoom.search.ChatSearchIndex;
+import com.lyl.demoChatRoom.tenant.TenantRegistry;
+import com.lyl.demoChatRoom.util.ConnectionRouter.IAsyncConnectionRouter;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.Map;
+
+/**
+ * 同一个Netty服务内所有连接共享的组件，由NettyWebSocketServer启动时创建
+ * 可选组件未启用时为null
+ */
+@Getter
+@AllArgsConstructor
+public class ServerContext {
+
+    private final NettyServerProperties properties;
+    private final TlsContextManager tls;
+    private final IdleConnectionMonitor idleMonitor;
+    private final StaticResourceCache staticResources;
+    private final RateLimiter rateLimiter;
+    private final AdmissionController admission;
+    private final ConversationSequencer sequencer;
+    private final MessageDeduplicator deduplicator;
+    private final EphemeralConflator ephemeral;
+    private final ChatSearchIndex search;
+    private final IAsyncConnectionRouter router;
+    /**
+     * 当前节点标识（路由器和在线统计使用）
+     */
+    private final String nodeId;
+    private final PresenceService presence;
+    private final HotKeyTracker hotKeys;
+    private final TenantRegistry tenants;
+    /**
+     * /api下的接口，路径 -> 处理器
+     */
+    private final Map<String, ApiEndpoint> apiEndpoints;
+}
@@ -0,0 +1,174 @@
+package com.lyl.demoChatRoom.netty;
+
+import com.google.common.hash.Hashing;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.util.AsciiString;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
+import org.springframework.util.StreamUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * 静态资源内存缓存
+ * 启动时一次性加载classpath下的静态文件，保存原始内容和gzip压缩后的内容（堆外、不可释放），
+ * 响应时只做duplicate，不复制数据
+ */
+public class StaticResourceCache {
+
+    private static final Logger log = LoggerFactory.getLogger(StaticResourceCache.class);
+
+    private static final Map<String, String> CONTENT_TYPES = new HashMap<>();
+
+    static {
+        CONTENT_TYPES.put("html", "text/html; charset=UTF-8");
+        CONTENT_TYPES.put("js", "application/javascript; charset=UTF-8");
+        CONTENT_TYPES.put("css", "text/css; charset=UTF-8");
+        CONTENT_TYPES.put("json", "application/json; charset=UTF-8");
+        CONTENT_TYPES.put("svg", "image/svg+xml");
+        CONTENT_TYPES.put("png", "image/png");
+        CONTENT_TYPES.put("jpg", "image/jpeg");
+        CONTENT_TYPES.put("ico", "image/x-icon");
+    }
+
+    private final Map<String, StaticResource> resources;
+
+    private StaticResourceCache(Map<String, StaticResource> resources) {
+        this.resources = Collections.unmodifiableMap(resources);
+    }
+
+    /**
+     * 加载指定classpath目录下的所有文件
+     * @param location 例如 static/
+     */
+    public static StaticResourceCache load(String location) {
+        Map<String, StaticResource> resources = new HashMap<>();
+        String base = location.endsWith("/") ? location : location + "/";
+        long startupTime = System.currentTimeMillis();
+
+        try {
+            Resource[] found = new PathMatchingResourcePatternResolver()
+                    .getResources("classpath*:" + base + "**/*");
+            for (Resource resource : found) {
+                if (!resource.isReadable()) {
+                    continue;
+                }
+                String url = resource.getURL().toString();
+                int index = url.lastIndexOf(base);
+                if (index < 0 || url.endsWith("/")) {
+                    continue;
+                }
+                String path = "/" + url.substring(index + base.length());
+
+                byte[] content;
+                try (InputStream in = resource.getInputStream()) {
+                    content = StreamUtils.copyToByteArray(in);
+                }
+                long lastModified;
+                try {
+                    lastModified = resource.lastModified();
+                } catch (IOException e) {
+                    lastModified = startupTime;
+                }
+                resources.put(path, new StaticResource(path, content, contentTypeOf(path), lastModified));
+            }
+        } catch (IOException e) {
+            log.error("加载静态资源失败: {}", location, e);
+        }
+
+        log.info("静态资源加载完成: {}个文件", resources.size());
+        return new StaticResourceCache(resources);
+    }
+
+    public StaticResource get(String path) {
+        return resources.get(path);
+    }
+
+    private static String contentTypeOf(String path) {
+        int dot = path.lastIndexOf('.');
+        String ext = dot >= 0 ? path.substring(dot + 1).toLowerCase() : "";
+        return CONTENT_TYPES.getOrDefault(ext, "application/octet-stream");
+    }
+
+    /**
+     * 单个静态资源
+     */
+    public static class StaticResource {
+        private final String path;
+        private final ByteBuf content;
+        private final ByteBuf gzipContent;
+        private final AsciiString contentType;
+        private final AsciiString etag;
+        private final AsciiString gzipEtag;
+        private final long lastModified;
+
+        StaticResource(String path, byte[] raw, String contentType, long lastModified) {
+            this.path = path;
+            this.content = toBuffer(raw);
+            byte[] gzip = gzip(raw);
+            // 压缩后没有变小的（如图片）不保留gzip版本
+            this.gzipContent = gzip != null && gzip.length < raw.length ? toBuffer(gzip) : null;
+            this.contentType = AsciiString.cached(contentType);
+            String hash = Hashing.murmur3_128().hashBytes(raw).toString().substring(0, 16);
+            this.etag = AsciiString.cached("\"" + hash + "\"");
+            // 两种编码的内容不同，强ETag也要不同
+            this.gzipEtag = gzipContent != null ? AsciiString.cached("\"" + hash + "-gz\"") : etag;
+            // HTTP日期只精确到秒
+            this.lastModified = lastModified / 1000 * 1000;
+        }
+
+        private static ByteBuf toBuffer(byte[] bytes) {
+            return Unpooled.unreleasableBuffer(Unpooled.directBuffer(bytes.length).writeBytes(bytes).asReadOnly());
+        }
+
+        private static byte[] gzip(byte[] raw) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(raw.length);
+            try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+                gzip.write(raw);
+            } catch (IOException e) {
+                return null;
+            }
+            return out.toByteArray();
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        /**
+         * 共享底层内存的副本，可直接写入Channel
+         */
+        public ByteBuf content(boolean gzip) {
+            return (gzip && gzipContent != null ? gzipContent : content).duplicate();
+        }
+
+        public boolean hasGzip() {
+            return gzipContent != null;
+        }
+
+        public int length(boolean gzip) {
+            return (gzip && gzipContent != null ? gzipContent : content).readableBytes();
+        }
+
+        public AsciiString getContentType() {
+            return contentType;
+        }
+
+        public AsciiString getEtag(boolean gzip) {
+            return gzip ? gzipEtag : etag;
+        }
+
+        public long getLastModified() {
+            return lastModified;
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package com.lyl.demoChatRoom.netty;
+
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.handler.codec.DateFormatter;
+import io.netty.handler.codec.http.*;
+
+import java.util.Date;
+
+/**
+ * 静态资源处理器，在WebSocket升级之前处理普通HTTP请求
+ * 支持ETag/Last-Modified协商缓存（304）和预压缩的gzip响应
+ */
+public class StaticResourceHandler extends ChannelInboundHandlerAdapter {
+
+    private final StaticResourceCache cache;
+    private final String websocketPath;
+    private final String cacheControl;
+
+    public StaticResourceHandler(StaticResourceCache cache, String websocketPath, long maxAgeSeconds) {
+        this.cache = cache;
+        this.websocketPath = websocketPath;
+        this.cacheControl = "public, max-age=" + maxAgeSeconds;
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        if (!(msg instanceof FullHttpRequest)) {
+            ctx.fireChannelRead(msg);
+            return;
+        }
+
+        FullHttpRequest request = (FullHttpRequest) msg;
+        String path = new QueryStringDecoder(request.uri()).path();
+        if (path.equals(websocketPath) || path.startsWith(websocketPath + "/")) {
+            // WebSocket握手（含/chat/{tenant}）交给后面的协议处理器
+            ctx.fireChannelRead(msg);
+            return;
+        }
+
+        try {
+            handle(ctx, request, path);
+        } finally {
+            request.release();
+        }
+    }
+
+    private void handle(ChannelHandlerContext ctx, FullHttpRequest request, String path) {
+        HttpMethod method = request.method();
+        if (method != HttpMethod.GET && method != HttpMethod.HEAD) {
+            sendStatus(ctx, request, HttpResponseStatus.METHOD_NOT_ALLOWED);
+            return;
+        }
+
+        StaticResourceCache.StaticResource resource = cache.get("/".equals(path) ? "/index.html" : path);
+        if (resource == null) {
+            sendStatus(ctx, request, HttpResponseStatus.NOT_FOUND);
+            return;
+        }
+
+        boolean gzip = resource.hasGzip() && acceptsGzip(request);
+        if (isNotModified(request, resource, gzip)) {
+            FullHttpResponse response = new DefaultFullHttpResponse(
+                    HttpVersion.HTTP_1_1, HttpResponseStatus.NOT_MODIFIED, Unpooled.EMPTY_BUFFER);
+            setCacheHeaders(response, resource, gzip);
+            send(ctx, request, response);
+            return;
+        }
+
+        FullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK,
+                method == HttpMethod.HEAD ? Unpooled.EMPTY_BUFFER : resource.content(gzip));
+        HttpHeaders headers = response.headers();
+        headers.set(HttpHeaderNames.CONTENT_TYPE, resource.getContentType());
+        headers.setInt(HttpHeaderNames.CONTENT_LENGTH, resource.length(gzip));
+        if (gzip) {
+            headers.set(HttpHeaderNames.CONTENT_ENCODING, HttpHeaderValues.GZIP);
+        }
+        setCacheHeaders(response, resource, gzip);
+        send(ctx, request, response);
+    }
+
+    private boolean isNotModified(FullHttpRequest request, StaticResourceCache.StaticResource resource, boolean gzip) {
+        String ifNoneMatch = request.headers().get(HttpHeaderNames.IF_NONE_MATCH);
+        if (ifNoneMatch != null) {
+            // 有If-None-Match时忽略If-Modified-Since；只和本次选中的编码的ETag比较
+            return ifNoneMatch.equals("*") || ifNoneMatch.contains(resource.getEtag(gzip));
+        }
+
+        String ifModifiedSince = request.headers().get(HttpHeaderNames.IF_MODIFIED_SINCE);
+        if (ifModifiedSince != null) {
+            Date since = DateFormatter.parseHttpDate(ifModifiedSince);
+            return since != null && since.getTime() >= resource.getLastModified();
+        }
+        return false;
+    }
+
+    private static boolean acceptsGzip(FullHttpRequest request) {
+        String acceptEncoding = request.headers().get(HttpHeaderNames.ACCEPT_ENCODING);
+        return acceptEncoding != null && acceptEncoding.contains("gzip");
+    }
+
+    private void setCacheHeaders(HttpResponse response, StaticResourceCache.StaticResource resource, boolean gzip) {
+        HttpHeaders headers = response.headers();
+        if (resource.hasGzip()) {
+            headers.set(HttpHeaderNames.VARY, HttpHeaderNames.ACCEPT_ENCODING);
+        }
+        headers.set(HttpHeaderNames.ETAG, resource.getEtag(gzip));
+        headers.set(HttpHeaderNames.LAST_MODIFIED, DateFormatter.format(new Date(resource.getLastModified())));
+        // 页面每次都协商，脚本和样式按max-age缓存
+        headers.set(HttpHeaderNames.CACHE_CONTROL,
+                resource.getPath().endsWith(".html") ? "no-cache" : cacheControl);
+    }
+
+    private void sendStatus(ChannelHandlerContext ctx, FullHttpRequest request, HttpResponseStatus status) {
+        FullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, status, Unpooled.EMPTY_BUFFER);
+        HttpUtil.setContentLength(response, 0);
+        send(ctx, request, response);
+    }
+
+    private void send(ChannelHandlerContext ctx, FullHttpRequest request, FullHttpResponse response) {
+        boolean keepAlive = HttpUtil.isKeepAlive(request);
+        if (response.status() != HttpResponseStatus.NOT_MODIFIED
+                && !response.headers().contains(HttpHeaderNames.CONTENT_LENGTH)) {
+            HttpUtil.setContentLength(response, response.content().readableBytes());
+        }
+        HttpUtil.setKeepAlive(response, keepAlive);
+
+        ChannelFuture future = ctx.writeAndFlush(response);
+        if (!keepAlive) {
+            future.addListener(ChannelFutureListener.CLOSE);
+        }
+    }
+}
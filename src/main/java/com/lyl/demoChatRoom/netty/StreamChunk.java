@@ -0,0 +1,58 @@
+package com.lyl.demoChatRoom.netty;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.DefaultByteBufHolder;
+
+/**
+ * 流式转发中的一段消息内容
+ * 发送方的每个分片原样包装后写给所有接收方，ChannelGroup写入时通过retainedDuplicate共享同一块内存，
+ * 由接收方管道中的StreamGuard转换成WebSocket分片帧
+ */
+public class StreamChunk extends DefaultByteBufHolder {
+
+    private final long streamId;
+    private final boolean binary;
+    private final boolean first;
+    private final boolean last;
+
+    public StreamChunk(long streamId, boolean binary, boolean first, boolean last, ByteBuf content) {
+        super(content);
+        this.streamId = streamId;
+        this.binary = binary;
+        this.first = first;
+        this.last = last;
+    }
+
+    public long getStreamId() {
+        return streamId;
+    }
+
+    public boolean isBinary() {
+        return binary;
+    }
+
+    public boolean isFirst() {
+        return first;
+    }
+
+    public boolean isLast() {
+        return last;
+    }
+
+    @Override
+    public StreamChunk replace(ByteBuf content) {
+        return new StreamChunk(streamId, binary, first, last, content);
+    }
+
+    @Override
+    public StreamChunk retain() {
+        super.retain();
+        return this;
+    }
+
+    @Override
+    public StreamChunk touch(Object hint) {
+        super.touch(hint);
+        return this;
+    }
+}
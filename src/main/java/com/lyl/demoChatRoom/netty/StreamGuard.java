@@ -0,0 +1,184 @@
+package com.lyl.demoChatRoom.netty;
+
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelOutboundHandlerAdapter;
+import io.netty.channel.ChannelPromise;
+import io.netty.handler.codec.http.websocketx.*;
+import io.netty.buffer.Unpooled;
+import io.netty.util.ReferenceCountUtil;
+import io.netty.util.concurrent.ScheduledFuture;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 出站分片保护
+ * 把StreamChunk转换成WebSocket分片帧。一个流的分片之间不能插入其他数据帧，
+ * 所以流进行中到达的普通消息和其他流的分片先排队，当前流结束后按原顺序写出；控制帧不受影响，
+ * 临时状态帧不排队，直接丢弃。
+ * 发送方停顿时流会一直占着连接，超过stallTimeout没有新分片就用空的结束分片中止这个流，
+ * 接收方得到一条不完整的消息，之后到达的该流分片没有开头，按迟到处理丢弃
+ */
+public class StreamGuard extends ChannelOutboundHandlerAdapter {
+
+    private static final long NONE = -1;
+
+    private final int maxPending;
+    private final long stallTimeoutNanos;
+    private final ArrayDeque<Pending> pending = new ArrayDeque<>();
+    private long activeStream = NONE;
+    private boolean draining;
+    // 当前流最近一个分片的写出时间和超时检查任务
+    private long lastChunkNanos;
+    private ScheduledFuture<?> stallCheck;
+
+    public StreamGuard(int maxPending, long stallTimeoutMillis) {
+        this.maxPending = maxPending;
+        this.stallTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(stallTimeoutMillis);
+    }
+
+    @Override
+    public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) {
+        if (tryWrite(ctx, msg, promise)) {
+            return;
+        }
+        if (pending.size() >= maxPending) {
+            ReferenceCountUtil.release(msg);
+            promise.tryFailure(new IllegalStateException("too many messages pending behind a stream"));
+            return;
+        }
+        pending.add(new Pending(msg, promise));
+    }
+
+    /**
+     * @return 已写出或丢弃返回true，需要等待当前流结束返回false
+     */
+    private boolean tryWrite(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) {
+        if (msg instanceof StreamChunk) {
+            StreamChunk chunk = (StreamChunk) msg;
+            if (activeStream == NONE) {
+                if (!chunk.isFirst()) {
+                    // 连接在流开始之后才加入，收不到开头的流直接丢弃
+                    chunk.release();
+                    promise.trySuccess();
+                    return true;
+                }
+                activeStream = chunk.getStreamId();
+                scheduleStallCheck(ctx, stallTimeoutNanos);
+            } else if (activeStream != chunk.getStreamId()) {
+                return false;
+            }
+
+            ctx.write(toFrame(chunk), promise);
+            lastChunkNanos = System.nanoTime();
+            if (chunk.isLast()) {
+                endActiveStream(ctx);
+            }
+            return true;
+        }
+
+        if (activeStream != NONE && msg instanceof EphemeralFrame) {
+            ReferenceCountUtil.release(msg);
+            promise.trySuccess();
+            return true;
+        }
+        if (activeStream != NONE && isDataFrame(msg)) {
+            return false;
+        }
+        ctx.write(msg, promise);
+        return true;
+    }
+
+    private void endActiveStream(ChannelHandlerContext ctx) {
+        activeStream = NONE;
+        if (stallCheck != null) {
+            stallCheck.cancel(false);
+            stallCheck = null;
+        }
+        if (!draining) {
+            drain(ctx);
+        }
+    }
+
+    /**
+     * 到期时若期间有新分片，按最近分片的时间重新计时；否则结束当前流
+     */
+    private void scheduleStallCheck(ChannelHandlerContext ctx, long delayNanos) {
+        long stream = activeStream;
+        stallCheck = ctx.executor().schedule(() -> {
+            if (activeStream != stream) {
+                return;
+            }
+            long idle = System.nanoTime() - lastChunkNanos;
+            if (idle < stallTimeoutNanos) {
+                scheduleStallCheck(ctx, stallTimeoutNanos - idle);
+                return;
+            }
+            ctx.write(new ContinuationWebSocketFrame(true, 0, Unpooled.EMPTY_BUFFER));
+            endActiveStream(ctx);
+        }, delayNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * 流结束后按顺序写出排队的消息，遇到新的流开头则其余消息继续等待
+     */
+    private void drain(ChannelHandlerContext ctx) {
+        draining = true;
+        boolean progress = true;
+        while (progress && !pending.isEmpty()) {
+            progress = false;
+            // 一旦有消息需要继续等待，本轮后面只放行当前流的分片，保证其余消息的顺序
+            boolean blocked = false;
+            for (int i = pending.size(); i > 0; i--) {
+                Pending next = pending.poll();
+                if (blocked && !(next.msg instanceof StreamChunk
+                        && ((StreamChunk) next.msg).getStreamId() == activeStream)) {
+                    pending.add(next);
+                } else if (tryWrite(ctx, next.msg, next.promise)) {
+                    progress = true;
+                } else {
+                    pending.add(next);
+                    blocked = true;
+                }
+            }
+        }
+        draining = false;
+        ctx.flush();
+    }
+
+    private static WebSocketFrame toFrame(StreamChunk chunk) {
+        if (!chunk.isFirst()) {
+            return new ContinuationWebSocketFrame(chunk.isLast(), 0, chunk.content());
+        }
+        return chunk.isBinary()
+                ? new BinaryWebSocketFrame(chunk.isLast(), 0, chunk.content())
+                : new TextWebSocketFrame(chunk.isLast(), 0, chunk.content());
+    }
+
+    private static boolean isDataFrame(Object msg) {
+        return msg instanceof TextWebSocketFrame || msg instanceof BinaryWebSocketFrame
+                || msg instanceof ContinuationWebSocketFrame;
+    }
+
+    @Override
+    public void handlerRemoved(ChannelHandlerContext ctx) {
+        if (stallCheck != null) {
+            stallCheck.cancel(false);
+        }
+        Pending next;
+        while ((next = pending.poll()) != null) {
+            ReferenceCountUtil.release(next.msg);
+            next.promise.tryFailure(new IllegalStateException("channel closed"));
+        }
+    }
+
+    private static final class Pending {
+        final Object msg;
+        final ChannelPromise promise;
+
+        Pending(Object msg, ChannelPromise promise) {
+            this.msg = msg;
+            this.promise = promise;
+        }
+    }
+}
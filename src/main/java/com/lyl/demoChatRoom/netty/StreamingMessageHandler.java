@@ -0,0 +1,238 @@
+package com.lyl.demoChatRoom.netty;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.lyl.demoChatRoom.config.NettyServerProperties;
+import com.lyl.demoChatRoom.entity.ChatMessage;
+import com.lyl.demoChatRoom.tenant.Tenant;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.group.ChannelGroup;
+import io.netty.channel.group.ChannelMatcher;
+import io.netty.channel.group.ChannelMatchers;
+import io.netty.handler.codec.http.websocketx.*;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 分片消息的流式处理
+ * 完整的单帧消息照常交给ChatHandler；分片消息不在内存中拼装，每收到一个分片就校验并转发给所有连接，
+ * 超过maxFrameSize的单帧消息（浏览器发送的大消息不分片）按maxFrameSize切开后同样流式转发。
+ * 文本消息用JsonStreamValidator增量校验，二进制消息只检查长度。
+ * 文本消息外面套一层服务端信封{"type":"stream","user":握手用户,"body":原消息}，
+ * 发送方填写的type、seq、user都在body里，接收方只认信封中的字段；二进制消息原样转发。
+ * 只转发给已握手的其他连接，计入租户的广播流量配额，超出时中止本条消息但保留连接。
+ * 流式转发的消息是临时中继，不分配会话序号，不去重，不进入重发缓冲和搜索索引
+ */
+public class StreamingMessageHandler extends ChannelInboundHandlerAdapter {
+
+    private static final AtomicLong STREAM_IDS = new AtomicLong();
+
+    private static final int MAX_JSON_DEPTH = 32;
+
+    private static final ObjectMapper mapper = new ObjectMapper();
+    private static final byte[] ENVELOPE_END = "}".getBytes(StandardCharsets.UTF_8);
+
+    // 启用租户时握手后换成本租户的连接
+    private ChannelGroup recipients;
+    private final int maxFrameSize;
+    private final long maxMessageSize;
+    // 握手后确定：不含自己的接收方、所属租户、信封开头
+    private ChannelMatcher others = ChannelMatchers.all();
+    private Tenant tenant;
+    private byte[] envelopeStart;
+
+    // 当前正在接收的流，-1表示没有
+    private long streamId = -1;
+    private boolean binary;
+    private long received;
+    private JsonStreamValidator validator;
+    // 流被中止后丢弃剩余分片
+    private boolean discarding;
+
+    public StreamingMessageHandler(ChannelGroup recipients, NettyServerProperties.Streaming config) {
+        this.recipients = recipients;
+        this.maxFrameSize = config.getMaxFrameSize();
+        this.maxMessageSize = config.getMaxMessageSize();
+    }
+
+    @Override
+    public void userEventTriggered(ChannelHandlerContext ctx, Object evt) throws Exception {
+        if (evt instanceof WebSocketServerProtocolHandler.HandshakeComplete) {
+            tenant = TenantHandler.tenant(ctx.channel());
+            if (tenant != null) {
+                recipients = tenant.getChannels();
+            }
+            others = ChannelMatchers.isNot(ctx.channel());
+            envelopeStart = envelopeStart(Handshakes.user((WebSocketServerProtocolHandler.HandshakeComplete) evt));
+        }
+        super.userEventTriggered(ctx, evt);
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        if (msg instanceof ContinuationWebSocketFrame) {
+            continueStream(ctx, (ContinuationWebSocketFrame) msg);
+            return;
+        }
+        if ((msg instanceof TextWebSocketFrame || msg instanceof BinaryWebSocketFrame)
+                && !((WebSocketFrame) msg).isFinalFragment()) {
+            startStream(ctx, (WebSocketFrame) msg);
+            return;
+        }
+        if ((msg instanceof TextWebSocketFrame || msg instanceof BinaryWebSocketFrame)
+                && ((WebSocketFrame) msg).content().readableBytes() > maxFrameSize) {
+            split(ctx, (WebSocketFrame) msg);
+            return;
+        }
+        ctx.fireChannelRead(msg);
+    }
+
+    /**
+     * 大的单帧消息切成分片，按分片消息转发；流被中止时不再切后面的部分
+     */
+    private void split(ChannelHandlerContext ctx, WebSocketFrame frame) {
+        ByteBuf content = frame.content();
+        try {
+            int index = content.readerIndex();
+            int end = content.writerIndex();
+            boolean first = true;
+            while (index < end) {
+                int length = Math.min(maxFrameSize, end - index);
+                ByteBuf part = content.retainedSlice(index, length);
+                index += length;
+                boolean last = index == end;
+                if (first) {
+                    startStream(ctx, frame instanceof BinaryWebSocketFrame
+                            ? new BinaryWebSocketFrame(last, 0, part) : new TextWebSocketFrame(last, 0, part));
+                    first = false;
+                } else {
+                    continueStream(ctx, new ContinuationWebSocketFrame(last, 0, part));
+                }
+                if (streamId == -1) {
+                    // 整条消息已在内存中，没有后续分片要丢弃
+                    discarding = false;
+                    break;
+                }
+            }
+        } finally {
+            frame.release();
+        }
+    }
+
+    private void startStream(ChannelHandlerContext ctx, WebSocketFrame frame) {
+        if (streamId != -1) {
+            // 上一个流还没结束又开始新消息，违反协议
+            frame.release();
+            abort(ctx, WebSocketCloseStatus.PROTOCOL_ERROR, "unexpected message start");
+            return;
+        }
+        streamId = STREAM_IDS.incrementAndGet();
+        binary = frame instanceof BinaryWebSocketFrame;
+        received = 0;
+        validator = binary ? null : new JsonStreamValidator(MAX_JSON_DEPTH);
+        discarding = false;
+        forward(ctx, frame, true);
+    }
+
+    private void continueStream(ChannelHandlerContext ctx, ContinuationWebSocketFrame frame) {
+        if (streamId == -1) {
+            boolean last = frame.isFinalFragment();
+            frame.release();
+            if (!discarding) {
+                abort(ctx, WebSocketCloseStatus.PROTOCOL_ERROR, "unexpected continuation frame");
+            } else if (last) {
+                discarding = false;
+            }
+            return;
+        }
+        forward(ctx, frame, false);
+    }
+
+    private void forward(ChannelHandlerContext ctx, WebSocketFrame frame, boolean first) {
+        received += frame.content().readableBytes();
+        if (received > maxMessageSize) {
+            frame.release();
+            abort(ctx, WebSocketCloseStatus.MESSAGE_TOO_BIG, "message exceeds " + maxMessageSize + " bytes");
+            return;
+        }
+        if (validator != null && !validator.feed(frame.content())) {
+            frame.release();
+            abort(ctx, WebSocketCloseStatus.INVALID_PAYLOAD_DATA, "invalid json");
+            return;
+        }
+
+        boolean last = frame.isFinalFragment();
+        if (last && validator != null && !validator.finish()) {
+            frame.release();
+            abort(ctx, WebSocketCloseStatus.INVALID_PAYLOAD_DATA, "incomplete json");
+            return;
+        }
+
+        if (tenant != null && !tenant.tryAcquireOutbound(System.nanoTime(),
+                (long) frame.content().readableBytes() * recipients.size())) {
+            // 租户的广播流量超出配额：接收方的消息到此结束，发送方剩余的分片丢弃
+            frame.release();
+            endStream();
+            discarding = !last;
+            return;
+        }
+
+        // ChannelGroup对每个连接写retainedDuplicate，内容只有一份
+        recipients.writeAndFlush(new StreamChunk(streamId, binary, first, last, wrap(frame.content(), first, last)),
+                others);
+        if (last) {
+            reset();
+        }
+    }
+
+    /**
+     * 文本消息的首片前加信封开头，末片后加信封结尾；包装后的缓冲区接管原内容的引用
+     */
+    private ByteBuf wrap(ByteBuf content, boolean first, boolean last) {
+        if (binary || envelopeStart == null) {
+            return content;
+        }
+        if (first) {
+            return Unpooled.wrappedBuffer(Unpooled.wrappedBuffer(envelopeStart), content);
+        }
+        return last ? Unpooled.wrappedBuffer(content, Unpooled.wrappedBuffer(ENVELOPE_END)) : content;
+    }
+
+    private static byte[] envelopeStart(String user) throws JsonProcessingException {
+        return ("{\"type\":\"" + ChatMessage.TYPE_STREAM + "\",\"user\":" + mapper.writeValueAsString(user)
+                + ",\"body\":").getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 中止当前流：用空的结束分片让接收方的消息结束，再关闭发送方连接
+     */
+    private void abort(ChannelHandlerContext ctx, WebSocketCloseStatus status, String reason) {
+        endStream();
+        discarding = true;
+        ctx.writeAndFlush(new CloseWebSocketFrame(status, reason)).addListener(ChannelFutureListener.CLOSE);
+    }
+
+    private void endStream() {
+        if (streamId != -1) {
+            recipients.writeAndFlush(new StreamChunk(streamId, binary, false, true, Unpooled.EMPTY_BUFFER), others);
+        }
+        reset();
+    }
+
+    private void reset() {
+        streamId = -1;
+        validator = null;
+        received = 0;
+    }
+
+    @Override
+    public void handlerRemoved(ChannelHandlerContext ctx) {
+        // 发送方断开时接收方不能停在半条消息上
+        endStream();
+    }
+}
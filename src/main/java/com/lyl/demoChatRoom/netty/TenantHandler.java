@@ -0,0 +1,112 @@
+package com.lyl.demoChatRoom.netty;
+
+import com.lyl.demoChatRoom.tenant.Tenant;
+import com.lyl.demoChatRoom.tenant.TenantRegistry;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.channel.*;
+import io.netty.handler.codec.http.*;
+import io.netty.util.AttributeKey;
+
+/**
+ * WebSocket握手时确定连接所属的租户，放在协议处理器之前
+ * 租户取自握手地址/chat/{tenant}，其次是请求头，都没有时为默认租户；
+ * 租户不存在返回404，ID不合法返回400，连接数超出租户配额返回429。
+ * 通过后把租户写入Channel属性，有独立EventLoop的租户先把连接迁移过去再继续握手，之后从管道中移除自己
+ */
+public class TenantHandler extends ChannelInboundHandlerAdapter {
+
+    /**
+     * 连接所属的租户，未启用租户时没有
+     */
+    public static final AttributeKey<Tenant> TENANT = AttributeKey.valueOf("tenant");
+
+    private final TenantRegistry registry;
+    private final String websocketPath;
+
+    public TenantHandler(TenantRegistry registry, String websocketPath) {
+        this.registry = registry;
+        this.websocketPath = websocketPath;
+    }
+
+    /**
+     * 连接所属的租户，未启用租户时为null
+     */
+    public static Tenant tenant(Channel channel) {
+        return channel.attr(TENANT).get();
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) {
+        if (!(msg instanceof FullHttpRequest) || !((FullHttpRequest) msg).headers()
+                .containsValue(HttpHeaderNames.UPGRADE, HttpHeaderValues.WEBSOCKET, true)) {
+            ctx.fireChannelRead(msg);
+            return;
+        }
+
+        FullHttpRequest request = (FullHttpRequest) msg;
+        String tenantId = tenantId(request);
+        if (!TenantRegistry.isValidId(tenantId)) {
+            request.release();
+            reject(ctx, HttpResponseStatus.BAD_REQUEST, "invalid tenant");
+            return;
+        }
+        Tenant tenant = registry.get(tenantId);
+        if (tenant == null) {
+            request.release();
+            reject(ctx, HttpResponseStatus.NOT_FOUND, "unknown tenant");
+            return;
+        }
+        Channel channel = ctx.channel();
+        if (!tenant.tryOpen(channel)) {
+            request.release();
+            reject(ctx, HttpResponseStatus.TOO_MANY_REQUESTS, "tenant connection quota exceeded");
+            return;
+        }
+        channel.attr(TENANT).set(tenant);
+        ctx.pipeline().remove(this);
+
+        EventLoopGroup eventLoops = tenant.getEventLoops();
+        if (eventLoops == null) {
+            ctx.fireChannelRead(request);
+            return;
+        }
+        // 迁移期间不读取，重新注册后在新的EventLoop上继续握手
+        channel.config().setAutoRead(false);
+        channel.deregister().addListener(deregistered -> {
+            if (!deregistered.isSuccess()) {
+                request.release();
+                channel.close();
+                return;
+            }
+            eventLoops.register(channel).addListener(registered -> {
+                if (!registered.isSuccess()) {
+                    request.release();
+                    channel.unsafe().closeForcibly();
+                    return;
+                }
+                channel.config().setAutoRead(true);
+                ctx.fireChannelRead(request);
+            });
+        });
+    }
+
+    private String tenantId(HttpRequest request) {
+        String path = new QueryStringDecoder(request.uri()).path();
+        String prefix = websocketPath + "/";
+        if (path.startsWith(prefix)) {
+            return path.substring(prefix.length());
+        }
+        String header = request.headers().get(registry.getHeader());
+        return header == null || header.isEmpty() ? registry.getDefaultTenant() : header;
+    }
+
+    private static void reject(ChannelHandlerContext ctx, HttpResponseStatus status, String error) {
+        ByteBuf content = ByteBufUtil.writeUtf8(ctx.alloc(), "{\"error\":\"" + error + "\"}");
+        FullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, status, content);
+        response.headers().set(HttpHeaderNames.CONTENT_TYPE, "application/json; charset=UTF-8");
+        response.headers().set(HttpHeaderNames.CONNECTION, HttpHeaderValues.CLOSE);
+        HttpUtil.setContentLength(response, content.readableBytes());
+        ctx.writeAndFlush(response).addListener(ChannelFutureListener.CLOSE);
+    }
+}
@@ -0,0 +1,48 @@
+package com.lyl.demoChatRoom.netty;
+
+import com.lyl.demoChatRoom.tenant.Tenant;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.handler.codec.http.websocketx.BinaryWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.ContinuationWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.WebSocketFrame;
+import io.netty.handler.codec.http.websocketx.WebSocketServerProtocolHandler;
+import io.netty.util.ReferenceCountUtil;
+
+/**
+ * 租户的入站消息配额，同一租户的所有连接共用一个令牌桶，超出时丢弃消息
+ * 与按连接和用户的RateLimitHandler叠加，防止一个租户的大量连接挤占其他租户；
+ * 确认和正在输入消息不计入，由RateLimitHandler的控制桶按连接限制
+ */
+public class TenantQuotaHandler extends ChannelInboundHandlerAdapter {
+
+    private Tenant tenant;
+    // 被丢弃的首帧不是最后一帧时，丢弃后续帧直到FIN
+    private boolean droppingFragments;
+
+    @Override
+    public void userEventTriggered(ChannelHandlerContext ctx, Object evt) throws Exception {
+        if (evt instanceof WebSocketServerProtocolHandler.HandshakeComplete) {
+            tenant = TenantHandler.tenant(ctx.channel());
+        }
+        super.userEventTriggered(ctx, evt);
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        // 只对消息的首帧计数：首帧被丢弃时连同后续帧一起丢弃，否则后续帧和控制帧直接放行
+        if (droppingFragments && msg instanceof ContinuationWebSocketFrame) {
+            droppingFragments = !((WebSocketFrame) msg).isFinalFragment();
+            ReferenceCountUtil.release(msg);
+            return;
+        }
+        if (tenant != null && (msg instanceof TextWebSocketFrame || msg instanceof BinaryWebSocketFrame)
+                && !ControlFrames.isControl((WebSocketFrame) msg) && !tenant.tryAcquireMessage(System.nanoTime())) {
+            droppingFragments = !((WebSocketFrame) msg).isFinalFragment();
+            ReferenceCountUtil.release(msg);
+            return;
+        }
+        ctx.fireChannelRead(msg);
+    }
+}
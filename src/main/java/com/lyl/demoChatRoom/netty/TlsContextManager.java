@@ -0,0 +1,253 @@
+package com.lyl.demoChatRoom.netty;
+
+import com.lyl.demoChatRoom.config.NettyServerProperties;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.handler.ssl.*;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.net.ssl.SSLSessionContext;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.security.SecureRandom;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * TLS终止
+ * 有netty-tcnative（maven -Popenssl）时使用OpenSSL引擎，否则使用JDK引擎。
+ * 会话复用：两种引擎都开启服务端会话缓存；OpenSSL引擎另外使用本进程生成的票据密钥，
+ * 定期轮换时保留上一把用于解密，证书重载后旧票据仍然有效。JDK引擎的票据由JDK自己管理（TLS 1.3）。
+ * 后台定期检查证书和私钥文件的修改时间，变化后重建SslContext，新连接使用新证书，已有连接不受影响；
+ * 重建失败时继续使用旧证书
+ */
+public class TlsContextManager {
+
+    private static final Logger log = LoggerFactory.getLogger(TlsContextManager.class);
+
+    /**
+     * TLS实现
+     */
+    public enum Provider {
+        /**
+         * OpenSSL可用时使用OpenSSL，否则使用JDK
+         */
+        AUTO,
+        OPENSSL,
+        JDK
+    }
+
+    private final NettyServerProperties.Tls config;
+    private final SslProvider provider;
+    private final File certificateFile;
+    private final File privateKeyFile;
+    private final SecureRandom random = new SecureRandom();
+    private final ScheduledExecutorService scheduler;
+
+    private volatile SslContext context;
+    private volatile X509Certificate certificate;
+    private volatile long loadedAtMillis;
+    private long certificateModified;
+    private long privateKeyModified;
+    // 第一把用于加密新票据，其余只用于解密
+    private OpenSslSessionTicketKey[] ticketKeys;
+
+    private final LongAdder reloads = new LongAdder();
+    private final LongAdder reloadFailures = new LongAdder();
+    private final HandshakeStats full = new HandshakeStats();
+    private final HandshakeStats resumed = new HandshakeStats();
+    private final LongAdder failed = new LongAdder();
+
+    /**
+     * @throws IllegalStateException 证书或私钥无法加载，要求的OpenSSL不可用
+     */
+    public TlsContextManager(NettyServerProperties.Tls config) {
+        this.config = config;
+        this.certificateFile = new File(config.getCertificate());
+        this.privateKeyFile = new File(config.getPrivateKey());
+        this.provider = resolveProvider(config.getProvider());
+        if (provider == SslProvider.OPENSSL) {
+            ticketKeys = new OpenSslSessionTicketKey[]{newTicketKey()};
+        }
+        try {
+            load();
+        } catch (Exception e) {
+            throw new IllegalStateException("TLS证书加载失败: " + certificateFile + ", " + privateKeyFile, e);
+        }
+        log.info("TLS已启用: {}, 证书 {}, 有效期至 {}", provider, certificate.getSubjectX500Principal(),
+                certificate.getNotAfter());
+
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(new DefaultThreadFactory("tls-reload", true));
+        if (config.getReloadIntervalMillis() > 0) {
+            scheduler.scheduleWithFixedDelay(this::reloadIfChanged, config.getReloadIntervalMillis(),
+                    config.getReloadIntervalMillis(), TimeUnit.MILLISECONDS);
+        }
+        if (provider == SslProvider.OPENSSL && config.getTicketKeyRotationMinutes() > 0) {
+            scheduler.scheduleWithFixedDelay(this::rotateTicketKeys, config.getTicketKeyRotationMinutes(),
+                    config.getTicketKeyRotationMinutes(), TimeUnit.MINUTES);
+        }
+    }
+
+    private static SslProvider resolveProvider(Provider provider) {
+        switch (provider) {
+            case OPENSSL:
+                if (!OpenSsl.isAvailable()) {
+                    throw new IllegalStateException("OpenSSL不可用，需要netty-tcnative（mvn -Popenssl）",
+                            OpenSsl.unavailabilityCause());
+                }
+                return SslProvider.OPENSSL;
+            case JDK:
+                return SslProvider.JDK;
+            default:
+                return OpenSsl.isAvailable() ? SslProvider.OPENSSL : SslProvider.JDK;
+        }
+    }
+
+    /**
+     * 为新连接创建SslHandler
+     */
+    public SslHandler newHandler(ByteBufAllocator alloc) {
+        SslHandler handler = context.newHandler(alloc);
+        handler.setHandshakeTimeoutMillis(config.getHandshakeTimeoutMillis());
+        return handler;
+    }
+
+    private synchronized void load() throws Exception {
+        long certModified = certificateFile.lastModified();
+        long keyModified = privateKeyFile.lastModified();
+        X509Certificate loaded;
+        try (InputStream in = new FileInputStream(certificateFile)) {
+            loaded = (X509Certificate) CertificateFactory.getInstance("X.509").generateCertificate(in);
+        }
+        // yml中留空的密码绑定为空串，按未加密处理
+        String password = config.getPrivateKeyPassword();
+        SslContext built = SslContextBuilder
+                .forServer(certificateFile, privateKeyFile, password == null || password.isEmpty() ? null : password)
+                .sslProvider(provider)
+                .protocols(config.getProtocols())
+                .sessionCacheSize(config.getSessionCacheSize())
+                .sessionTimeout(config.getSessionTimeoutSeconds())
+                .build();
+        applyTicketKeys(built);
+
+        this.context = built;
+        this.certificate = loaded;
+        this.loadedAtMillis = System.currentTimeMillis();
+        this.certificateModified = certModified;
+        this.privateKeyModified = keyModified;
+    }
+
+    private synchronized void reloadIfChanged() {
+        if (certificateFile.lastModified() == certificateModified && privateKeyFile.lastModified() == privateKeyModified) {
+            return;
+        }
+        try {
+            load();
+            reloads.increment();
+            log.info("TLS证书已重新加载: {}, 有效期至 {}", certificate.getSubjectX500Principal(), certificate.getNotAfter());
+        } catch (Exception e) {
+            reloadFailures.increment();
+            // 证书和私钥可能还没替换完，记下修改时间等下次变化再试
+            certificateModified = certificateFile.lastModified();
+            privateKeyModified = privateKeyFile.lastModified();
+            log.error("TLS证书重新加载失败，继续使用旧证书", e);
+        }
+    }
+
+    private synchronized void rotateTicketKeys() {
+        ticketKeys = new OpenSslSessionTicketKey[]{newTicketKey(), ticketKeys[0]};
+        applyTicketKeys(context);
+        log.info("TLS会话票据密钥已轮换");
+    }
+
+    private void applyTicketKeys(SslContext target) {
+        SSLSessionContext sessions = target.sessionContext();
+        if (ticketKeys != null && sessions instanceof OpenSslSessionContext) {
+            ((OpenSslSessionContext) sessions).setTicketKeys(ticketKeys);
+        }
+    }
+
+    private OpenSslSessionTicketKey newTicketKey() {
+        byte[] name = new byte[OpenSslSessionTicketKey.NAME_SIZE];
+        byte[] hmacKey = new byte[OpenSslSessionTicketKey.HMAC_KEY_SIZE];
+        byte[] aesKey = new byte[OpenSslSessionTicketKey.AES_KEY_SIZE];
+        random.nextBytes(name);
+        random.nextBytes(hmacKey);
+        random.nextBytes(aesKey);
+        return new OpenSslSessionTicketKey(name, hmacKey, aesKey);
+    }
+
+    /**
+     * 记录一次握手，由TlsHandshakeMeter调用
+     * @param cpuNanos 握手期间EventLoop线程在SslHandler上消耗的CPU时间，不支持线程CPU计时时为-1
+     */
+    void recordHandshake(boolean success, boolean resumedSession, long cpuNanos, long elapsedNanos) {
+        if (!success) {
+            failed.increment();
+            return;
+        }
+        (resumedSession ? resumed : full).record(cpuNanos, elapsedNanos);
+    }
+
+    /**
+     * 证书、重载和握手统计，供/api/tls使用
+     */
+    public Map<String, Object> getSnapshot() {
+        Map<String, Object> snapshot = new LinkedHashMap<>();
+        snapshot.put("provider", provider.name());
+        snapshot.put("protocols", config.getProtocols());
+        X509Certificate current = certificate;
+        snapshot.put("subject", current.getSubjectX500Principal().getName());
+        snapshot.put("notAfter", current.getNotAfter().getTime());
+        snapshot.put("loadedAt", loadedAtMillis);
+        snapshot.put("reloads", reloads.sum());
+        snapshot.put("reloadFailures", reloadFailures.sum());
+        snapshot.put("fullHandshakes", full.snapshot());
+        snapshot.put("resumedHandshakes", resumed.snapshot());
+        snapshot.put("failedHandshakes", failed.sum());
+        SSLSessionContext sessions = context.sessionContext();
+        if (sessions instanceof OpenSslSessionContext) {
+            OpenSslSessionStats stats = ((OpenSslSessionContext) sessions).stats();
+            Map<String, Object> openssl = new LinkedHashMap<>();
+            openssl.put("cacheHits", stats.hits());
+            openssl.put("cacheMisses", stats.misses());
+            openssl.put("ticketResumes", stats.ticketKeyResume());
+            openssl.put("ticketFailures", stats.ticketKeyFail());
+            snapshot.put("openssl", openssl);
+        }
+        return snapshot;
+    }
+
+    public void shutdown() {
+        scheduler.shutdownNow();
+    }
+
+    private static final class HandshakeStats {
+        final LongAdder count = new LongAdder();
+        final LongAdder cpuNanos = new LongAdder();
+        final LongAdder elapsedNanos = new LongAdder();
+
+        void record(long cpu, long elapsed) {
+            count.increment();
+            cpuNanos.add(Math.max(0, cpu));
+            elapsedNanos.add(elapsed);
+        }
+
+        Map<String, Object> snapshot() {
+            long n = count.sum();
+            Map<String, Object> result = new LinkedHashMap<>();
+            result.put("count", n);
+            result.put("avgCpuMicros", n == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(cpuNanos.sum() / n));
+            result.put("avgMillis", n == 0 ? 0 : elapsedNanos.sum() / n / 1_000_000.0);
+            return result;
+        }
+    }
+}
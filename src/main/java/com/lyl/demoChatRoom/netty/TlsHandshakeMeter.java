@@ -0,0 +1,67 @@
+package com.lyl.demoChatRoom.netty;
+
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.handler.ssl.SslHandler;
+import io.netty.util.concurrent.Future;
+
+import javax.net.ssl.SSLSession;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * 握手开销计量，放在SslHandler之前
+ * 握手期间SslHandler的计算（密钥交换、签名、委托任务默认也在EventLoop上执行）都发生在读事件里，
+ * 这里对每次channelRead前后取线程CPU时间并累加；握手结束后记录并把自己移除，之后不再有开销。
+ * 会话创建时间早于握手开始的视为复用会话
+ */
+public class TlsHandshakeMeter extends ChannelInboundHandlerAdapter {
+
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+    private static final boolean CPU_TIME = THREADS.isCurrentThreadCpuTimeSupported();
+
+    private final TlsContextManager tls;
+    private final SslHandler sslHandler;
+    private long startNanos;
+    private long startMillis;
+    private long cpuNanos;
+
+    public TlsHandshakeMeter(TlsContextManager tls, SslHandler sslHandler) {
+        this.tls = tls;
+        this.sslHandler = sslHandler;
+    }
+
+    @Override
+    public void handlerAdded(ChannelHandlerContext ctx) {
+        startNanos = System.nanoTime();
+        startMillis = System.currentTimeMillis();
+        sslHandler.handshakeFuture().addListener(future -> complete(ctx, future));
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) {
+        if (!CPU_TIME) {
+            ctx.fireChannelRead(msg);
+            return;
+        }
+        long before = THREADS.getCurrentThreadCpuTime();
+        try {
+            ctx.fireChannelRead(msg);
+        } finally {
+            cpuNanos += THREADS.getCurrentThreadCpuTime() - before;
+        }
+    }
+
+    private void complete(ChannelHandlerContext ctx, Future<?> future) {
+        long elapsed = System.nanoTime() - startNanos;
+        boolean resumed = false;
+        if (future.isSuccess()) {
+            SSLSession session = sslHandler.engine().getSession();
+            resumed = session != null && session.getCreationTime() < startMillis;
+        }
+        tls.recordHandshake(future.isSuccess(), resumed, CPU_TIME ? cpuNanos : -1, elapsed);
+        if (!ctx.isRemoved()) {
+            ctx.pipeline().remove(this);
+        }
+    }
+}
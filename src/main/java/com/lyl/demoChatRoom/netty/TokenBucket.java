@@ -0,0 +1,60 @@
+package com.lyl.demoChatRoom.netty;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 无锁令牌桶（GCRA实现）
+ * 整个桶的状态只有一个"理论到达时间"，用一次CAS完成取令牌，调用时不分配对象
+ */
+public class TokenBucket {
+
+    private final long emissionIntervalNanos;
+    private final long burstToleranceNanos;
+    private final AtomicLong theoreticalArrival = new AtomicLong(Long.MIN_VALUE);
+
+    /**
+     * @param burst           桶容量，允许的突发数量
+     * @param refillPerSecond 每秒补充的令牌数
+     */
+    public TokenBucket(int burst, double refillPerSecond) {
+        this.emissionIntervalNanos = Math.max(1, (long) (TimeUnit.SECONDS.toNanos(1) / refillPerSecond));
+        this.burstToleranceNanos = emissionIntervalNanos * Math.max(1, burst);
+    }
+
+    public boolean tryAcquire() {
+        return tryAcquire(System.nanoTime());
+    }
+
+    public boolean tryAcquire(long nowNanos) {
+        return tryAcquire(nowNanos, 1);
+    }
+
+    /**
+     * 现在能否取到一个令牌，不消耗令牌；只有单线程使用的桶才能据此再调用tryAcquire
+     */
+    public boolean canAcquire(long nowNanos) {
+        long tat = theoreticalArrival.get();
+        long base = tat == Long.MIN_VALUE || tat - nowNanos < 0 ? nowNanos : tat;
+        return base + emissionIntervalNanos - nowNanos <= burstToleranceNanos;
+    }
+
+    /**
+     * 一次取多个令牌（如按字节计的流量），超过桶容量的按桶容量计，桶满时总能取到
+     */
+    public boolean tryAcquire(long nowNanos, long permits) {
+        long cost = permits >= burstToleranceNanos / emissionIntervalNanos
+                ? burstToleranceNanos : emissionIntervalNanos * Math.max(1, permits);
+        while (true) {
+            long tat = theoreticalArrival.get();
+            long base = tat == Long.MIN_VALUE || tat - nowNanos < 0 ? nowNanos : tat;
+            long next = base + cost;
+            if (next - nowNanos > burstToleranceNanos) {
+                return false;
+            }
+            if (theoreticalArrival.compareAndSet(tat, next)) {
+                return true;
+            }
+        }
+    }
+}
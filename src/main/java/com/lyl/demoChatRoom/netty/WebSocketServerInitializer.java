@@ -1,31 +1,118 @@
 package com.lyl.demoChatRoom.netty;
 
+import com.lyl.demoChatRoom.config.NettyServerProperties;
+import io.netty.channel.Channel;
 import io.netty.channel.ChannelInitializer;
 import io.netty.channel.ChannelPipeline;
-import io.netty.channel.socket.SocketChannel;
 import io.netty.handler.codec.http.*;
+import io.netty.handler.codec.http.websocketx.WebSocketFrameAggregator;
+import io.netty.handler.codec.http.websocketx.WebSocketServerProtocolConfig;
 import io.netty.handler.codec.http.websocketx.WebSocketServerProtocolHandler;
-import io.netty.handler.timeout.IdleStateHandler;
+import io.netty.handler.ssl.SslHandler;
 
-public class WebSocketServerInitializer extends ChannelInitializer<SocketChannel> {
+/**
+ * 每个连接的处理器管道
+ * 不依赖具体的Channel类型，基准测试（src/jmh）用EmbeddedChannel驱动同一条管道
+ */
+public class WebSocketServerInitializer extends ChannelInitializer<Channel> {
+
+    private final ServerContext context;
+
+    public WebSocketServerInitializer(ServerContext context) {
+        this.context = context;
+    }
 
     @Override
-    protected void initChannel(SocketChannel ch) throws Exception {
+    protected void initChannel(Channel ch) throws Exception {
+        NettyServerProperties properties = context.getProperties();
         ChannelPipeline pipeline = ch.pipeline();
 
+        // 连接数已满时不建立管道，直接关闭
+        AdmissionController admission = context.getAdmission();
+        if (admission != null && !admission.tryAccept(ch)) {
+            ch.close();
+            return;
+        }
+
+        // TLS终止，握手期间计量CPU开销，握手结束后计量器自行移除
+        TlsContextManager tls = context.getTls();
+        if (tls != null) {
+            SslHandler sslHandler = tls.newHandler(ch.alloc());
+            pipeline.addLast(new TlsHandshakeMeter(tls, sslHandler));
+            pipeline.addLast(sslHandler);
+        }
+
         // 处理HTTP请求和WebSocket握手
         pipeline.addLast(new HttpServerCodec());
-        pipeline.addLast(new HttpObjectAggregator(65536));
+
+        // 过载时在聚合请求体和握手之前拒绝
+        if (admission != null) {
+            pipeline.addLast(new AdmissionHandler(admission));
+        }
+        pipeline.addLast(new HttpObjectAggregator(properties.getMaxContentLength()));
         
         // 自定义跨域处理器
         pipeline.addLast(new CorsHandler());
 
-        pipeline.addLast(new IdleStateHandler(0, 0, 30)); // 30秒无心跳则断开
-        
-        // WebSocket协议处理器
-        pipeline.addLast(new WebSocketServerProtocolHandler("/chat"));
+        // 统计等只读接口
+        if (!context.getApiEndpoints().isEmpty()) {
+            pipeline.addLast(new ApiHandler(context.getApiEndpoints()));
+        }
+
+        // 静态页面与WebSocket共用一个端口，非握手请求在这里直接响应
+        if (context.getStaticResources() != null) {
+            pipeline.addLast(new StaticResourceHandler(context.getStaticResources(), properties.getWebsocketPath(),
+                    properties.getStaticResources().getMaxAgeSeconds()));
+        }
+
+        // 握手前确定租户并检查连接配额，必要时迁移到租户的EventLoop
+        if (context.getTenants() != null) {
+            pipeline.addLast(new TenantHandler(context.getTenants(), properties.getWebsocketPath()));
+        }
+
+        // WebSocket协议处理器，Pong帧交给心跳处理器；握手地址可带?user=参数
+        // 握手完成后HttpObjectAggregator会被移除，WebSocket帧不经过它
+        NettyServerProperties.Streaming streaming = properties.getStreaming();
+        pipeline.addLast(new WebSocketServerProtocolHandler(WebSocketServerProtocolConfig.newBuilder()
+                .websocketPath(properties.getWebsocketPath())
+                .checkStartsWith(true)
+                .dropPongFrames(false)
+                .maxFramePayloadLength(streaming.getMaxMessageSize())
+                .build()));
+
+        // 协议层Ping/Pong心跳与空闲连接回收
+        pipeline.addLast(new HeartbeatHandler(context.getIdleMonitor()));
+
+        // 按连接和用户限流，避免单个客户端放大广播负载
+        if (context.getRateLimiter() != null) {
+            pipeline.addLast(new RateLimitHandler(context.getRateLimiter()));
+        }
+
+        // 租户合计的消息速率
+        if (context.getTenants() != null) {
+            pipeline.addLast(new TenantQuotaHandler());
+        }
+
+        // 握手后登记路由，Redis调用不在EventLoop上执行
+        if (context.getRouter() != null) {
+            pipeline.addLast(new RouterRegistrationHandler(context.getRouter(), context.getNodeId(), context.getHotKeys()));
+        }
         
+        // 分片消息逐片转发；未启用时拼装成完整消息
+        if (streaming.isEnabled()) {
+            pipeline.addLast(new StreamGuard(streaming.getMaxPendingMessages(), streaming.getStallTimeoutMillis()));
+            pipeline.addLast(new StreamingMessageHandler(ChatHandler.upgradedGroup(), streaming));
+        } else {
+            pipeline.addLast(new WebSocketFrameAggregator(streaming.getMaxMessageSize()));
+        }
+
+        // 出站优先级：积压时控制帧和单发消息优先于房间广播和补发
+        if (properties.getOutbound().isEnabled()) {
+            pipeline.addLast(new PriorityOutboundHandler(properties.getOutbound()));
+        }
+
         // 自定义业务逻辑处理器
-        pipeline.addLast(new ChatHandler());
+        pipeline.addLast(new ChatHandler(context.getSequencer(), context.getDeduplicator(), context.getEphemeral(),
+                context.getSearch(), context.getPresence(), context.getHotKeys()));
     }
-}
\ No newline at end of file
+}
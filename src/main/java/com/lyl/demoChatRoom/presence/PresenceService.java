@@ -0,0 +1,250 @@
+package com.lyl.demoChatRoom.presence;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import com.lyl.demoChatRoom.config.NettyServerProperties;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import lombok.Data;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 在线状态服务
+ * 本节点的连接数、在线用户数在上下线时O(1)维护；
+ * 每个统计窗口用HyperLogLog记录出现过的用户，集群模式下定时把本节点的计数和草图写入Redis，
+ * 同时读回所有节点的数据合并成集群快照。查询只读最近一次快照，不访问Redis
+ */
+public class PresenceService {
+
+    private static final Logger log = LoggerFactory.getLogger(PresenceService.class);
+
+    // 每个节点一个字段，值为NodePresence的JSON
+    private static final String PRESENCE_NODES = "presence:nodes";
+
+    private static final HashFunction HASH = Hashing.murmur3_128();
+
+    private final String nodeId;
+    private final NettyServerProperties.Presence config;
+    private final StringRedisTemplate redisTemplate;
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final ScheduledExecutorService scheduler;
+
+    // 用户 -> 本节点上的连接数
+    private final ConcurrentHashMap<String, Integer> sessions = new ConcurrentHashMap<>();
+    private final LongAdder connections = new LongAdder();
+
+    // 当前窗口内出现过的用户，访问时对其加锁
+    private HyperLogLog window;
+    private long windowStartMillis;
+
+    private volatile PresenceSnapshot snapshot;
+
+    /**
+     * @param redisTemplate 为null时只统计本节点
+     */
+    public PresenceService(String nodeId, NettyServerProperties.Presence config, StringRedisTemplate redisTemplate) {
+        this.nodeId = nodeId;
+        this.config = config;
+        this.redisTemplate = redisTemplate;
+        this.window = new HyperLogLog(config.getPrecision());
+        this.windowStartMillis = System.currentTimeMillis();
+        this.snapshot = localSnapshot(window.copy());
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(new DefaultThreadFactory("presence", true));
+        scheduler.scheduleWithFixedDelay(this::refresh, config.getPublishIntervalMillis(),
+                config.getPublishIntervalMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 用户的一个连接上线
+     */
+    public void online(String userId) {
+        connections.increment();
+        if (userId == null) {
+            return;
+        }
+        sessions.merge(userId, 1, Integer::sum);
+        long hash = HASH.hashString(userId, StandardCharsets.UTF_8).asLong();
+        synchronized (this) {
+            window.add(hash);
+        }
+    }
+
+    /**
+     * 用户的一个连接下线，最后一个连接断开时用户离线
+     */
+    public void offline(String userId) {
+        connections.decrement();
+        if (userId != null) {
+            sessions.computeIfPresent(userId, (user, count) -> count == 1 ? null : count - 1);
+        }
+    }
+
+    /**
+     * 用户是否在本节点在线
+     */
+    public boolean isOnline(String userId) {
+        return sessions.containsKey(userId);
+    }
+
+    public long getLocalConnections() {
+        return connections.sum();
+    }
+
+    public long getLocalUsers() {
+        return sessions.mappingCount();
+    }
+
+    /**
+     * 最近一次汇总的快照
+     */
+    public PresenceSnapshot getSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * 定时任务：必要时切换窗口，发布本节点数据并汇总集群快照
+     */
+    private void refresh() {
+        try {
+            HyperLogLog sketch = rotateWindowIfNeeded();
+            if (redisTemplate == null) {
+                snapshot = localSnapshot(sketch);
+                return;
+            }
+            publish(sketch);
+            snapshot = aggregate();
+        } catch (Exception e) {
+            log.error("刷新在线状态失败", e);
+        }
+    }
+
+    private HyperLogLog rotateWindowIfNeeded() {
+        long now = System.currentTimeMillis();
+        synchronized (this) {
+            if (now - windowStartMillis < TimeUnit.SECONDS.toMillis(config.getWindowSeconds())) {
+                return window.copy();
+            }
+            // 先切换，之后上线的用户直接写入新窗口
+            window = new HyperLogLog(config.getPrecision());
+            windowStartMillis = now;
+        }
+
+        // 新窗口还要包含仍然在线的用户，在锁外计算后合并
+        HyperLogLog online = new HyperLogLog(config.getPrecision());
+        for (String userId : sessions.keySet()) {
+            online.add(HASH.hashString(userId, StandardCharsets.UTF_8).asLong());
+        }
+        synchronized (this) {
+            window.merge(online);
+            return window.copy();
+        }
+    }
+
+    private void publish(HyperLogLog sketch) throws Exception {
+        NodePresence node = new NodePresence();
+        node.setNode(nodeId);
+        node.setConnections(getLocalConnections());
+        node.setUsers(getLocalUsers());
+        node.setSketch(sketch.toBytes());
+        node.setUpdatedAt(System.currentTimeMillis());
+        redisTemplate.opsForHash().put(PRESENCE_NODES, nodeId, mapper.writeValueAsString(node));
+    }
+
+    private PresenceSnapshot aggregate() throws Exception {
+        Map<Object, Object> entries = redisTemplate.opsForHash().entries(PRESENCE_NODES);
+        long now = System.currentTimeMillis();
+        long staleAfter = config.getPublishIntervalMillis() * 3;
+
+        PresenceSnapshot result = new PresenceSnapshot();
+        result.setNode(nodeId);
+        result.setLocalConnections(getLocalConnections());
+        result.setLocalUsers(getLocalUsers());
+        result.setWindowSeconds(config.getWindowSeconds());
+
+        HyperLogLog merged = new HyperLogLog(config.getPrecision());
+        for (Map.Entry<Object, Object> entry : entries.entrySet()) {
+            NodePresence node = mapper.readValue(entry.getValue().toString(), NodePresence.class);
+            if (now - node.getUpdatedAt() > staleAfter) {
+                // 超过三个周期没有更新的节点视为已下线，顺手清理
+                redisTemplate.opsForHash().delete(PRESENCE_NODES, entry.getKey());
+                continue;
+            }
+            result.setClusterNodes(result.getClusterNodes() + 1);
+            result.setClusterConnections(result.getClusterConnections() + node.getConnections());
+            result.setClusterUsers(result.getClusterUsers() + node.getUsers());
+            HyperLogLog sketch = HyperLogLog.fromBytes(node.getSketch());
+            if (sketch.getPrecision() == merged.getPrecision()) {
+                merged.merge(sketch);
+            }
+        }
+        result.setDistinctUsers(merged.cardinality());
+        result.setUpdatedAt(now);
+        return result;
+    }
+
+    private PresenceSnapshot localSnapshot(HyperLogLog sketch) {
+        PresenceSnapshot result = new PresenceSnapshot();
+        result.setNode(nodeId);
+        result.setLocalConnections(getLocalConnections());
+        result.setLocalUsers(getLocalUsers());
+        result.setClusterNodes(1);
+        result.setClusterConnections(result.getLocalConnections());
+        result.setClusterUsers(result.getLocalUsers());
+        result.setDistinctUsers(sketch.cardinality());
+        result.setWindowSeconds(config.getWindowSeconds());
+        result.setUpdatedAt(System.currentTimeMillis());
+        return result;
+    }
+
+    public void shutdown() {
+        scheduler.shutdownNow();
+        if (redisTemplate != null) {
+            try {
+                redisTemplate.opsForHash().delete(PRESENCE_NODES, nodeId);
+            } catch (Exception e) {
+                log.warn("清理节点在线数据失败: {}", nodeId, e);
+            }
+        }
+    }
+
+    /**
+     * 单个节点写入Redis的数据
+     */
+    @Data
+    public static class NodePresence {
+        private String node;
+        private long connections;
+        private long users;
+        // HyperLogLog寄存器，JSON中为base64
+        private byte[] sketch;
+        private long updatedAt;
+    }
+
+    /**
+     * 在线统计快照
+     * clusterUsers是各节点在线用户数之和，同一用户连在多个节点上会重复计算；
+     * distinctUsers是统计窗口内出现过的不同用户数的估计值
+     */
+    @Data
+    public static class PresenceSnapshot {
+        private String node;
+        private long localConnections;
+        private long localUsers;
+        private int clusterNodes;
+        private long clusterConnections;
+        private long clusterUsers;
+        private long distinctUsers;
+        private long windowSeconds;
+        private long updatedAt;
+    }
+}
@@ -0,0 +1,348 @@
+package com.lyl.demoChatRoom.search;
+
+import com.google.common.hash.Hashing;
+import com.google.common.io.BaseEncoding;
+import com.lyl.demoChatRoom.config.NettyServerProperties;
+import com.lyl.demoChatRoom.entity.ChatMessage;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 聊天记录全文检索，按会话分区的增量倒排索引
+ * 广播线程只把消息放进有界队列，由单独的索引线程写入内存表，写满或超时后落盘成段，
+ * 合并线程定期把相邻的小段合并；队列满时丢弃（计数），不阻塞广播。
+ * 查询同时包含所有词的消息，从新到旧分页；段是内存映射的，查询本身不做文件读写调用，
+ * 但首次查询一个会话时要打开分区，searchAsync在单独的查询线程池上执行。
+ * 内存表中尚未落盘的消息在进程崩溃时丢失，正常关闭时会写盘。
+ * 会话ID来自客户端，过长或含控制字符的不索引；打开的分区数超过上限时由索引线程关闭最久未用的，
+ * 索引目录下的会话数达到上限后新会话不再索引
+ */
+public class ChatSearchIndex {
+
+    private static final Logger log = LoggerFactory.getLogger(ChatSearchIndex.class);
+
+    // 会话ID编码后超过该长度时目录名改用哈希
+    private static final int MAX_DIRECTORY_NAME = 120;
+    // 可索引的会话ID最大长度（含租户前缀）
+    private static final int MAX_CONVERSATION_ID = 256;
+
+    private final NettyServerProperties.Search config;
+    private final Path root;
+    private final Map<String, ConversationIndex> partitions = new ConcurrentHashMap<>();
+    private final BlockingQueue<Pending> queue;
+    private final Thread indexer;
+    private final ScheduledExecutorService merger;
+    private final ExecutorService searcher;
+    private volatile boolean running = true;
+
+    private final LongAdder indexed = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder flushes = new LongAdder();
+    private final LongAdder merges = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder closedPartitions = new LongAdder();
+    // 索引目录下的会话数，只在索引线程上修改
+    private volatile int conversations;
+
+    public ChatSearchIndex(NettyServerProperties.Search config) {
+        this.config = config;
+        this.root = Paths.get(config.getDirectory());
+        this.queue = new ArrayBlockingQueue<>(config.getQueueCapacity());
+        this.conversations = countConversations(root);
+        this.indexer = new DefaultThreadFactory("search-indexer", true).newThread(this::runIndexer);
+        indexer.start();
+        this.merger = Executors.newSingleThreadScheduledExecutor(new DefaultThreadFactory("search-merge", true));
+        merger.scheduleWithFixedDelay(this::mergeAll, config.getMergeIntervalMillis(),
+                config.getMergeIntervalMillis(), TimeUnit.MILLISECONDS);
+        this.searcher = new ThreadPoolExecutor(config.getSearchThreads(), config.getSearchThreads(),
+                0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(config.getSearchQueueCapacity()),
+                new DefaultThreadFactory("search-query", true));
+    }
+
+    /**
+     * 提交一条已分配序号的消息，不阻塞；队列满或内容为空时不索引
+     */
+    public void offer(String conversationId, ChatMessage message) {
+        if (message.getContent() == null || message.getContent().isEmpty() || message.getSeq() == null) {
+            return;
+        }
+        if (!isValidConversationId(conversationId)) {
+            rejected.increment();
+            return;
+        }
+        Pending pending = new Pending(conversationId, message.getSeq(), System.currentTimeMillis(),
+                message.getUser(), message.getContent());
+        if (!queue.offer(pending)) {
+            dropped.increment();
+        }
+    }
+
+    /**
+     * 在会话中查询同时包含所有词的消息
+     * @param before 只返回文档号小于该值的消息，为null时从最新的开始
+     * @param limit  为null时使用默认条数，超过上限时截断
+     * @return conversationId, query, hits, next（还有更早的结果时为下一页的before，否则为null）
+     * @throws IllegalArgumentException 查询中没有可搜索的词
+     */
+    public Map<String, Object> search(String conversationId, String query, Long before, Integer limit) {
+        if (!isValidConversationId(conversationId)) {
+            throw new IllegalArgumentException("会话ID不合法");
+        }
+        Set<String> terms = Tokenizer.queryTerms(query);
+        if (terms.isEmpty()) {
+            throw new IllegalArgumentException("查询中没有可搜索的词");
+        }
+        int size = limit == null ? config.getDefaultLimit() : Math.max(1, Math.min(limit, config.getMaxLimit()));
+        ConversationIndex partition = existingPartition(conversationId);
+        List<SearchHit> hits = partition == null ? Collections.emptyList()
+                : partition.search(terms, before == null ? Long.MAX_VALUE : before, size);
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("conversationId", conversationId);
+        result.put("query", query);
+        result.put("hits", hits);
+        result.put("next", hits.size() == size ? hits.get(hits.size() - 1).getDocId() : null);
+        return result;
+    }
+
+    /**
+     * 在查询线程池上执行search，排队已满时以RejectedExecutionException失败
+     */
+    public CompletableFuture<Map<String, Object>> searchAsync(String conversationId, String query, Long before,
+                                                             Integer limit) {
+        try {
+            return CompletableFuture.supplyAsync(() -> search(conversationId, query, before, limit), searcher);
+        } catch (RejectedExecutionException e) {
+            CompletableFuture<Map<String, Object>> rejected = new CompletableFuture<>();
+            rejected.completeExceptionally(e);
+            return rejected;
+        }
+    }
+
+    /**
+     * 索引状态和累计计数，供/api/search/stats使用
+     */
+    public Map<String, Object> getSnapshot() {
+        long docs = 0;
+        long segments = 0;
+        long bytes = 0;
+        for (ConversationIndex partition : partitions.values()) {
+            docs += partition.getDocCount();
+            segments += partition.getSegmentCount();
+            bytes += partition.getSizeBytes();
+        }
+        Map<String, Object> snapshot = new LinkedHashMap<>();
+        snapshot.put("conversations", conversations);
+        snapshot.put("openPartitions", partitions.size());
+        snapshot.put("documents", docs);
+        snapshot.put("segments", segments);
+        snapshot.put("segmentBytes", bytes);
+        snapshot.put("queued", queue.size());
+        snapshot.put("indexed", indexed.sum());
+        snapshot.put("dropped", dropped.sum());
+        snapshot.put("flushes", flushes.sum());
+        snapshot.put("merges", merges.sum());
+        snapshot.put("closedPartitions", closedPartitions.sum());
+        snapshot.put("rejected", rejected.sum());
+        return snapshot;
+    }
+
+    /**
+     * 停止索引，队列中剩余的消息写完并把所有内存表落盘
+     */
+    public void shutdown() {
+        running = false;
+        merger.shutdownNow();
+        searcher.shutdownNow();
+        try {
+            indexer.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void runIndexer() {
+        long maxAgeNanos = TimeUnit.MILLISECONDS.toNanos(config.getFlushIntervalMillis());
+        long checkMillis = Math.max(1, Math.min(config.getFlushIntervalMillis(), 1000));
+        List<Pending> batch = new ArrayList<>();
+        while (running || !queue.isEmpty()) {
+            try {
+                Pending first = queue.poll(checkMillis, TimeUnit.MILLISECONDS);
+                if (first != null) {
+                    batch.add(first);
+                    queue.drainTo(batch, 1023);
+                    for (Pending pending : batch) {
+                        index(pending);
+                    }
+                    batch.clear();
+                }
+            } catch (InterruptedException e) {
+                break;
+            }
+            for (ConversationIndex partition : partitions.values()) {
+                try {
+                    if (partition.flushIfNeeded(config.getFlushDocs(), maxAgeNanos)) {
+                        flushes.increment();
+                    }
+                } catch (IOException e) {
+                    log.error("索引段写入失败", e);
+                }
+            }
+            closeIdlePartitions();
+        }
+
+        for (ConversationIndex partition : partitions.values()) {
+            try {
+                if (partition.flush()) {
+                    flushes.increment();
+                }
+            } catch (IOException e) {
+                log.error("关闭时索引段写入失败", e);
+            }
+        }
+        log.info("检索索引已关闭，累计索引 {} 条，丢弃 {} 条", indexed.sum(), dropped.sum());
+    }
+
+    private void index(Pending pending) {
+        try {
+            if (!partitions.containsKey(pending.conversationId)
+                    && !Files.isDirectory(directory(pending.conversationId))) {
+                // 新会话，索引后会建目录
+                if (conversations >= config.getMaxConversations()) {
+                    rejected.increment();
+                    return;
+                }
+                conversations++;
+            }
+            partition(pending.conversationId).add(pending.seq, pending.timestamp, pending.user, pending.content);
+            indexed.increment();
+        } catch (RuntimeException e) {
+            dropped.increment();
+            log.error("消息索引失败: {}", pending.conversationId, e);
+        }
+    }
+
+    /**
+     * 打开的分区超过上限时，按最近使用时间关闭最旧的；正在合并的分区跳过，下一轮再关
+     */
+    private void closeIdlePartitions() {
+        int excess = partitions.size() - config.getMaxOpenPartitions();
+        if (excess <= 0) {
+            return;
+        }
+        List<Map.Entry<String, ConversationIndex>> open = new ArrayList<>(partitions.entrySet());
+        open.sort(Comparator.comparingLong(entry -> entry.getValue().getLastUsedNanos()));
+        for (Map.Entry<String, ConversationIndex> entry : open) {
+            if (excess <= 0) {
+                break;
+            }
+            try {
+                if (entry.getValue().tryClose()) {
+                    partitions.remove(entry.getKey(), entry.getValue());
+                    closedPartitions.increment();
+                    excess--;
+                }
+            } catch (IOException e) {
+                log.error("关闭索引分区时写入失败: {}", entry.getKey(), e);
+            }
+        }
+    }
+
+    private void mergeAll() {
+        for (ConversationIndex partition : partitions.values()) {
+            try {
+                while (running && partition.maybeMerge(config.getMergeFactor(), config.getMaxSegments())) {
+                    merges.increment();
+                }
+            } catch (IOException e) {
+                log.error("索引段合并失败", e);
+            }
+        }
+    }
+
+    private ConversationIndex partition(String conversationId) {
+        return partitions.computeIfAbsent(conversationId, id -> {
+            try {
+                return ConversationIndex.open(id, directory(id));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    /**
+     * 查询不为没有索引过的会话创建分区
+     */
+    private ConversationIndex existingPartition(String conversationId) {
+        ConversationIndex partition = partitions.get(conversationId);
+        if (partition == null && Files.isDirectory(directory(conversationId))) {
+            partition = partition(conversationId);
+        }
+        return partition;
+    }
+
+    private static boolean isValidConversationId(String conversationId) {
+        if (conversationId == null || conversationId.isEmpty() || conversationId.length() > MAX_CONVERSATION_ID) {
+            return false;
+        }
+        for (int i = 0; i < conversationId.length(); i++) {
+            if (Character.isISOControl(conversationId.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int countConversations(Path root) {
+        if (!Files.isDirectory(root)) {
+            return 0;
+        }
+        int count = 0;
+        try (DirectoryStream<Path> children = Files.newDirectoryStream(root, Files::isDirectory)) {
+            for (Path ignored : children) {
+                count++;
+            }
+        } catch (IOException e) {
+            log.warn("统计索引目录失败: {}", root, e);
+        }
+        return count;
+    }
+
+    private Path directory(String conversationId) {
+        byte[] bytes = conversationId.getBytes(StandardCharsets.UTF_8);
+        String name = BaseEncoding.base16().lowerCase().encode(bytes);
+        if (name.length() > MAX_DIRECTORY_NAME) {
+            // 十六进制编码不含x，不会与直接编码的目录重名
+            name = "x" + Hashing.murmur3_128().hashBytes(bytes);
+        }
+        return root.resolve(name);
+    }
+
+    private static final class Pending {
+        final String conversationId;
+        final long seq;
+        final long timestamp;
+        final String user;
+        final String content;
+
+        Pending(String conversationId, long seq, long timestamp, String user, String content) {
+            this.conversationId = conversationId;
+            this.seq = seq;
+            this.timestamp = timestamp;
+            this.user = user;
+            this.content = content;
+        }
+    }
+}
@@ -0,0 +1,400 @@
+package com.lyl.demoChatRoom.search;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 单个会话的索引：内存中正在写入的表 + 磁盘上按文档号排列的若干段
+ * 新消息先进内存表，写满或超时后整体写成一个段；段数过多时后台把相邻的小段合并。
+ * 写入（add/flush）只在索引线程上调用，合并只在合并线程上调用，查询可在任意线程；
+ * 三者只在交换引用时加锁，写段和合并的IO都在锁外。
+ * 分区过多时索引线程把不常用的分区关闭：关闭与合并互斥，关闭后不再合并，之后同一目录可以重新打开
+ */
+class ConversationIndex {
+
+    private static final Logger log = LoggerFactory.getLogger(ConversationIndex.class);
+
+    private static final String SEGMENT_PREFIX = "seg-";
+    private static final String SEGMENT_SUFFIX = ".idx";
+
+    private final String conversationId;
+    private final Path directory;
+    private final AtomicLong generation = new AtomicLong();
+    // 合并与关闭互斥，closed只在持有时读写
+    private final ReentrantLock maintenance = new ReentrantLock();
+    private boolean closed;
+    private volatile long lastUsedNanos = System.nanoTime();
+
+    // 以下三个字段的替换都在this上加锁，读取时在锁内一起取出保证一致
+    private List<Segment> segments;
+    private MemTable active;
+    // 正在写盘（或上次写盘失败）的内存表，写完之前仍参与查询
+    private MemTable frozen;
+
+    private ConversationIndex(String conversationId, Path directory, List<Segment> segments, long nextDoc,
+                              long nextGeneration) {
+        this.conversationId = conversationId;
+        this.directory = directory;
+        this.segments = Collections.unmodifiableList(segments);
+        this.active = new MemTable(nextDoc);
+        this.generation.set(nextGeneration);
+    }
+
+    /**
+     * 打开会话索引目录，目录不存在时为空索引
+     * 合并后崩溃可能留下被新段完全覆盖的旧段，打开时删除
+     */
+    static ConversationIndex open(String conversationId, Path directory) throws IOException {
+        List<Segment> found = new ArrayList<>();
+        long maxGeneration = 0;
+        if (Files.isDirectory(directory)) {
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+                for (Path file : files) {
+                    String name = file.getFileName().toString();
+                    if (name.endsWith(".tmp")) {
+                        Files.deleteIfExists(file);
+                    } else if (name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX)) {
+                        maxGeneration = Math.max(maxGeneration, Long.parseLong(
+                                name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()), 16));
+                        found.add(Segment.open(file));
+                    }
+                }
+            }
+        }
+
+        found.sort(Comparator.comparingLong(Segment::getBaseDoc)
+                .thenComparing(Comparator.comparingInt(Segment::getDocCount).reversed()));
+        List<Segment> segments = new ArrayList<>();
+        long nextDoc = 0;
+        for (Segment segment : found) {
+            if (segment.getBaseDoc() + segment.getDocCount() <= nextDoc) {
+                Files.deleteIfExists(segment.getFile());
+                continue;
+            }
+            if (segment.getBaseDoc() != nextDoc) {
+                log.warn("会话 {} 的索引段不连续: {}, 期望文档号 {}", conversationId, segment.getFile(), nextDoc);
+            }
+            segments.add(segment);
+            nextDoc = segment.getBaseDoc() + segment.getDocCount();
+        }
+        return new ConversationIndex(conversationId, directory, segments, nextDoc, maxGeneration + 1);
+    }
+
+    /**
+     * 写入一条消息，只在索引线程上调用
+     */
+    void add(long seq, long timestamp, String user, String content) {
+        lastUsedNanos = System.nanoTime();
+        Set<String> terms = Tokenizer.indexTerms(content);
+        byte[] record = Segment.encodeRecord(seq, timestamp, user, content);
+        MemTable table;
+        synchronized (this) {
+            table = active;
+        }
+        table.add(record, terms);
+    }
+
+    /**
+     * 内存表达到文档数或存在时间上限时写成段，只在索引线程上调用
+     * @return 是否写了新段
+     */
+    boolean flushIfNeeded(int maxDocs, long maxAgeNanos) throws IOException {
+        MemTable table;
+        MemTable pending;
+        synchronized (this) {
+            table = active;
+            pending = frozen;
+        }
+        if (pending == null && (table.size() == 0
+                || (table.size() < maxDocs && System.nanoTime() - table.createdNanos < maxAgeNanos))) {
+            return false;
+        }
+        return flush();
+    }
+
+    /**
+     * 把内存表写成段，只在索引线程上调用
+     */
+    boolean flush() throws IOException {
+        MemTable table;
+        synchronized (this) {
+            if (frozen == null) {
+                if (active.size() == 0) {
+                    return false;
+                }
+                frozen = active;
+                active = new MemTable(frozen.baseDoc + frozen.size());
+            }
+            table = frozen;
+        }
+        Files.createDirectories(directory);
+        // 写失败时frozen保留，仍可查询，下次flush重试
+        Segment segment = table.write(nextFile());
+        synchronized (this) {
+            List<Segment> next = new ArrayList<>(segments);
+            next.add(segment);
+            segments = Collections.unmodifiableList(next);
+            frozen = null;
+        }
+        return true;
+    }
+
+    /**
+     * 段数超过上限时，选文档数之和最小的相邻mergeFactor个段合并成一个，只在合并线程上调用
+     * @return 是否做了合并
+     */
+    boolean maybeMerge(int mergeFactor, int maxSegments) throws IOException {
+        maintenance.lock();
+        try {
+            return !closed && mergeOnce(mergeFactor, maxSegments);
+        } finally {
+            maintenance.unlock();
+        }
+    }
+
+    private boolean mergeOnce(int mergeFactor, int maxSegments) throws IOException {
+        List<Segment> current;
+        synchronized (this) {
+            current = segments;
+        }
+        int factor = Math.min(Math.max(2, mergeFactor), current.size());
+        if (current.size() <= maxSegments || factor < 2) {
+            return false;
+        }
+
+        int best = 0;
+        long bestDocs = Long.MAX_VALUE;
+        for (int start = 0; start + factor <= current.size(); start++) {
+            long docs = 0;
+            for (int i = start; i < start + factor; i++) {
+                docs += current.get(i).getDocCount();
+            }
+            if (docs < bestDocs) {
+                bestDocs = docs;
+                best = start;
+            }
+        }
+        List<Segment> run = new ArrayList<>(current.subList(best, best + factor));
+        Segment merged = Segment.merge(nextFile(), run);
+
+        synchronized (this) {
+            // 合并期间只会在末尾追加新段，被合并的段仍然相邻
+            List<Segment> next = new ArrayList<>(segments);
+            int at = next.indexOf(run.get(0));
+            next.subList(at, at + run.size()).clear();
+            next.add(at, merged);
+            segments = Collections.unmodifiableList(next);
+        }
+        // 正在进行的查询仍持有旧段的映射，删除文件不影响它们读取
+        for (Segment segment : run) {
+            try {
+                Files.deleteIfExists(segment.getFile());
+            } catch (IOException e) {
+                log.warn("删除已合并的索引段失败: {}", segment.getFile(), e);
+            }
+        }
+        log.debug("会话 {} 合并了 {} 个索引段, 文档 {}", conversationId, run.size(), merged.getDocCount());
+        return true;
+    }
+
+    /**
+     * 查询同时包含所有词的消息，从新到旧返回文档号小于before的最多limit条
+     */
+    List<SearchHit> search(Collection<String> terms, long before, int limit) {
+        lastUsedNanos = System.nanoTime();
+        List<Segment> segmentsSnapshot;
+        MemTable activeSnapshot;
+        MemTable frozenSnapshot;
+        synchronized (this) {
+            segmentsSnapshot = segments;
+            activeSnapshot = active;
+            frozenSnapshot = frozen;
+        }
+
+        List<SearchHit> hits = new ArrayList<>();
+        collect(activeSnapshot, terms, before, limit, hits);
+        if (frozenSnapshot != null) {
+            collect(frozenSnapshot, terms, before, limit, hits);
+        }
+        for (int i = segmentsSnapshot.size() - 1; i >= 0; i--) {
+            collect(segmentsSnapshot.get(i), terms, before, limit, hits);
+        }
+        return hits;
+    }
+
+    private static void collect(Source source, Collection<String> terms, long before, int limit, List<SearchHit> hits) {
+        if (hits.size() >= limit || source.getBaseDoc() >= before) {
+            return;
+        }
+        List<int[]> lists = new ArrayList<>(terms.size());
+        for (String term : terms) {
+            int[] postings = source.postings(term);
+            if (postings == null) {
+                return;
+            }
+            lists.add(postings);
+        }
+        // 从最短的倒排表开始求交集
+        lists.sort(Comparator.comparingInt(list -> list.length));
+        int[] matched = lists.get(0);
+        for (int i = 1; i < lists.size() && matched.length > 0; i++) {
+            matched = intersect(matched, lists.get(i));
+        }
+        for (int i = matched.length - 1; i >= 0 && hits.size() < limit; i--) {
+            if (source.getBaseDoc() + matched[i] < before) {
+                hits.add(source.doc(matched[i]));
+            }
+        }
+    }
+
+    private static int[] intersect(int[] a, int[] b) {
+        int[] result = new int[Math.min(a.length, b.length)];
+        int i = 0;
+        int j = 0;
+        int n = 0;
+        while (i < a.length && j < b.length) {
+            if (a[i] < b[j]) {
+                i++;
+            } else if (a[i] > b[j]) {
+                j++;
+            } else {
+                result[n++] = a[i];
+                i++;
+                j++;
+            }
+        }
+        return Arrays.copyOf(result, n);
+    }
+
+    private Path nextFile() {
+        return directory.resolve(String.format("%s%016x%s", SEGMENT_PREFIX, generation.getAndIncrement(),
+                SEGMENT_SUFFIX));
+    }
+
+    /**
+     * 内存表落盘后关闭，只在索引线程上调用；正在合并时不等待，返回false
+     * 关闭后仍可查询（已取到引用的查询），但不会再写入或合并
+     */
+    boolean tryClose() throws IOException {
+        if (!maintenance.tryLock()) {
+            return false;
+        }
+        try {
+            flush();
+            closed = true;
+            return true;
+        } finally {
+            maintenance.unlock();
+        }
+    }
+
+    long getLastUsedNanos() {
+        return lastUsedNanos;
+    }
+
+    synchronized int getSegmentCount() {
+        return segments.size();
+    }
+
+    /**
+     * 已写入的文档总数（含内存表）
+     */
+    synchronized long getDocCount() {
+        return active.baseDoc + active.size();
+    }
+
+    synchronized long getSizeBytes() {
+        long bytes = 0;
+        for (Segment segment : segments) {
+            bytes += segment.getSizeBytes();
+        }
+        return bytes;
+    }
+
+    /**
+     * 可查询的文档集合：磁盘段或内存表
+     */
+    interface Source {
+        long getBaseDoc();
+
+        /**
+         * 词的倒排表（从0开始的文档号，升序），词不存在时返回null
+         */
+        int[] postings(String term);
+
+        SearchHit doc(int doc);
+    }
+
+    /**
+     * 内存中的索引表，写满后整体写成段
+     */
+    private static final class MemTable implements Source {
+        final long baseDoc;
+        final long createdNanos = System.nanoTime();
+        private final List<byte[]> records = new ArrayList<>();
+        private final Map<String, DocList> postings = new HashMap<>();
+
+        MemTable(long baseDoc) {
+            this.baseDoc = baseDoc;
+        }
+
+        synchronized void add(byte[] record, Set<String> terms) {
+            int doc = records.size();
+            records.add(record);
+            for (String term : terms) {
+                postings.computeIfAbsent(term, t -> new DocList()).add(doc);
+            }
+        }
+
+        synchronized int size() {
+            return records.size();
+        }
+
+        @Override
+        public long getBaseDoc() {
+            return baseDoc;
+        }
+
+        @Override
+        public synchronized int[] postings(String term) {
+            DocList list = postings.get(term);
+            return list != null ? Arrays.copyOf(list.docs, list.size) : null;
+        }
+
+        @Override
+        public synchronized SearchHit doc(int doc) {
+            return Segment.decodeRecord(ByteBuffer.wrap(records.get(doc)), baseDoc + doc);
+        }
+
+        synchronized Segment write(Path file) throws IOException {
+            List<ByteBuffer> buffers = new ArrayList<>(records.size());
+            for (byte[] record : records) {
+                buffers.add(ByteBuffer.wrap(record));
+            }
+            SortedMap<String, int[]> sorted = new TreeMap<>();
+            postings.forEach((term, list) -> sorted.put(term, Arrays.copyOf(list.docs, list.size)));
+            return Segment.write(file, baseDoc, buffers, sorted.entrySet().iterator());
+        }
+    }
+
+    private static final class DocList {
+        int[] docs = new int[4];
+        int size;
+
+        void add(int doc) {
+            if (size == docs.length) {
+                docs = Arrays.copyOf(docs, size * 2);
+            }
+            docs[size++] = doc;
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package com.lyl.demoChatRoom.search;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * 一条搜索结果
+ */
+@Data
+@AllArgsConstructor
+public class SearchHit {
+    /**
+     * 会话索引内的文档号，按写入顺序递增，翻页时作为before参数
+     */
+    private long docId;
+    /**
+     * 消息在会话中的序号（服务重启后序号会重新开始，文档号不会）
+     */
+    private long seq;
+    private String user;
+    private String content;
+    /**
+     * 服务端收到消息的时间，毫秒
+     */
+    private long timestamp;
+}
@@ -0,0 +1,327 @@
+package com.lyl.demoChatRoom.search;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * 磁盘上的不可变索引段，内存映射读取
+ * 段内文档号从0开始连续编号，加上baseDoc即会话内的文档号。
+ * 倒排表只记文档号：第一个写原值，之后写与前一个的差，都用varint编码，常见词每个文档只占1字节。
+ *
+ * 文件格式（大端）：
+ * <pre>
+ * 头部 40字节: magic int | version int | baseDoc long | 文档数 int | 词数 int | 词典偏移 long | 文档区偏移 long
+ * 倒排区:      [varint...]...
+ * 词典:        按词排序 [长度 short, UTF-8, 倒排偏移 int, 倒排长度 int, 文档频率 int]...
+ * 文档区:      记录偏移 int[文档数] | [seq long, 时间 long, 用户长度 int(-1表示null), UTF-8, 内容长度 int, UTF-8]...
+ * </pre>
+ * 写入时先写临时文件再原子替换，不会出现写了一半的段
+ */
+final class Segment implements ConversationIndex.Source {
+
+    private static final int MAGIC = 0x43485349; // "CHSI"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 40;
+
+    private final Path file;
+    private final MappedByteBuffer buffer;
+    private final long baseDoc;
+    private final int docCount;
+    private final int storeOffset;
+    // 词典常驻内存，按词二分查找
+    private final String[] terms;
+    private final int[] postingsOffsets;
+    private final int[] postingsLengths;
+    private final int[] docFreqs;
+
+    private Segment(Path file, MappedByteBuffer buffer) throws IOException {
+        this.file = file;
+        this.buffer = buffer;
+        if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+            throw new IOException("不是索引段文件: " + file);
+        }
+        if (buffer.getInt(4) != VERSION) {
+            throw new IOException("不支持的索引段版本: " + buffer.getInt(4));
+        }
+        this.baseDoc = buffer.getLong(8);
+        this.docCount = buffer.getInt(16);
+        int termCount = buffer.getInt(20);
+        long dictOffset = buffer.getLong(24);
+        long store = buffer.getLong(32);
+        if (dictOffset > store || store + 4L * docCount > buffer.capacity()) {
+            throw new IOException("索引段长度不符: " + file);
+        }
+        this.storeOffset = (int) store;
+
+        this.terms = new String[termCount];
+        this.postingsOffsets = new int[termCount];
+        this.postingsLengths = new int[termCount];
+        this.docFreqs = new int[termCount];
+        ByteBuffer dict = slice(buffer, (int) dictOffset, storeOffset - (int) dictOffset);
+        for (int i = 0; i < termCount; i++) {
+            byte[] bytes = new byte[dict.getShort() & 0xFFFF];
+            dict.get(bytes);
+            terms[i] = new String(bytes, StandardCharsets.UTF_8);
+            postingsOffsets[i] = dict.getInt();
+            postingsLengths[i] = dict.getInt();
+            docFreqs[i] = dict.getInt();
+        }
+    }
+
+    static Segment open(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            // 映射在通道关闭后仍然有效
+            return new Segment(file, channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /**
+     * 写一个新段并打开
+     * @param records  按文档号排列的文档记录，见encodeRecord
+     * @param postings 按词排序的 词 -> 段内文档号（升序）
+     */
+    static Segment write(Path file, long baseDoc, List<ByteBuffer> records,
+                         Iterator<Map.Entry<String, int[]>> postings) throws IOException {
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            channel.position(HEADER_SIZE);
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), 65536));
+
+            List<byte[]> termBytes = new ArrayList<>();
+            List<int[]> termMeta = new ArrayList<>();
+            while (postings.hasNext()) {
+                Map.Entry<String, int[]> entry = postings.next();
+                byte[] bytes = entry.getKey().getBytes(StandardCharsets.UTF_8);
+                if (bytes.length > 0xFFFF) {
+                    continue;
+                }
+                int start = position(out);
+                int previous = 0;
+                for (int doc : entry.getValue()) {
+                    writeVarint(out, doc - previous);
+                    previous = doc;
+                }
+                termBytes.add(bytes);
+                termMeta.add(new int[]{start, position(out) - start, entry.getValue().length});
+            }
+
+            long dictOffset = position(out);
+            for (int i = 0; i < termBytes.size(); i++) {
+                out.writeShort(termBytes.get(i).length);
+                out.write(termBytes.get(i));
+                out.writeInt(termMeta.get(i)[0]);
+                out.writeInt(termMeta.get(i)[1]);
+                out.writeInt(termMeta.get(i)[2]);
+            }
+
+            long storeOffset = position(out);
+            long recordOffset = storeOffset + 4L * records.size();
+            for (ByteBuffer record : records) {
+                if (recordOffset > Integer.MAX_VALUE) {
+                    throw new IOException("索引段超过2GB: " + file);
+                }
+                out.writeInt((int) recordOffset);
+                recordOffset += record.remaining();
+            }
+            byte[] copy = new byte[4096];
+            for (ByteBuffer record : records) {
+                if (record.hasArray()) {
+                    out.write(record.array(), record.arrayOffset() + record.position(), record.remaining());
+                } else {
+                    ByteBuffer source = record.duplicate();
+                    while (source.hasRemaining()) {
+                        int n = Math.min(copy.length, source.remaining());
+                        source.get(copy, 0, n);
+                        out.write(copy, 0, n);
+                    }
+                }
+            }
+            out.flush();
+            if (HEADER_SIZE + (long) out.size() > Integer.MAX_VALUE) {
+                throw new IOException("索引段超过2GB: " + file);
+            }
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putInt(VERSION).putLong(baseDoc).putInt(records.size()).putInt(termBytes.size())
+                    .putLong(dictOffset).putLong(storeOffset).flip();
+            while (header.hasRemaining()) {
+                channel.write(header, header.position());
+            }
+            channel.force(true);
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return open(file);
+    }
+
+    /**
+     * 合并相邻的段，文档号必须连续；文档记录原样复制，倒排表按偏移拼接
+     */
+    static Segment merge(Path file, List<Segment> run) throws IOException {
+        long base = run.get(0).baseDoc;
+        List<ByteBuffer> records = new ArrayList<>();
+        SortedSet<String> allTerms = new TreeSet<>();
+        for (Segment segment : run) {
+            for (int i = 0; i < segment.docCount; i++) {
+                records.add(segment.record(i));
+            }
+            Collections.addAll(allTerms, segment.terms);
+        }
+
+        Iterator<String> termIterator = allTerms.iterator();
+        Iterator<Map.Entry<String, int[]>> postings = new Iterator<Map.Entry<String, int[]>>() {
+            @Override
+            public boolean hasNext() {
+                return termIterator.hasNext();
+            }
+
+            @Override
+            public Map.Entry<String, int[]> next() {
+                String term = termIterator.next();
+                int total = 0;
+                int[][] parts = new int[run.size()][];
+                for (int s = 0; s < run.size(); s++) {
+                    parts[s] = run.get(s).postings(term);
+                    total += parts[s] != null ? parts[s].length : 0;
+                }
+                int[] merged = new int[total];
+                int n = 0;
+                for (int s = 0; s < run.size(); s++) {
+                    if (parts[s] == null) {
+                        continue;
+                    }
+                    int shift = (int) (run.get(s).baseDoc - base);
+                    for (int doc : parts[s]) {
+                        merged[n++] = doc + shift;
+                    }
+                }
+                return new AbstractMap.SimpleImmutableEntry<>(term, merged);
+            }
+        };
+        return write(file, base, records, postings);
+    }
+
+    @Override
+    public int[] postings(String term) {
+        int index = Arrays.binarySearch(terms, term);
+        if (index < 0) {
+            return null;
+        }
+        ByteBuffer data = slice(buffer, postingsOffsets[index], postingsLengths[index]);
+        int[] docs = new int[docFreqs[index]];
+        int previous = 0;
+        for (int i = 0; i < docs.length; i++) {
+            previous += readVarint(data);
+            docs[i] = previous;
+        }
+        return docs;
+    }
+
+    @Override
+    public SearchHit doc(int doc) {
+        return decodeRecord(record(doc), baseDoc + doc);
+    }
+
+    private ByteBuffer record(int doc) {
+        int start = buffer.getInt(storeOffset + 4 * doc);
+        int end = doc + 1 < docCount ? buffer.getInt(storeOffset + 4 * (doc + 1)) : buffer.capacity();
+        return slice(buffer, start, end - start);
+    }
+
+    @Override
+    public long getBaseDoc() {
+        return baseDoc;
+    }
+
+    int getDocCount() {
+        return docCount;
+    }
+
+    int getTermCount() {
+        return terms.length;
+    }
+
+    long getSizeBytes() {
+        return buffer.capacity();
+    }
+
+    Path getFile() {
+        return file;
+    }
+
+    static byte[] encodeRecord(long seq, long timestamp, String user, String content) {
+        byte[] userBytes = user != null ? user.getBytes(StandardCharsets.UTF_8) : null;
+        byte[] contentBytes = content.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer record = ByteBuffer.allocate(8 + 8 + 4 + (userBytes != null ? userBytes.length : 0)
+                + 4 + contentBytes.length);
+        record.putLong(seq).putLong(timestamp);
+        record.putInt(userBytes != null ? userBytes.length : -1);
+        if (userBytes != null) {
+            record.put(userBytes);
+        }
+        record.putInt(contentBytes.length).put(contentBytes);
+        return record.array();
+    }
+
+    static SearchHit decodeRecord(ByteBuffer record, long docId) {
+        ByteBuffer in = record.duplicate();
+        long seq = in.getLong();
+        long timestamp = in.getLong();
+        int userLength = in.getInt();
+        String user = userLength >= 0 ? string(in, userLength) : null;
+        String content = string(in, in.getInt());
+        return new SearchHit(docId, seq, user, content, timestamp);
+    }
+
+    private static String string(ByteBuffer in, int length) {
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static int position(DataOutputStream out) throws IOException {
+        // DataOutputStream.size()到Integer.MAX_VALUE为止，超过2GB的段不支持
+        if (out.size() >= Integer.MAX_VALUE - HEADER_SIZE) {
+            throw new IOException("索引段超过2GB");
+        }
+        return HEADER_SIZE + out.size();
+    }
+
+    private static void writeVarint(DataOutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    private static int readVarint(ByteBuffer in) {
+        int value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = in.get();
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while (b < 0);
+        return value;
+    }
+
+    private static ByteBuffer slice(ByteBuffer buffer, int offset, int length) {
+        ByteBuffer duplicate = buffer.duplicate();
+        duplicate.position(offset);
+        duplicate.limit(offset + length);
+        return duplicate.slice();
+    }
+}
@@ -0,0 +1,86 @@
+package com.lyl.demoChatRoom.search;
+
+import java.util.LinkedHashSet;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * 分词
+ * 字母数字连续的部分转小写后作为一个词；中日韩文字没有空格分隔，按单字和相邻两字切分。
+ * 查询时连续两个以上的中日韩文字只用两字词，单独一个字才用单字，
+ * 所以"聊天室"会匹配"聊天"和"天室"同时出现的消息
+ */
+final class Tokenizer {
+
+    // 超长的词（如粘贴的链接、编码）不进索引
+    static final int MAX_TERM_LENGTH = 64;
+
+    private Tokenizer() {
+    }
+
+    /**
+     * 建索引用的词，去重
+     */
+    static Set<String> indexTerms(String text) {
+        return tokenize(text, true);
+    }
+
+    /**
+     * 查询用的词，去重
+     */
+    static Set<String> queryTerms(String text) {
+        return tokenize(text, false);
+    }
+
+    private static Set<String> tokenize(String text, boolean index) {
+        Set<String> terms = new LinkedHashSet<>();
+        if (text == null) {
+            return terms;
+        }
+        int length = text.length();
+        int i = 0;
+        while (i < length) {
+            int cp = text.codePointAt(i);
+            if (isCjk(cp)) {
+                int start = i;
+                while (i < length && isCjk(text.codePointAt(i))) {
+                    i += Character.charCount(text.codePointAt(i));
+                }
+                cjkTerms(text.substring(start, i), index, terms);
+            } else if (Character.isLetterOrDigit(cp)) {
+                int start = i;
+                while (i < length) {
+                    int c = text.codePointAt(i);
+                    if (!Character.isLetterOrDigit(c) || isCjk(c)) {
+                        break;
+                    }
+                    i += Character.charCount(c);
+                }
+                if (i - start <= MAX_TERM_LENGTH) {
+                    terms.add(text.substring(start, i).toLowerCase(Locale.ROOT));
+                }
+            } else {
+                i += Character.charCount(cp);
+            }
+        }
+        return terms;
+    }
+
+    private static void cjkTerms(String run, boolean index, Set<String> terms) {
+        int[] cps = run.codePoints().toArray();
+        if (cps.length == 1 || index) {
+            for (int cp : cps) {
+                terms.add(new String(Character.toChars(cp)));
+            }
+        }
+        for (int i = 0; i + 1 < cps.length; i++) {
+            terms.add(new String(cps, i, 2));
+        }
+    }
+
+    private static boolean isCjk(int cp) {
+        Character.UnicodeScript script = Character.UnicodeScript.of(cp);
+        return script == Character.UnicodeScript.HAN || script == Character.UnicodeScript.HIRAGANA
+                || script == Character.UnicodeScript.KATAKANA || script == Character.UnicodeScript.HANGUL;
+    }
+}
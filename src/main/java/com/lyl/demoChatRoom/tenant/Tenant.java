@@ -0,0 +1,139 @@
+package com.lyl.demoChatRoom.tenant;
+
+import com.lyl.demoChatRoom.config.NettyServerProperties;
+import com.lyl.demoChatRoom.netty.ConversationSequencer;
+import com.lyl.demoChatRoom.netty.TokenBucket;
+import io.netty.channel.Channel;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.group.ChannelGroup;
+import io.netty.channel.group.DefaultChannelGroup;
+import io.netty.util.concurrent.GlobalEventExecutor;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 一个租户在本节点上的状态：独立的广播组和会话序号，连接数、入站消息速率和广播流量配额
+ * 用户、会话等全局key经scope加上租户前缀，默认租户不加前缀，与未启用租户时一致
+ */
+public class Tenant {
+
+    private final String id;
+    private final boolean defaultTenant;
+    private final NettyServerProperties.Quota quota;
+    private final ChannelGroup channels = new DefaultChannelGroup(GlobalEventExecutor.INSTANCE);
+    private final ConversationSequencer sequencer;
+    private final TokenBucket messages;
+    // 按KiB计，字节为单位时令牌间隔只有几纳秒，精度不够
+    private final TokenBucket outbound;
+    private final EventLoopGroup eventLoops;
+    private final AtomicInteger connections = new AtomicInteger();
+
+    private final LongAdder acceptedMessages = new LongAdder();
+    private final LongAdder droppedMessages = new LongAdder();
+    private final LongAdder outboundBytes = new LongAdder();
+    private final LongAdder droppedBroadcasts = new LongAdder();
+    private final LongAdder rejectedConnections = new LongAdder();
+
+    /**
+     * @param eventLoops 独立的EventLoop，为null时使用服务的worker线程
+     */
+    Tenant(String id, boolean defaultTenant, NettyServerProperties.Quota quota, ConversationSequencer sequencer,
+           EventLoopGroup eventLoops) {
+        this.id = id;
+        this.defaultTenant = defaultTenant;
+        this.quota = quota;
+        this.sequencer = sequencer;
+        this.eventLoops = eventLoops;
+        this.messages = new TokenBucket(quota.getMessageBurst(), quota.getMessagesPerSecond());
+        long kibPerSecond = Math.max(1, quota.getOutboundBytesPerSecond() / 1024);
+        this.outbound = new TokenBucket((int) Math.min(Integer.MAX_VALUE, kibPerSecond), kibPerSecond);
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * 本租户的所有连接，广播只发给这些连接
+     */
+    public ChannelGroup getChannels() {
+        return channels;
+    }
+
+    public ConversationSequencer getSequencer() {
+        return sequencer;
+    }
+
+    public EventLoopGroup getEventLoops() {
+        return eventLoops;
+    }
+
+    /**
+     * 全局key（用户、会话、房间）加上租户前缀
+     */
+    public String scope(String key) {
+        return key == null || defaultTenant ? key : id + '/' + key;
+    }
+
+    /**
+     * 占用一个连接名额，连接关闭时自动归还
+     * @return 已达到连接数上限时返回false
+     */
+    public boolean tryOpen(Channel channel) {
+        while (true) {
+            int current = connections.get();
+            if (current >= quota.getMaxConnections()) {
+                rejectedConnections.increment();
+                return false;
+            }
+            if (connections.compareAndSet(current, current + 1)) {
+                break;
+            }
+        }
+        channel.closeFuture().addListener(future -> connections.decrementAndGet());
+        return true;
+    }
+
+    /**
+     * 入站消息配额，超出时调用方丢弃消息
+     */
+    public boolean tryAcquireMessage(long nowNanos) {
+        if (messages.tryAcquire(nowNanos)) {
+            acceptedMessages.increment();
+            return true;
+        }
+        droppedMessages.increment();
+        return false;
+    }
+
+    /**
+     * 广播流量配额
+     * @param bytes 消息大小 * 接收连接数
+     */
+    public boolean tryAcquireOutbound(long nowNanos, long bytes) {
+        if (outbound.tryAcquire(nowNanos, (bytes + 1023) / 1024)) {
+            outboundBytes.add(bytes);
+            return true;
+        }
+        droppedBroadcasts.increment();
+        return false;
+    }
+
+    Map<String, Object> getSnapshot() {
+        Map<String, Object> snapshot = new LinkedHashMap<>();
+        snapshot.put("connections", connections.get());
+        snapshot.put("maxConnections", quota.getMaxConnections());
+        snapshot.put("rejectedConnections", rejectedConnections.sum());
+        snapshot.put("messagesPerSecond", quota.getMessagesPerSecond());
+        snapshot.put("acceptedMessages", acceptedMessages.sum());
+        snapshot.put("droppedMessages", droppedMessages.sum());
+        snapshot.put("outboundBytesPerSecond", quota.getOutboundBytesPerSecond());
+        snapshot.put("outboundBytes", outboundBytes.sum());
+        snapshot.put("droppedBroadcasts", droppedBroadcasts.sum());
+        snapshot.put("dedicatedThreads", eventLoops == null ? 0 : quota.getDedicatedThreads());
+        return snapshot;
+    }
+}
@@ -0,0 +1,124 @@
+package com.lyl.demoChatRoom.tenant;
+
+import com.lyl.demoChatRoom.config.NettyServerProperties;
+import com.lyl.demoChatRoom.netty.ConversationSequencer;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.util.concurrent.DefaultThreadFactory;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+
+/**
+ * 本节点上的租户
+ * 配置了配额的租户启动时创建（独立EventLoop随之启动），其他租户在第一次连接时按默认配额创建；
+ * 默认租户使用服务共用的会话序号，其他租户各自一份
+ */
+public class TenantRegistry {
+
+    private static final Pattern VALID_ID = Pattern.compile("[A-Za-z0-9_.-]{1,64}");
+
+    private final NettyServerProperties.Tenants config;
+    private final NettyServerProperties.Delivery delivery;
+    private final ConcurrentMap<String, Tenant> tenants = new ConcurrentHashMap<>();
+    private final LongAdder rejectedUnknown = new LongAdder();
+
+    /**
+     * @param sharedSequencer 默认租户使用的会话序号
+     */
+    public TenantRegistry(NettyServerProperties.Tenants config, NettyServerProperties.Delivery delivery,
+                          ConversationSequencer sharedSequencer) {
+        this.config = config;
+        this.delivery = delivery;
+        tenants.put(config.getDefaultTenant(), new Tenant(config.getDefaultTenant(), true,
+                quotaOf(config.getDefaultTenant()), sharedSequencer, eventLoopsOf(config.getDefaultTenant())));
+        for (String id : config.getQuotas().keySet()) {
+            if (!VALID_ID.matcher(id).matches()) {
+                throw new IllegalArgumentException("租户ID不合法: " + id);
+            }
+            tenants.computeIfAbsent(id, this::create);
+        }
+    }
+
+    public static boolean isValidId(String id) {
+        return id != null && VALID_ID.matcher(id).matches();
+    }
+
+    public String getDefaultTenant() {
+        return config.getDefaultTenant();
+    }
+
+    public String getHeader() {
+        return config.getHeader();
+    }
+
+    /**
+     * @return 租户未配置且不接受未配置租户，或租户数已达上限时返回null
+     */
+    public Tenant get(String id) {
+        Tenant tenant = tenants.get(id);
+        if (tenant != null) {
+            return tenant;
+        }
+        if (!config.isAllowUnknown() || tenants.size() >= config.getMaxTenants()) {
+            rejectedUnknown.increment();
+            return null;
+        }
+        return tenants.computeIfAbsent(id, this::create);
+    }
+
+    /**
+     * 与Tenant.scope相同，租户不存在时也可使用（/api查询）
+     */
+    public String scope(String tenantId, String key) {
+        return tenantId == null || tenantId.equals(config.getDefaultTenant()) ? key : tenantId + '/' + key;
+    }
+
+    private Tenant create(String id) {
+        return new Tenant(id, false, quotaOf(id), new ConversationSequencer(delivery), eventLoopsOf(id));
+    }
+
+    private NettyServerProperties.Quota quotaOf(String id) {
+        return config.getQuotas().getOrDefault(id, config.getDefaults());
+    }
+
+    private EventLoopGroup eventLoopsOf(String id) {
+        // 只有单独配置的租户才有独立线程，未配置租户即使defaults中填写了也不创建
+        NettyServerProperties.Quota quota = config.getQuotas().get(id);
+        return quota != null && quota.getDedicatedThreads() > 0
+                ? new NioEventLoopGroup(quota.getDedicatedThreads(), new DefaultThreadFactory("tenant-" + id)) : null;
+    }
+
+    /**
+     * 各租户的连接数、配额和丢弃统计，供/api/tenants使用
+     */
+    public Map<String, Object> getSnapshot() {
+        Map<String, Object> byTenant = new TreeMap<>();
+        for (Tenant tenant : tenants.values()) {
+            byTenant.put(tenant.getId(), tenant.getSnapshot());
+        }
+        Map<String, Object> snapshot = new LinkedHashMap<>();
+        snapshot.put("tenantCount", tenants.size());
+        snapshot.put("rejectedUnknown", rejectedUnknown.sum());
+        snapshot.put("tenants", byTenant);
+        return snapshot;
+    }
+
+    /**
+     * 关闭各租户的独立EventLoop，在连接都关闭之后调用
+     */
+    public void shutdown(long quietPeriodMillis, long timeoutMillis) {
+        for (Tenant tenant : tenants.values()) {
+            if (tenant.getEventLoops() != null) {
+                tenant.getEventLoops().shutdownGracefully(quietPeriodMillis, timeoutMillis, TimeUnit.MILLISECONDS)
+                        .syncUninterruptibly();
+            }
+        }
+    }
+}
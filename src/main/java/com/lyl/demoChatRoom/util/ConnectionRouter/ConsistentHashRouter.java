@@ -7,14 +7,19 @@ import java.nio.charset.StandardCharsets;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
-public class ConsistentHashRouter implements IConnectionRouter {
+public class ConsistentHashRouter implements IConnectionRouter, WeightedRouter {
     
     private final HashFunction hashFunction;
     private final int virtualNodes; // 虚拟节点数量
     private final NavigableMap<Long, String> ring; // 哈希环
     private final Map<String, Set<String>> serverConnections; // 服务器->连接映射
     private final Map<String, String> connectionToServer; // 连接->服务器映射
+    private final Map<String, Integer> memberSlots = new ConcurrentHashMap<>(); // 房间成员->槽位
+    private final Map<String, Map<Integer, Long>> roomSlotCounts = new HashMap<>(); // 房间->各槽位成员数
+    private volatile RoomPlacement roomPlacement = new RoomPlacement();
+    private final AtomicInteger ringVersion = new AtomicInteger(); // 哈希环每次变化加一
     
     public ConsistentHashRouter(int virtualNodes) {
         this.hashFunction = Hashing.murmur3_128(); // 使用murmur3哈希，性能优秀
@@ -34,6 +39,15 @@ public class ConsistentHashRouter implements IConnectionRouter {
         return getServer("user:" + userId);
     }
     
+    @Override
+    public void removeUser(String userId) {
+        String key = "user:" + userId;
+        String server = connectionToServer.remove(key);
+        if (server != null && serverConnections.containsKey(server)) {
+            serverConnections.get(server).remove(key);
+        }
+    }
+    
     @Override
     public String addService(String serviceId) {
         // todo
@@ -52,6 +66,66 @@ public class ConsistentHashRouter implements IConnectionRouter {
         return "";
     }
 
+    @Override
+    public synchronized String addRoomMember(String roomId, String userId) {
+        String key = RoomPlacement.memberKey(roomId, userId);
+        Integer slot = memberSlots.get(key);
+        if (slot == null) {
+            Map<Integer, Long> counts = roomSlotCounts.computeIfAbsent(roomId, k -> new HashMap<>());
+            slot = roomPlacement.chooseSlot(roomId, counts);
+            counts.merge(slot, 1L, Long::sum);
+            memberSlots.put(key, slot);
+        }
+
+        String server = roomServer(roomId, slot);
+        if (server == null) {
+            return null;
+        }
+        serverConnections.computeIfAbsent(server, k -> ConcurrentHashMap.newKeySet()).add(key);
+        connectionToServer.put(key, server);
+        return server;
+    }
+
+    @Override
+    public synchronized void removeRoomMember(String roomId, String userId) {
+        String key = RoomPlacement.memberKey(roomId, userId);
+        Integer slot = memberSlots.remove(key);
+        if (slot == null) {
+            return;
+        }
+        Map<Integer, Long> counts = roomSlotCounts.get(roomId);
+        if (counts != null) {
+            counts.computeIfPresent(slot, (s, count) -> count <= 1 ? null : count - 1);
+            if (counts.isEmpty()) {
+                roomSlotCounts.remove(roomId);
+            }
+        }
+        String server = connectionToServer.remove(key);
+        if (server != null && serverConnections.containsKey(server)) {
+            serverConnections.get(server).remove(key);
+        }
+    }
+
+    @Override
+    public String getServerForRoom(String roomId) {
+        return roomServer(roomId, 0);
+    }
+
+    @Override
+    public List<String> getServersForRoom(String roomId) {
+        long hash = hashFunction.hashString(RoomPlacement.roomKey(roomId), StandardCharsets.UTF_8).asLong();
+        return roomPlacement.servers(ring, hash);
+    }
+
+    private String roomServer(String roomId, int slot) {
+        long hash = hashFunction.hashString(RoomPlacement.roomKey(roomId), StandardCharsets.UTF_8).asLong();
+        return roomPlacement.server(ring, hash, slot);
+    }
+
+    public void setRoomPlacement(RoomPlacement roomPlacement) {
+        this.roomPlacement = roomPlacement;
+    }
+
     private String getServer(String key) {
         if (ring.isEmpty()) {
             return null;
@@ -75,20 +149,101 @@ public class ConsistentHashRouter implements IConnectionRouter {
         return server;
     }
     
+    // 哈希环的修改与restoreConnection在同一个监视器上，恢复的连接不会按修改前的环放置
     @Override
-    public List<String> addServer(String server) {
-        List<String> migratedConnections = new ArrayList<>();
-        
+    public synchronized List<String> addServer(String server) {
         // 添加虚拟节点到环上
-        for (int i = 0; i < virtualNodes; i++) {
-            String virtualNode = server + "#" + i;
-            long hash = hashFunction.hashString(virtualNode, StandardCharsets.UTF_8).asLong();
-            ring.put(hash, server);
-        }
+        addVirtualNodes(server, virtualNodes);
+        ringVersion.incrementAndGet();
         
         // 初始化服务器连接集合
         serverConnections.putIfAbsent(server, ConcurrentHashMap.newKeySet());
         
+        return rebalance();
+    }
+
+    @Override
+    public synchronized List<String> setServerWeight(String server, double weight) {
+        if (!serverConnections.containsKey(server)) {
+            throw new IllegalArgumentException("服务器不存在: " + server);
+        }
+        ring.entrySet().removeIf(entry -> entry.getValue().equals(server));
+        addVirtualNodes(server, Math.max(1, (int) Math.round(virtualNodes * weight)));
+        ringVersion.incrementAndGet();
+        return rebalance();
+    }
+
+    // ==================== 快照支持（RouterSnapshotter使用） ====================
+
+    int getVirtualNodes() {
+        return virtualNodes;
+    }
+
+    int getRingVersion() {
+        return ringVersion.get();
+    }
+
+    NavigableMap<Long, String> ring() {
+        return ring;
+    }
+
+    Map<String, String> connections() {
+        return connectionToServer;
+    }
+
+    Map<String, Integer> roomMemberSlots() {
+        return memberSlots;
+    }
+
+    /**
+     * 从快照恢复哈希环
+     */
+    synchronized void restoreRing(Map<Long, String> entries) {
+        ring.putAll(entries);
+        for (String server : entries.values()) {
+            serverConnections.putIfAbsent(server, ConcurrentHashMap.newKeySet());
+        }
+        ringVersion.incrementAndGet();
+    }
+
+    /**
+     * 从快照恢复一个连接；恢复期间哈希环有变化或连接已被重新登记时以当前状态为准
+     * @param slot 房间成员的槽位，普通连接为-1
+     * @param ringVersionAtRestore 恢复哈希环后的版本
+     */
+    synchronized void restoreConnection(String key, String server, int slot, int ringVersionAtRestore) {
+        if (connectionToServer.containsKey(key)) {
+            return;
+        }
+        if (slot >= 0) {
+            memberSlots.put(key, slot);
+            roomSlotCounts.computeIfAbsent(RoomPlacement.roomOf(key), k -> new HashMap<>()).merge(slot, 1L, Long::sum);
+        }
+        if (ringVersion.get() != ringVersionAtRestore) {
+            server = findServerForConnection(key);
+        }
+        if (server == null) {
+            return;
+        }
+        serverConnections.computeIfAbsent(server, k -> ConcurrentHashMap.newKeySet()).add(key);
+        connectionToServer.put(key, server);
+    }
+
+    private void addVirtualNodes(String server, int count) {
+        for (int i = 0; i < count; i++) {
+            String virtualNode = server + "#" + i;
+            long hash = hashFunction.hashString(virtualNode, StandardCharsets.UTF_8).asLong();
+            ring.put(hash, server);
+        }
+    }
+
+    /**
+     * 按当前哈希环重新分配所有连接
+     * @return 迁移的连接
+     */
+    private List<String> rebalance() {
+        List<String> migratedConnections = new ArrayList<>();
+
         // 重新分配现有连接，找出需要迁移的连接
         Map<String, String> newMapping = new HashMap<>();
         for (String connection : connectionToServer.keySet()) {
@@ -115,10 +270,11 @@ public class ConsistentHashRouter implements IConnectionRouter {
     }
     
     @Override
-    public List<String> removeServer(String server) {
+    public synchronized List<String> removeServer(String server) {
 
         // 移除虚拟节点
         ring.entrySet().removeIf(entry -> entry.getValue().equals(server));
+        ringVersion.incrementAndGet();
         
         // 获取需要迁移的连接
         Set<String> connectionsToMigrate = serverConnections.getOrDefault(server, Collections.emptySet());
@@ -137,6 +293,21 @@ public class ConsistentHashRouter implements IConnectionRouter {
         
         // 移除服务器
         serverConnections.remove(server);
+
+        // 房间的节点列表随环变化，其他节点上的房间成员也可能移动
+        for (String connection : memberSlots.keySet()) {
+            String oldServer = connectionToServer.get(connection);
+            if (oldServer == null || oldServer.equals(server)) {
+                continue;
+            }
+            String newServer = findServerForConnection(connection);
+            if (newServer != null && !newServer.equals(oldServer)) {
+                migratedConnections.add(connection);
+                serverConnections.get(oldServer).remove(connection);
+                serverConnections.computeIfAbsent(newServer, k -> ConcurrentHashMap.newKeySet()).add(connection);
+                connectionToServer.put(connection, newServer);
+            }
+        }
         
         return migratedConnections;
     }
@@ -145,6 +316,12 @@ public class ConsistentHashRouter implements IConnectionRouter {
         if (ring.isEmpty()) {
             return null;
         }
+
+        // 房间成员跟随房间的节点
+        Integer slot = memberSlots.get(connection);
+        if (slot != null) {
+            return roomServer(RoomPlacement.roomOf(connection), slot);
+        }
         
         long hash = hashFunction.hashString(connection, StandardCharsets.UTF_8).asLong();
         Map.Entry<Long, String> entry = ring.ceilingEntry(hash);
@@ -172,6 +349,18 @@ public class ConsistentHashRouter implements IConnectionRouter {
         }
         return result;
     }
+
+    /**
+     * 连接集合的大小即计数，不复制集合
+     */
+    @Override
+    public LoadStats getLoadStats() {
+        Map<String, Long> counts = new HashMap<>();
+        for (Map.Entry<String, Set<String>> entry : serverConnections.entrySet()) {
+            counts.put(entry.getKey(), (long) entry.getValue().size());
+        }
+        return LoadStats.of(counts);
+    }
     
     /**
      * 获取哈希环状态（调试用）
@@ -188,11 +377,13 @@ public class ConsistentHashRouter implements IConnectionRouter {
      * 获取负载均衡统计
      */
     public void printLoadBalanceStats() {
+        LoadStats stats = getLoadStats();
         System.out.println("=== 负载均衡统计 ===");
-        for (Map.Entry<String, Set<String>> entry : serverConnections.entrySet()) {
-            System.out.printf("Server: %s, Connections: %d%n", 
-                entry.getKey(), entry.getValue().size());
+        for (Map.Entry<String, Long> entry : stats.getCounts().entrySet()) {
+            System.out.printf("Server: %s, Connections: %d%n", entry.getKey(), entry.getValue());
         }
+        System.out.printf("Total: %d, Stddev: %.2f, Max/Mean: %.4f%n", stats.getTotal(), stats.getStddev(),
+                stats.getImbalance());
         System.out.println();
     }
 }
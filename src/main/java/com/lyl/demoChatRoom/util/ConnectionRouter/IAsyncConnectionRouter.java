@@ -0,0 +1,77 @@
+package com.lyl.demoChatRoom.util.ConnectionRouter;
+
+import io.netty.channel.Channel;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BiConsumer;
+
+/**
+ * 异步连接路由接口，语义与IConnectionRouter一致，调用不阻塞
+ */
+public interface IAsyncConnectionRouter {
+
+    /**
+     * 获取用户应该连接的服务器并登记映射
+     */
+    CompletableFuture<String> addUser(String userId);
+
+    /**
+     * 用户下线，删除addUser登记的映射
+     */
+    CompletableFuture<Void> removeUser(String userId);
+
+    /**
+     * 获取客服应该连接的服务器并登记映射
+     */
+    CompletableFuture<String> addService(String serviceId);
+
+    CompletableFuture<String> getServerForUser(String userId);
+
+    CompletableFuture<String> getServerForService(String serviceId);
+
+    /**
+     * 获取房间成员应该连接的服务器并登记映射
+     */
+    CompletableFuture<String> addRoomMember(String roomId, String userId);
+
+    /**
+     * 成员离开房间
+     */
+    CompletableFuture<Void> removeRoomMember(String roomId, String userId);
+
+    CompletableFuture<String> getServerForRoom(String roomId);
+
+    /**
+     * 添加服务器节点
+     * @return 需要迁移的连接列表
+     */
+    CompletableFuture<List<String>> addServer(String server);
+
+    /**
+     * 移除服务器节点
+     * @return 需要迁移的连接列表
+     */
+    CompletableFuture<List<String>> removeServer(String server);
+
+    CompletableFuture<Set<String>> getAllServers();
+
+    /**
+     * 各服务器的连接数统计，读取维护好的计数器
+     */
+    CompletableFuture<LoadStats> getLoadStats();
+
+    /**
+     * 在连接的EventLoop上处理异步结果
+     */
+    static <T> void onEventLoop(CompletableFuture<T> future, Channel channel, BiConsumer<T, Throwable> callback) {
+        future.whenComplete((result, error) -> {
+            if (channel.eventLoop().inEventLoop()) {
+                callback.accept(result, error);
+            } else {
+                channel.eventLoop().execute(() -> callback.accept(result, error));
+            }
+        });
+    }
+}
@@ -16,6 +16,11 @@ public interface IConnectionRouter {
      */
     String addUser(String userId);
 
+    /**
+     * 用户下线，删除addUser登记的映射
+     */
+    void removeUser(String userId);
+
     /**
      * 获取客服应该连接的服务器
      * @param serviceId 客服ID
@@ -27,6 +32,29 @@ public interface IConnectionRouter {
 
     String getServerForService(String serviceId);
 
+    /**
+     * 获取房间成员应该连接的服务器并登记映射，同一房间的成员集中在房间的少数几个节点上
+     * @param roomId 房间（会话）ID，不能包含冒号
+     * @param userId 用户ID
+     * @return 服务器节点，如果没有可用服务器返回null
+     */
+    String addRoomMember(String roomId, String userId);
+
+    /**
+     * 成员离开房间，释放其在房间节点上占用的名额
+     */
+    void removeRoomMember(String roomId, String userId);
+
+    /**
+     * 获取房间的主节点
+     */
+    String getServerForRoom(String roomId);
+
+    /**
+     * 获取房间可能使用的全部节点（主节点在前）
+     */
+    List<String> getServersForRoom(String roomId);
+
     /**
      * 添加服务器节点
      * @param server 服务器标识
@@ -59,4 +87,9 @@ public interface IConnectionRouter {
      * @return 服务器->连接列表的映射
      */
     Map<String, Set<String>> getAllConnections();
+
+    /**
+     * 各服务器的连接数统计，由增量维护的计数器生成，开销与连接总数无关
+     */
+    LoadStats getLoadStats();
 }
@@ -1,18 +1,14 @@
 package com.lyl.demoChatRoom.util.ConnectionRouter;
 
-import org.springframework.data.redis.core.RedisTemplate;
+import com.google.common.cache.CacheStats;
 import org.springframework.data.redis.connection.RedisConnectionFactory;
 import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
 import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
-import org.springframework.data.redis.serializer.StringRedisSerializer;
-import org.springframework.data.redis.serializer.Jackson2JsonRedisSerializer;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.SerializationFeature;
-import com.fasterxml.jackson.databind.DeserializationFeature;
-import com.fasterxml.jackson.databind.jsontype.impl.LaissezFaireSubTypeValidator;
-import com.fasterxml.jackson.annotation.JsonAutoDetect;
-import com.fasterxml.jackson.annotation.PropertyAccessor;
 
+import java.io.FileOutputStream;
+import java.io.PrintStream;
+import java.nio.file.Paths;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Scanner;
@@ -24,13 +20,11 @@ public class IMRouterConsole {
     private final Scanner scanner;
 
     public IMRouterConsole() {
-        RedisTemplate<String, Object> redisTemplate = new RedisTemplate<>();
-        initRedisTemplate(redisTemplate);
-        this.router = new StatelessConsistentHashRouter(redisTemplate);
+        this.router = new StatelessConsistentHashRouter(RouterRedisTemplates.create(createConnectionFactory()));
         this.scanner = new Scanner(System.in);
     }
 
-    private void initRedisTemplate(RedisTemplate<String, Object> redisTemplate) {
+    private RedisConnectionFactory createConnectionFactory() {
         // 配置Redis连接
         RedisStandaloneConfiguration redisConfig = new RedisStandaloneConfiguration();
         redisConfig.setHostName("localhost");
@@ -38,32 +32,9 @@ public class IMRouterConsole {
         // 无密码，不需要设置密码
 
         // 创建连接工厂
-        RedisConnectionFactory connectionFactory = new LettuceConnectionFactory(redisConfig);
-        ((LettuceConnectionFactory) connectionFactory).afterPropertiesSet();
-
-        // 设置连接工厂
-        redisTemplate.setConnectionFactory(connectionFactory);
-
-        // 使用Jackson2JsonRedisSerializer作为默认序列化器
-        Jackson2JsonRedisSerializer<Object> jackson2JsonRedisSerializer = new Jackson2JsonRedisSerializer<>(Object.class);
-
-        // 配置ObjectMapper以支持完整的类型信息
-        ObjectMapper objectMapper = new ObjectMapper();
-        objectMapper.setVisibility(PropertyAccessor.ALL, JsonAutoDetect.Visibility.ANY);
-        objectMapper.activateDefaultTyping(LaissezFaireSubTypeValidator.instance, ObjectMapper.DefaultTyping.NON_FINAL);
-        objectMapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
-        objectMapper.disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
-
-        jackson2JsonRedisSerializer.setObjectMapper(objectMapper);
-
-        // 设置key和value的序列化策略
-        redisTemplate.setKeySerializer(new StringRedisSerializer());
-        redisTemplate.setValueSerializer(jackson2JsonRedisSerializer);
-        redisTemplate.setHashKeySerializer(new StringRedisSerializer());
-        redisTemplate.setHashValueSerializer(jackson2JsonRedisSerializer);
-
-        // 初始化RedisTemplate的属性
-        redisTemplate.afterPropertiesSet();
+        LettuceConnectionFactory connectionFactory = new LettuceConnectionFactory(redisConfig);
+        connectionFactory.afterPropertiesSet();
+        return connectionFactory;
     }
 
     public void start() {
@@ -224,24 +195,27 @@ public class IMRouterConsole {
     }
     
     private void showLoadStats() {
-        Map<String, Set<String>> allConnections = router.getAllConnections();
+        LoadStats loadStats = router.getLoadStats();
         
-        if (allConnections.isEmpty()) {
+        if (loadStats.getServers() == 0) {
             System.out.println("当前没有连接");
             return;
         }
         
         System.out.println("负载统计:");
-        int totalConnections = 0;
-        for (Map.Entry<String, Set<String>> entry : allConnections.entrySet()) {
-            int count = entry.getValue().size();
-            totalConnections += count;
-            System.out.printf("服务器 %s: %d个连接%n", entry.getKey(), count);
+        for (Map.Entry<String, Long> entry : loadStats.getCounts().entrySet()) {
+            System.out.printf("服务器 %s: %d个连接%n", entry.getKey(), entry.getValue());
         }
         
-        System.out.printf("总连接数: %d%n", totalConnections);
-        System.out.printf("平均每台服务器: %.2f个连接%n", 
-            (double) totalConnections / allConnections.size());
+        System.out.printf("总连接数: %d%n", loadStats.getTotal());
+        System.out.printf("平均每台服务器: %.2f个连接%n", loadStats.getMean());
+        System.out.printf("标准差: %.2f, 最大/平均: %.4f%n", loadStats.getStddev(), loadStats.getImbalance());
+
+        if (router instanceof StatelessConsistentHashRouter) {
+            CacheStats stats = ((StatelessConsistentHashRouter) router).getNearCacheStats();
+            System.out.printf("近端缓存: 命中 %d, 未命中 %d, 命中率 %.2f%%%n",
+                stats.hitCount(), stats.missCount(), stats.hitRate() * 100);
+        }
     }
     
     private void batchAddUsers() {
@@ -310,7 +284,54 @@ public class IMRouterConsole {
         }
     }
     
-    public static void main(String[] args) {
-        new IMRouterConsole().start();
+    /**
+     * 不带参数时进入交互控制台；
+     * --simulate=脚本文件 [--virtual-nodes=150] [--out=结果.csv] 时用内存路由器离线回放脚本，不连接Redis；
+     * --restore=快照文件 从快照恢复路由器后再回放，--snapshot=快照文件 回放结束后写快照，
+     * 同时给出--snapshot-interval=毫秒 时回放期间也定时写快照
+     */
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            if (arg.startsWith("--")) {
+                int eq = arg.indexOf('=');
+                options.put(eq > 0 ? arg.substring(2, eq) : arg.substring(2), eq > 0 ? arg.substring(eq + 1) : "");
+            }
+        }
+
+        String script = options.get("simulate");
+        if (script == null) {
+            new IMRouterConsole().start();
+            return;
+        }
+
+        ConsistentHashRouter router;
+        String restoreFile = options.get("restore");
+        if (restoreFile != null) {
+            long start = System.nanoTime();
+            RouterSnapshotter.Restored restored = RouterSnapshotter.restore(Paths.get(restoreFile));
+            long ringMillis = (System.nanoTime() - start) / 1_000_000;
+            // 脚本的合成用户ID从0开始，等连接映射恢复完再回放
+            int connections = restored.getConnections().get();
+            System.err.printf("快照恢复: 哈希环 %dms, %d个连接 %dms%n",
+                    ringMillis, connections, (System.nanoTime() - start) / 1_000_000);
+            router = restored.getRouter();
+        } else {
+            router = new ConsistentHashRouter(Integer.parseInt(options.getOrDefault("virtual-nodes", "150")));
+        }
+        String snapshotFile = options.get("snapshot");
+        RouterSnapshotter snapshotter = snapshotFile != null ? new RouterSnapshotter(router, Paths.get(snapshotFile)) : null;
+        if (snapshotter != null && options.containsKey("snapshot-interval")) {
+            snapshotter.start(Long.parseLong(options.get("snapshot-interval")));
+        }
+        String outFile = options.get("out");
+        try (PrintStream out = outFile != null
+                ? new PrintStream(new FileOutputStream(outFile), false, "UTF-8") : null) {
+            new RouterSimulator(router, out != null ? out : System.out).run(script);
+        }
+        if (snapshotter != null) {
+            // 停止定时快照并写最后一次
+            snapshotter.shutdown();
+        }
     }
 }
@@ -0,0 +1,516 @@
+package com.lyl.demoChatRoom.util.ConnectionRouter;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import io.lettuce.core.RedisClient;
+import io.lettuce.core.RedisNoScriptException;
+import io.lettuce.core.ScanArgs;
+import io.lettuce.core.ScanCursor;
+import io.lettuce.core.ScoredValue;
+import io.lettuce.core.ScriptOutputType;
+import io.lettuce.core.api.StatefulRedisConnection;
+import io.lettuce.core.api.async.RedisAsyncCommands;
+import io.lettuce.core.codec.StringCodec;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 基于Lettuce异步API的无状态一致性哈希路由器
+ * 与StatelessConsistentHashRouter使用相同的Redis键和值编码，可以混合部署；
+ * 所有命令在同一个连接上异步发出，由Lettuce自动流水线化，调用线程不等待Redis
+ */
+public class LettuceAsyncConsistentHashRouter implements IAsyncConnectionRouter {
+
+    private static final Logger log = LoggerFactory.getLogger(LettuceAsyncConsistentHashRouter.class);
+
+    // Redis键名常量，与StatelessConsistentHashRouter保持一致
+    private static final String HASH_RING_NODES = "hash_ring:nodes";
+    private static final String IM_SERVERS = "im_servers";
+    private static final String CONNECTION_MAPPING = LoadCounterScript.CONNECTION_MAPPING;
+    private static final String CONNECTION_COUNTS = LoadCounterScript.CONNECTION_COUNTS;
+    private static final String[] COUNTED_WRITE_KEYS = {CONNECTION_MAPPING, CONNECTION_COUNTS};
+    private static final String HASH_RING_CONFIG = "hash_ring:config";
+    private static final String SERVER_CHANGE_CHANNEL = "im_server_changes";
+    private static final String ROOM_META_PREFIX = "room_meta:";
+    private static final String ROOM_MEMBERS_PREFIX = "room_members:";
+    // 迁移时每条脚本调用处理的连接数
+    private static final int REMAP_WRITE_BATCH = 1000;
+
+    private final StatefulRedisConnection<String, String> connection;
+    private final RedisAsyncCommands<String, String> commands;
+    private final ObjectMapper mapper = RouterRedisTemplates.newObjectMapper();
+    private final HashFunction hashFunction;
+    private final int virtualNodes;
+    private final long versionCheckIntervalNanos;
+    private final String countedWriteSha;
+
+    // 本地缓存
+    private volatile NavigableMap<Long, String> localRing = new ConcurrentSkipListMap<>();
+    private volatile long cacheVersion = -1;
+    private volatile long lastVersionCheckNanos;
+    // 同一时刻只有一个版本检查在进行，其余调用共用它的结果
+    private final AtomicReference<CompletableFuture<NavigableMap<Long, String>>> refreshing = new AtomicReference<>();
+
+    private volatile RoomPlacement roomPlacement = new RoomPlacement();
+    private volatile long roomTtlSeconds = TimeUnit.DAYS.toSeconds(1);
+
+    /**
+     * @param client                   Spring的LettuceConnectionFactory使用的RedisClient
+     * @param virtualNodes             每个服务器的虚拟节点数
+     * @param versionCheckIntervalMillis 两次检查哈希环版本的最小间隔
+     */
+    public LettuceAsyncConsistentHashRouter(RedisClient client, int virtualNodes, long versionCheckIntervalMillis) {
+        this.connection = client.connect(StringCodec.UTF8);
+        this.commands = connection.async();
+        this.hashFunction = Hashing.murmur3_128();
+        this.virtualNodes = virtualNodes;
+        this.versionCheckIntervalNanos = TimeUnit.MILLISECONDS.toNanos(versionCheckIntervalMillis);
+        this.lastVersionCheckNanos = System.nanoTime() - versionCheckIntervalNanos;
+        this.countedWriteSha = commands.digest(LoadCounterScript.SOURCE);
+
+        // 初始化配置并加载哈希环
+        initializeConfig().thenCompose(v -> ring(true)).join();
+        // 计数器不存在或版本较旧时（升级前写入的映射没有计入），按现有映射重建一次
+        commands.get(LoadCounterScript.COUNTS_VERSION_KEY).toCompletableFuture()
+                .thenCompose(version -> LoadCounterScript.isCurrent(version)
+                        ? CompletableFuture.<Void>completedFuture(null) : rebuildLoadCounters())
+                .join();
+    }
+
+    private CompletableFuture<Void> initializeConfig() {
+        return CompletableFuture.allOf(
+                commands.hsetnx(HASH_RING_CONFIG, "virtual_nodes", encode(virtualNodes)).toCompletableFuture(),
+                commands.hsetnx(HASH_RING_CONFIG, "hash_function", encode("murmur3")).toCompletableFuture(),
+                commands.hsetnx(HASH_RING_CONFIG, "version", encode(0)).toCompletableFuture());
+    }
+
+    @Override
+    public CompletableFuture<String> addUser(String userId) {
+        return assign("user:" + userId);
+    }
+
+    @Override
+    public CompletableFuture<Void> removeUser(String userId) {
+        return countedWrite("user:" + userId, "").thenApply(changed -> null);
+    }
+
+    @Override
+    public CompletableFuture<String> addService(String serviceId) {
+        return assign("customer_service:" + serviceId);
+    }
+
+    @Override
+    public CompletableFuture<String> getServerForUser(String userId) {
+        return ring(false).thenApply(ring -> locate(ring, "user:" + userId));
+    }
+
+    @Override
+    public CompletableFuture<String> getServerForService(String serviceId) {
+        return ring(false).thenApply(ring -> locate(ring, "customer_service:" + serviceId));
+    }
+
+    @Override
+    public CompletableFuture<String> addRoomMember(String roomId, String userId) {
+        String membersKey = ROOM_MEMBERS_PREFIX + roomId;
+        CompletableFuture<Integer> slot = commands.hget(membersKey, userId).toCompletableFuture()
+                .thenCompose(existing -> existing != null
+                        ? CompletableFuture.completedFuture(Integer.parseInt(existing))
+                        : joinRoom(roomId, userId))
+                .thenCompose(s -> touchRoom(roomId).thenApply(v -> s));
+
+        return slot.thenCombine(ring(false), (s, ring) -> roomPlacement.server(ring, roomHash(roomId), s))
+                .thenCompose(server -> {
+                    if (server == null) {
+                        return CompletableFuture.completedFuture(null);
+                    }
+                    return countedWrite(RoomPlacement.memberKey(roomId, userId), encode(server))
+                            .thenApply(changed -> server);
+                });
+    }
+
+    /**
+     * 新成员按各槽位人数选择槽位；并发加入时可能略微超过容量
+     */
+    private CompletableFuture<Integer> joinRoom(String roomId, String userId) {
+        String membersKey = ROOM_MEMBERS_PREFIX + roomId;
+        String metaKey = ROOM_META_PREFIX + roomId;
+        return commands.hgetall(metaKey).toCompletableFuture().thenCompose(counts -> {
+            Map<Integer, Long> liveCounts = new HashMap<>();
+            counts.forEach((slot, count) -> liveCounts.put(Integer.parseInt(slot), Long.parseLong(count)));
+            int slot = roomPlacement.chooseSlot(roomId, liveCounts);
+            return commands.hsetnx(membersKey, userId, String.valueOf(slot)).toCompletableFuture()
+                    .thenCompose(created -> created
+                            ? commands.hincrby(metaKey, String.valueOf(slot), 1).toCompletableFuture()
+                                    .thenApply(v -> slot)
+                            : commands.hget(membersKey, userId).toCompletableFuture()
+                                    .thenApply(Integer::parseInt));
+        });
+    }
+
+    @Override
+    public CompletableFuture<Void> removeRoomMember(String roomId, String userId) {
+        String membersKey = ROOM_MEMBERS_PREFIX + roomId;
+        return commands.hget(membersKey, userId).toCompletableFuture().thenCompose(slot -> {
+            if (slot == null) {
+                return CompletableFuture.completedFuture(null);
+            }
+            return commands.hdel(membersKey, userId).toCompletableFuture().thenCompose(removed -> {
+                if (removed == 0) {
+                    return CompletableFuture.completedFuture(null);
+                }
+                return CompletableFuture.allOf(
+                        commands.hincrby(ROOM_META_PREFIX + roomId, slot, -1).toCompletableFuture()
+                                .thenCompose(v -> touchRoom(roomId)),
+                        countedWrite(RoomPlacement.memberKey(roomId, userId), ""));
+            });
+        });
+    }
+
+    /**
+     * 延长房间元数据的过期时间，节点崩溃没来得及离开的成员在过期后不再占用名额
+     */
+    private CompletableFuture<Void> touchRoom(String roomId) {
+        return CompletableFuture.allOf(
+                commands.expire(ROOM_MEMBERS_PREFIX + roomId, roomTtlSeconds).toCompletableFuture(),
+                commands.expire(ROOM_META_PREFIX + roomId, roomTtlSeconds).toCompletableFuture());
+    }
+
+    @Override
+    public CompletableFuture<String> getServerForRoom(String roomId) {
+        return ring(false).thenApply(ring -> roomPlacement.server(ring, roomHash(roomId), 0));
+    }
+
+    private long roomHash(String roomId) {
+        return hashFunction.hashString(RoomPlacement.roomKey(roomId), StandardCharsets.UTF_8).asLong();
+    }
+
+    public void setRoomPlacement(RoomPlacement roomPlacement) {
+        this.roomPlacement = roomPlacement;
+    }
+
+    /**
+     * @param roomTtlSeconds 房间元数据在最后一次加入或离开后保留的时间
+     */
+    public void setRoomTtlSeconds(long roomTtlSeconds) {
+        this.roomTtlSeconds = Math.max(1, roomTtlSeconds);
+    }
+
+    private CompletableFuture<String> assign(String key) {
+        return ring(false).thenCompose(ring -> {
+            String server = locate(ring, key);
+            if (server == null) {
+                return CompletableFuture.completedFuture(null);
+            }
+            return countedWrite(key, encode(server)).thenApply(changed -> server);
+        });
+    }
+
+    @Override
+    public CompletableFuture<List<String>> addServer(String server) {
+        log.info("开始添加服务器: {}", server);
+        ScoredValue<String>[] nodes = virtualNodeEntries(server);
+
+        // 添加前的映射用于计算迁移
+        CompletableFuture<Map<String, String>> before = commands.hgetall(CONNECTION_MAPPING).toCompletableFuture();
+        return before.thenCompose(beforeMapping -> CompletableFuture.allOf(
+                        commands.sadd(IM_SERVERS, encode(server)).toCompletableFuture(),
+                        commands.zadd(HASH_RING_NODES, nodes).toCompletableFuture())
+                .thenCompose(v -> commands.hincrby(HASH_RING_CONFIG, "version", 1).toCompletableFuture())
+                .thenCompose(v -> ring(true))
+                .thenCompose(ring -> roomSlots(beforeMapping)
+                        .thenCompose(slots -> remap(ring, beforeMapping, slots, null))))
+                .thenCompose(migrated -> publishServerChangeEvent("ADD", server).thenApply(v -> {
+                    log.info("服务器添加完成: {}, 迁移连接数: {}", server, migrated.size());
+                    return migrated;
+                }));
+    }
+
+    @Override
+    public CompletableFuture<List<String>> removeServer(String server) {
+        log.info("开始移除服务器: {}", server);
+        String encoded = encode(server);
+        String[] members = new String[virtualNodes];
+        for (int i = 0; i < virtualNodes; i++) {
+            members[i] = encode(server + "#" + i);
+        }
+
+        CompletableFuture<Map<String, String>> before = commands.hgetall(CONNECTION_MAPPING).toCompletableFuture();
+        return before.thenCompose(beforeMapping -> CompletableFuture.allOf(
+                        commands.srem(IM_SERVERS, encoded).toCompletableFuture(),
+                        commands.zrem(HASH_RING_NODES, members).toCompletableFuture())
+                .thenCompose(v -> commands.hincrby(HASH_RING_CONFIG, "version", 1).toCompletableFuture())
+                .thenCompose(v -> ring(true))
+                .thenCompose(ring -> roomSlots(beforeMapping)
+                        .thenCompose(slots -> remap(ring, beforeMapping, slots, encoded)))
+                .thenCompose(migrated -> commands.hdel(CONNECTION_COUNTS, server).toCompletableFuture()
+                        .thenApply(v -> migrated)))
+                .thenCompose(migrated -> publishServerChangeEvent("REMOVE", server).thenApply(v -> {
+                    log.info("服务器移除完成: {}, 迁移连接数: {}", server, migrated.size());
+                    return migrated;
+                }));
+    }
+
+    /**
+     * 按新的哈希环重新分配连接，变化的映射通过计数脚本写回
+     * @param onlyServer 非空时只处理原本在该服务器上的用户和客服连接（已编码）；
+     *                   房间成员总是重新计算，房间的节点列表随环变化，其他节点上的成员也可能移动
+     */
+    private CompletableFuture<List<String>> remap(NavigableMap<Long, String> ring, Map<String, String> beforeMapping,
+                                                  Map<String, Map<String, String>> roomSlots, String onlyServer) {
+        List<String> migrated = new ArrayList<>();
+        // 连接, 新服务器（空串表示删除）成对排列
+        List<String> changes = new ArrayList<>();
+
+        for (Map.Entry<String, String> entry : beforeMapping.entrySet()) {
+            String roomId = RoomPlacement.roomOf(entry.getKey());
+            if (roomId == null && onlyServer != null && !onlyServer.equals(entry.getValue())) {
+                continue;
+            }
+            String newServer;
+            if (roomId != null) {
+                // 房间成员跟随房间的节点
+                String slot = roomSlots.getOrDefault(roomId, Collections.emptyMap())
+                        .get(RoomPlacement.userOf(entry.getKey()));
+                newServer = roomPlacement.server(ring, roomHash(roomId), slot != null ? Integer.parseInt(slot) : 0);
+            } else {
+                newServer = locate(ring, entry.getKey());
+            }
+            String encoded = newServer != null ? encode(newServer) : "";
+            if (!encoded.equals(entry.getValue())) {
+                changes.add(entry.getKey());
+                changes.add(encoded);
+                migrated.add(entry.getKey());
+            }
+        }
+
+        List<CompletableFuture<?>> writes = new ArrayList<>();
+        for (int from = 0; from < changes.size(); from += REMAP_WRITE_BATCH * 2) {
+            writes.add(countedWrite(changes.subList(from, Math.min(from + REMAP_WRITE_BATCH * 2, changes.size()))
+                    .toArray(new String[0])));
+        }
+        return CompletableFuture.allOf(writes.toArray(new CompletableFuture<?>[0])).thenApply(v -> migrated);
+    }
+
+    /**
+     * 执行计数脚本，参数为 连接, 编码后的服务器 成对排列；
+     * 优先EVALSHA，Redis尚未缓存脚本时退回EVAL（同时会缓存脚本）
+     */
+    private CompletableFuture<Long> countedWrite(String... pairs) {
+        CompletableFuture<Long> result = new CompletableFuture<>();
+        commands.<Long>evalsha(countedWriteSha, ScriptOutputType.INTEGER, COUNTED_WRITE_KEYS, pairs)
+                .whenComplete((changed, error) -> {
+                    if (error == null) {
+                        result.complete(changed);
+                    } else if (error instanceof RedisNoScriptException) {
+                        commands.<Long>eval(LoadCounterScript.SOURCE, ScriptOutputType.INTEGER, COUNTED_WRITE_KEYS, pairs)
+                                .whenComplete((retried, retryError) -> {
+                                    if (retryError != null) {
+                                        result.completeExceptionally(retryError);
+                                    } else {
+                                        result.complete(retried);
+                                    }
+                                });
+                    } else {
+                        result.completeExceptionally(error);
+                    }
+                });
+        return result;
+    }
+
+    /**
+     * 并发读取映射中所有房间的成员槽位，每个房间一次HGETALL
+     */
+    private CompletableFuture<Map<String, Map<String, String>>> roomSlots(Map<String, String> mapping) {
+        Map<String, CompletableFuture<Map<String, String>>> pending = new HashMap<>();
+        for (String connection : mapping.keySet()) {
+            String roomId = RoomPlacement.roomOf(connection);
+            if (roomId != null) {
+                pending.computeIfAbsent(roomId,
+                        id -> commands.hgetall(ROOM_MEMBERS_PREFIX + id).toCompletableFuture());
+            }
+        }
+        return CompletableFuture.allOf(pending.values().toArray(new CompletableFuture<?>[0])).thenApply(v -> {
+            Map<String, Map<String, String>> result = new HashMap<>();
+            pending.forEach((roomId, future) -> result.put(roomId, future.join()));
+            return result;
+        });
+    }
+
+    @Override
+    public CompletableFuture<Set<String>> getAllServers() {
+        return commands.smembers(IM_SERVERS).toCompletableFuture().thenApply(members -> {
+            Set<String> servers = new HashSet<>();
+            for (String member : members) {
+                servers.add(decode(member));
+            }
+            return servers;
+        });
+    }
+
+    /**
+     * 用HSCAN按connection_mapping重建connection_counts并记下计数版本，需要遍历全部连接，只在升级或修复时使用
+     */
+    public CompletableFuture<Void> rebuildLoadCounters() {
+        Map<String, Long> counts = new HashMap<>();
+        return countMapping(ScanCursor.INITIAL, counts)
+                .thenCompose(v -> commands.del(CONNECTION_COUNTS).toCompletableFuture())
+                .thenCompose(v -> {
+                    if (counts.isEmpty()) {
+                        return CompletableFuture.completedFuture(null);
+                    }
+                    Map<String, String> values = new HashMap<>();
+                    counts.forEach((server, count) -> values.put(server, String.valueOf(count)));
+                    return commands.hset(CONNECTION_COUNTS, values).toCompletableFuture();
+                })
+                .thenCompose(v -> commands.set(LoadCounterScript.COUNTS_VERSION_KEY,
+                        String.valueOf(LoadCounterScript.COUNTS_VERSION)).toCompletableFuture())
+                .thenAccept(v -> log.info("连接计数已重建: {}", counts));
+    }
+
+    private CompletableFuture<Void> countMapping(ScanCursor cursor, Map<String, Long> counts) {
+        return commands.hscan(CONNECTION_MAPPING, cursor, ScanArgs.Builder.limit(REMAP_WRITE_BATCH)).toCompletableFuture()
+                .thenCompose(page -> {
+                    for (String server : page.getMap().values()) {
+                        counts.merge(decode(server), 1L, Long::sum);
+                    }
+                    return page.isFinished() ? CompletableFuture.<Void>completedFuture(null) : countMapping(page, counts);
+                });
+    }
+
+    @Override
+    public CompletableFuture<LoadStats> getLoadStats() {
+        return getAllServers().thenCombine(commands.hgetall(CONNECTION_COUNTS).toCompletableFuture(),
+                (servers, stored) -> {
+                    Map<String, Long> counts = new HashMap<>();
+                    for (String server : servers) {
+                        String count = stored.get(server);
+                        counts.put(server, count != null ? Long.parseLong(count) : 0L);
+                    }
+                    return LoadStats.of(counts);
+                });
+    }
+
+    /**
+     * 获取本地哈希环，超过检查间隔时先异步比较版本号，版本变化才重新加载
+     */
+    private CompletableFuture<NavigableMap<Long, String>> ring(boolean force) {
+        if (!force && System.nanoTime() - lastVersionCheckNanos < versionCheckIntervalNanos) {
+            return CompletableFuture.completedFuture(localRing);
+        }
+
+        CompletableFuture<NavigableMap<Long, String>> existing = refreshing.get();
+        if (existing != null && !force) {
+            return existing;
+        }
+        CompletableFuture<NavigableMap<Long, String>> future = new CompletableFuture<>();
+        if (!force && !refreshing.compareAndSet(null, future)) {
+            CompletableFuture<NavigableMap<Long, String>> current = refreshing.get();
+            return current != null ? current : CompletableFuture.completedFuture(localRing);
+        }
+
+        commands.hget(HASH_RING_CONFIG, "version").toCompletableFuture()
+                .thenCompose(versionValue -> {
+                    long version = versionValue != null ? Long.parseLong(versionValue) : 0L;
+                    if (version == cacheVersion && !force) {
+                        return CompletableFuture.completedFuture(localRing);
+                    }
+                    return loadRing(version);
+                })
+                .whenComplete((ring, error) -> {
+                    lastVersionCheckNanos = System.nanoTime();
+                    refreshing.compareAndSet(future, null);
+                    if (error != null) {
+                        log.error("加载哈希环失败", error);
+                        future.complete(localRing);
+                    } else {
+                        future.complete(ring);
+                    }
+                });
+        return future;
+    }
+
+    private CompletableFuture<NavigableMap<Long, String>> loadRing(long version) {
+        return commands.zrangeWithScores(HASH_RING_NODES, 0, -1).toCompletableFuture().thenApply(ringData -> {
+            NavigableMap<Long, String> newRing = new ConcurrentSkipListMap<>();
+            for (ScoredValue<String> tuple : ringData) {
+                String virtualNode = decode(tuple.getValue());
+                String server = virtualNode.split("#")[0]; // 去掉虚拟节点后缀
+                newRing.put((long) tuple.getScore(), server);
+            }
+            this.localRing = newRing;
+            this.cacheVersion = version;
+            log.debug("哈希环已更新，版本: {}, 节点数: {}", version, newRing.size());
+            return newRing;
+        });
+    }
+
+    private String locate(NavigableMap<Long, String> ring, String key) {
+        if (ring.isEmpty()) {
+            return null;
+        }
+        long hash = hashFunction.hashString(key, StandardCharsets.UTF_8).asLong();
+        Map.Entry<Long, String> entry = ring.ceilingEntry(hash);
+        if (entry == null) {
+            entry = ring.firstEntry();
+        }
+        return entry.getValue();
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private ScoredValue<String>[] virtualNodeEntries(String server) {
+        ScoredValue<String>[] nodes = new ScoredValue[virtualNodes];
+        for (int i = 0; i < virtualNodes; i++) {
+            String virtualNode = server + "#" + i;
+            long hash = hashFunction.hashString(virtualNode, StandardCharsets.UTF_8).asLong();
+            nodes[i] = ScoredValue.just(hash, encode(virtualNode));
+        }
+        return nodes;
+    }
+
+    private CompletableFuture<Void> publishServerChangeEvent(String action, String server) {
+        Map<String, Object> event = new HashMap<>();
+        event.put("action", action);
+        event.put("server", server);
+        event.put("timestamp", System.currentTimeMillis());
+        return commands.publish(SERVER_CHANGE_CHANNEL, encode(event)).toCompletableFuture()
+                .handle((receivers, error) -> {
+                    if (error != null) {
+                        log.error("发布服务器变更事件失败", error);
+                    }
+                    return null;
+                });
+    }
+
+    private String encode(Object value) {
+        try {
+            return mapper.writeValueAsString(value);
+        } catch (JsonProcessingException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    private String decode(String value) {
+        try {
+            return String.valueOf(mapper.readValue(value, Object.class));
+        } catch (JsonProcessingException e) {
+            // 兼容未经JSON编码写入的值
+            return value;
+        }
+    }
+
+    /**
+     * 关闭连接，RedisClient由Spring管理
+     */
+    public void shutdown() {
+        connection.close();
+    }
+}
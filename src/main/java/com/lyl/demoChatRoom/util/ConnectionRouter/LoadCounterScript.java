@@ -0,0 +1,60 @@
+package com.lyl.demoChatRoom.util.ConnectionRouter;
+
+/**
+ * 写connection_mapping并同步维护connection_counts（服务器 -> 连接数）的Lua脚本，各Redis路由器共用
+ * 旧值在脚本内读取，并发写同一连接时计数也不会漂移。
+ * KEYS[1]为connection_mapping，KEYS[2]为connection_counts；
+ * ARGV按 连接, JSON编码的服务器 成对出现，服务器为空串表示删除该连接；返回实际变化的连接数。
+ * 计数只随脚本的写入增减，之前已有的映射要先按connection_mapping重建一次，否则删除时计数会变成负数；
+ * 重建后在connection_counts_version中记下COUNTS_VERSION，启动时版本不存在或较旧就重建
+ */
+final class LoadCounterScript {
+
+    static final String CONNECTION_MAPPING = "connection_mapping";
+    static final String CONNECTION_COUNTS = "connection_counts";
+    static final String COUNTS_VERSION_KEY = "connection_counts_version";
+    // 计数规则变化、需要所有部署重建计数时加一
+    static final int COUNTS_VERSION = 1;
+
+    static final String SOURCE =
+            "local function name(v)\n" +
+            "  local ok, r = pcall(cjson.decode, v)\n" +
+            "  if ok and type(r) == 'string' then return r end\n" +
+            "  return v\n" +
+            "end\n" +
+            "local changed = 0\n" +
+            "for i = 1, #ARGV, 2 do\n" +
+            "  local old = redis.call('HGET', KEYS[1], ARGV[i])\n" +
+            "  local new = ARGV[i + 1]\n" +
+            "  if new == '' then\n" +
+            "    if old then\n" +
+            "      redis.call('HDEL', KEYS[1], ARGV[i])\n" +
+            "      redis.call('HINCRBY', KEYS[2], name(old), -1)\n" +
+            "      changed = changed + 1\n" +
+            "    end\n" +
+            "  elseif old ~= new then\n" +
+            "    redis.call('HSET', KEYS[1], ARGV[i], new)\n" +
+            "    if old then redis.call('HINCRBY', KEYS[2], name(old), -1) end\n" +
+            "    redis.call('HINCRBY', KEYS[2], name(new), 1)\n" +
+            "    changed = changed + 1\n" +
+            "  end\n" +
+            "end\n" +
+            "return changed\n";
+
+    private LoadCounterScript() {
+    }
+
+    /**
+     * connection_counts_version中的值是否表示计数已按当前版本重建
+     */
+    static boolean isCurrent(Object version) {
+        if (version == null) {
+            return false;
+        }
+        try {
+            return Integer.parseInt(version.toString()) >= COUNTS_VERSION;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package com.lyl.demoChatRoom.util.ConnectionRouter;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * 各服务器的连接数统计，由路由器维护的计数器直接生成，不遍历连接
+ */
+public final class LoadStats {
+
+    private final Map<String, Long> counts;
+    private final long total;
+    private final long max;
+    private final long min;
+    private final double mean;
+    private final double stddev;
+
+    private LoadStats(Map<String, Long> counts) {
+        this.counts = Collections.unmodifiableMap(new TreeMap<>(counts));
+        long sum = 0;
+        long maxCount = 0;
+        long minCount = counts.isEmpty() ? 0 : Long.MAX_VALUE;
+        for (long count : counts.values()) {
+            sum += count;
+            maxCount = Math.max(maxCount, count);
+            minCount = Math.min(minCount, count);
+        }
+        this.total = sum;
+        this.max = maxCount;
+        this.min = minCount;
+        this.mean = counts.isEmpty() ? 0 : (double) sum / counts.size();
+        double variance = 0;
+        for (long count : counts.values()) {
+            variance += (count - mean) * (count - mean);
+        }
+        this.stddev = counts.isEmpty() ? 0 : Math.sqrt(variance / counts.size());
+    }
+
+    /**
+     * @param counts 服务器 -> 连接数，没有连接的服务器也应包含（计为0）
+     */
+    public static LoadStats of(Map<String, Long> counts) {
+        return new LoadStats(counts);
+    }
+
+    /**
+     * 服务器 -> 连接数，按服务器名排序
+     */
+    public Map<String, Long> getCounts() {
+        return counts;
+    }
+
+    public int getServers() {
+        return counts.size();
+    }
+
+    public long getTotal() {
+        return total;
+    }
+
+    public long getMax() {
+        return max;
+    }
+
+    public long getMin() {
+        return min;
+    }
+
+    public double getMean() {
+        return mean;
+    }
+
+    public double getStddev() {
+        return stddev;
+    }
+
+    /**
+     * 不均衡度：最大连接数 / 平均连接数，完全均衡时为1
+     */
+    public double getImbalance() {
+        return mean == 0 ? 0 : max / mean;
+    }
+
+    /**
+     * 连接数最少的服务器，排除exclude；没有可选服务器时返回null
+     */
+    public String leastLoaded(String exclude) {
+        String best = null;
+        long least = Long.MAX_VALUE;
+        for (Map.Entry<String, Long> entry : counts.entrySet()) {
+            if (!entry.getKey().equals(exclude) && entry.getValue() < least) {
+                least = entry.getValue();
+                best = entry.getKey();
+            }
+        }
+        return best;
+    }
+}
@@ -0,0 +1,90 @@
+package com.lyl.demoChatRoom.util.ConnectionRouter;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * 同步路由器的非阻塞包装
+ * 所有调用在RouterExecutor上执行，结果可通过IAsyncConnectionRouter.onEventLoop切回连接所属的EventLoop处理
+ */
+public class NonBlockingRouter implements IAsyncConnectionRouter {
+
+    private final IConnectionRouter router;
+    private final RouterExecutor executor;
+
+    public NonBlockingRouter(IConnectionRouter router, RouterExecutor executor) {
+        this.router = router;
+        this.executor = executor;
+    }
+
+    @Override
+    public CompletableFuture<String> addUser(String userId) {
+        return executor.submit(() -> router.addUser(userId));
+    }
+
+    @Override
+    public CompletableFuture<Void> removeUser(String userId) {
+        return executor.submit(() -> {
+            router.removeUser(userId);
+            return null;
+        });
+    }
+
+    @Override
+    public CompletableFuture<String> addService(String serviceId) {
+        return executor.submit(() -> router.addService(serviceId));
+    }
+
+    @Override
+    public CompletableFuture<String> getServerForUser(String userId) {
+        return executor.submit(() -> router.getServerForUser(userId));
+    }
+
+    @Override
+    public CompletableFuture<String> getServerForService(String serviceId) {
+        return executor.submit(() -> router.getServerForService(serviceId));
+    }
+
+    @Override
+    public CompletableFuture<String> addRoomMember(String roomId, String userId) {
+        return executor.submit(() -> router.addRoomMember(roomId, userId));
+    }
+
+    @Override
+    public CompletableFuture<Void> removeRoomMember(String roomId, String userId) {
+        return executor.submit(() -> {
+            router.removeRoomMember(roomId, userId);
+            return null;
+        });
+    }
+
+    @Override
+    public CompletableFuture<String> getServerForRoom(String roomId) {
+        return executor.submit(() -> router.getServerForRoom(roomId));
+    }
+
+    @Override
+    public CompletableFuture<List<String>> addServer(String server) {
+        return executor.submit(() -> router.addServer(server));
+    }
+
+    @Override
+    public CompletableFuture<List<String>> removeServer(String server) {
+        return executor.submit(() -> router.removeServer(server));
+    }
+
+    @Override
+    public CompletableFuture<Set<String>> getAllServers() {
+        return executor.submit(router::getAllServers);
+    }
+
+    @Override
+    public CompletableFuture<LoadStats> getLoadStats() {
+        return executor.submit(router::getLoadStats);
+    }
+
+    public IConnectionRouter getRouter() {
+        return router;
+    }
+}
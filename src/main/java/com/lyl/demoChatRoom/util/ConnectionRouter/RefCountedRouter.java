@@ -0,0 +1,126 @@
+package com.lyl.demoChatRoom.util.ConnectionRouter;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+/**
+ * 按本节点的连接数登记路由
+ * 同一用户（或同一房间成员）在本节点上的多个连接（多个标签页）共用一份登记：第一个连接登记，最后一个连接关闭时才注销；
+ * 同一key的登记和注销按调用顺序串行执行，连接很快关闭时注销也不会跑到还没完成的登记前面
+ */
+public class RefCountedRouter implements IAsyncConnectionRouter {
+
+    private final IAsyncConnectionRouter router;
+    // key -> 本节点上的登记，访问时锁this
+    private final Map<String, Lease> leases = new HashMap<>();
+
+    public RefCountedRouter(IAsyncConnectionRouter router) {
+        this.router = router;
+    }
+
+    @Override
+    public CompletableFuture<String> addUser(String userId) {
+        return acquire("user:" + userId, () -> router.addUser(userId));
+    }
+
+    @Override
+    public CompletableFuture<Void> removeUser(String userId) {
+        return release("user:" + userId, () -> router.removeUser(userId));
+    }
+
+    @Override
+    public CompletableFuture<String> addService(String serviceId) {
+        return router.addService(serviceId);
+    }
+
+    @Override
+    public CompletableFuture<String> getServerForUser(String userId) {
+        return router.getServerForUser(userId);
+    }
+
+    @Override
+    public CompletableFuture<String> getServerForService(String serviceId) {
+        return router.getServerForService(serviceId);
+    }
+
+    @Override
+    public CompletableFuture<String> addRoomMember(String roomId, String userId) {
+        return acquire(RoomPlacement.memberKey(roomId, userId), () -> router.addRoomMember(roomId, userId));
+    }
+
+    @Override
+    public CompletableFuture<Void> removeRoomMember(String roomId, String userId) {
+        return release(RoomPlacement.memberKey(roomId, userId), () -> router.removeRoomMember(roomId, userId));
+    }
+
+    @Override
+    public CompletableFuture<String> getServerForRoom(String roomId) {
+        return router.getServerForRoom(roomId);
+    }
+
+    @Override
+    public CompletableFuture<List<String>> addServer(String server) {
+        return router.addServer(server);
+    }
+
+    @Override
+    public CompletableFuture<List<String>> removeServer(String server) {
+        return router.removeServer(server);
+    }
+
+    @Override
+    public CompletableFuture<Set<String>> getAllServers() {
+        return router.getAllServers();
+    }
+
+    @Override
+    public CompletableFuture<LoadStats> getLoadStats() {
+        return router.getLoadStats();
+    }
+
+    /**
+     * 第一个连接排在该key上一次注销之后登记，其余连接共用登记结果
+     */
+    private synchronized CompletableFuture<String> acquire(String key, Supplier<CompletableFuture<String>> add) {
+        Lease lease = leases.computeIfAbsent(key, k -> new Lease());
+        if (lease.refs++ == 0) {
+            lease.server = lease.tail.handle((v, error) -> null).thenCompose(v -> add.get());
+            lease.tail = lease.server;
+        }
+        return lease.server;
+    }
+
+    /**
+     * 最后一个连接排在登记完成（无论成败）之后注销
+     */
+    private synchronized CompletableFuture<Void> release(String key, Supplier<CompletableFuture<Void>> remove) {
+        Lease lease = leases.get(key);
+        if (lease == null || lease.refs == 0 || --lease.refs > 0) {
+            return CompletableFuture.completedFuture(null);
+        }
+        CompletableFuture<Void> removed = lease.tail.handle((v, error) -> null).thenCompose(v -> remove.get());
+        lease.tail = removed;
+        removed.whenComplete((v, error) -> forget(key, lease, removed));
+        return removed;
+    }
+
+    private synchronized void forget(String key, Lease lease, CompletableFuture<?> removed) {
+        // 注销期间又有连接登记时保留
+        if (lease.refs == 0 && lease.tail == removed) {
+            leases.remove(key, lease);
+        }
+    }
+
+    /**
+     * 本节点上的连接数和最近一次登记，tail为该key最后一个排队的操作
+     */
+    private static final class Lease {
+        int refs;
+        CompletableFuture<String> server;
+        CompletableFuture<?> tail = CompletableFuture.completedFuture(null);
+    }
+}
@@ -0,0 +1,135 @@
+package com.lyl.demoChatRoom.util.ConnectionRouter;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.function.Predicate;
+
+/**
+ * 房间亲和路由的放置规则，各路由器共用
+ * 房间的候选节点是从房间哈希位置开始顺时针遇到的前maxNodes个不同服务器，序号0为主节点；
+ * 成员加入时按序号找第一个成员数未满的槽位，都满了就放到人数最少的槽位，
+ * 所以小房间全部在主节点上，大房间最多分散到maxNodes个节点。
+ * 热点房间（消息或加入速率高）不等主节点住满，新成员直接放到人数最少的槽位，尽早分散到所有候选节点
+ */
+public class RoomPlacement {
+
+    /**
+     * connection_mapping中房间成员的key前缀，完整格式为 room:房间ID:用户ID（房间ID不能包含冒号）
+     */
+    public static final String ROOM_PREFIX = "room:";
+
+    private final int capacityPerNode;
+    private final int maxNodes;
+    // 热点房间判断，由流量统计设置，为null时不区分
+    private volatile Predicate<String> hotRooms;
+
+    /**
+     * @param capacityPerNode 每个节点上同一房间的成员数上限，超过后溢出到下一个节点
+     * @param maxNodes        一个房间最多使用的节点数
+     */
+    public RoomPlacement(int capacityPerNode, int maxNodes) {
+        this.capacityPerNode = capacityPerNode;
+        this.maxNodes = Math.max(1, maxNodes);
+    }
+
+    public RoomPlacement() {
+        this(5000, 3);
+    }
+
+    /**
+     * 房间在哈希环上的key
+     */
+    public static String roomKey(String roomId) {
+        return ROOM_PREFIX + roomId;
+    }
+
+    /**
+     * 房间成员在connection_mapping中的key
+     */
+    public static String memberKey(String roomId, String userId) {
+        return ROOM_PREFIX + roomId + ":" + userId;
+    }
+
+    /**
+     * 从成员key中取出房间ID，不是房间成员key时返回null
+     */
+    public static String roomOf(String connection) {
+        if (!connection.startsWith(ROOM_PREFIX)) {
+            return null;
+        }
+        int separator = connection.indexOf(':', ROOM_PREFIX.length());
+        return separator < 0 ? null : connection.substring(ROOM_PREFIX.length(), separator);
+    }
+
+    /**
+     * 从成员key中取出用户ID
+     */
+    public static String userOf(String connection) {
+        return connection.substring(connection.indexOf(':', ROOM_PREFIX.length()) + 1);
+    }
+
+    /**
+     * 房间的候选节点，按槽位顺序
+     */
+    public List<String> servers(NavigableMap<Long, String> ring, long roomHash) {
+        Set<String> servers = new LinkedHashSet<>();
+        for (String server : ring.tailMap(roomHash, true).values()) {
+            if (servers.add(server) && servers.size() == maxNodes) {
+                return new ArrayList<>(servers);
+            }
+        }
+        // 到环尾后从头继续
+        for (String server : ring.headMap(roomHash, false).values()) {
+            if (servers.add(server) && servers.size() == maxNodes) {
+                break;
+            }
+        }
+        return new ArrayList<>(servers);
+    }
+
+    /**
+     * 槽位对应的服务器，节点数少于槽位数时轮流复用
+     */
+    public String server(NavigableMap<Long, String> ring, long roomHash, int slot) {
+        List<String> servers = servers(ring, roomHash);
+        return servers.isEmpty() ? null : servers.get(slot % servers.size());
+    }
+
+    /**
+     * 为新成员选择槽位
+     * @param liveCounts 槽位 -> 当前成员数
+     */
+    public int chooseSlot(String roomId, Map<Integer, Long> liveCounts) {
+        Predicate<String> hot = hotRooms;
+        boolean spread = hot != null && hot.test(roomId);
+        int leastSlot = 0;
+        long least = Long.MAX_VALUE;
+        for (int slot = 0; slot < maxNodes; slot++) {
+            long count = liveCounts.getOrDefault(slot, 0L);
+            if (!spread && count < capacityPerNode) {
+                return slot;
+            }
+            if (count < least) {
+                least = count;
+                leastSlot = slot;
+            }
+        }
+        return leastSlot;
+    }
+
+    public void setHotRooms(Predicate<String> hotRooms) {
+        this.hotRooms = hotRooms;
+    }
+
+    public int getCapacityPerNode() {
+        return capacityPerNode;
+    }
+
+    public int getMaxNodes() {
+        return maxNodes;
+    }
+}
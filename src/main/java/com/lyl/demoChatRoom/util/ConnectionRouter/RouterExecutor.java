@@ -0,0 +1,109 @@
+package com.lyl.demoChatRoom.util.ConnectionRouter;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * 执行阻塞路由调用（Redis）的专用有界线程池
+ * 运行在JDK 21+时使用虚拟线程，并用信号量限制并发；否则使用固定大小的平台线程池和有界队列。
+ * 超出容量的任务直接失败，调用方（通常是EventLoop）永远不会被阻塞
+ */
+public class RouterExecutor {
+
+    private static final Logger log = LoggerFactory.getLogger(RouterExecutor.class);
+
+    private final ExecutorService executor;
+    private final Semaphore permits;
+    private final boolean virtualThreads;
+
+    /**
+     * @param threads              平台线程数（不支持虚拟线程时）
+     * @param queueCapacity        平台线程池的等待队列长度
+     * @param maxConcurrency       虚拟线程模式下的最大并发任务数
+     * @param preferVirtualThreads 是否优先使用虚拟线程
+     */
+    public RouterExecutor(int threads, int queueCapacity, int maxConcurrency, boolean preferVirtualThreads) {
+        ExecutorService virtual = preferVirtualThreads ? newVirtualThreadExecutor() : null;
+        if (virtual != null) {
+            this.executor = virtual;
+            this.permits = new Semaphore(maxConcurrency);
+            this.virtualThreads = true;
+        } else {
+            AtomicInteger index = new AtomicInteger();
+            this.executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<>(queueCapacity),
+                    r -> {
+                        Thread t = new Thread(r, "router-" + index.incrementAndGet());
+                        t.setDaemon(true);
+                        return t;
+                    },
+                    new ThreadPoolExecutor.AbortPolicy());
+            this.permits = null;
+            this.virtualThreads = false;
+        }
+        log.info("路由执行器已创建，虚拟线程: {}", virtualThreads);
+    }
+
+    /**
+     * 异步执行阻塞调用
+     */
+    public <T> CompletableFuture<T> submit(Supplier<T> call) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        if (permits != null && !permits.tryAcquire()) {
+            future.completeExceptionally(new RejectedExecutionException("路由执行器已满"));
+            return future;
+        }
+        try {
+            executor.execute(() -> {
+                try {
+                    future.complete(call.get());
+                } catch (Throwable e) {
+                    future.completeExceptionally(e);
+                } finally {
+                    if (permits != null) {
+                        permits.release();
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            if (permits != null) {
+                permits.release();
+            }
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    public boolean isVirtualThreads() {
+        return virtualThreads;
+    }
+
+    public void shutdown() {
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(5, TimeUnit.SECONDS)) {
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * 通过反射创建虚拟线程执行器，编译目标仍为Java 8
+     */
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) method.invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+}
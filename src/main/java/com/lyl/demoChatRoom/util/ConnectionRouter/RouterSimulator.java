@@ -0,0 +1,126 @@
+package com.lyl.demoChatRoom.util.ConnectionRouter;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 离线容量规划模拟器
+ * 不需要Redis，对任意IConnectionRouter回放脚本中的服务器变更和用户增长，每一步输出一行CSV。
+ *
+ * 脚本每行一个事件，#开头为注释：
+ * <pre>
+ * add s1            添加服务器
+ * remove s1         移除服务器
+ * weight s1 2.0     调整服务器权重（路由器需实现WeightedRouter）
+ * users 1000000     新增合成用户
+ * services 1000     新增合成客服
+ * </pre>
+ * millis只统计事件本身的耗时，不含负载统计
+ */
+public class RouterSimulator {
+
+    private static final String HEADER =
+            "step,event,server,value,servers,connections,migrated,migrated_pct,mean,stddev,max,min,max_mean,millis";
+
+    private final IConnectionRouter router;
+    private final PrintStream out;
+
+    // 已生成的合成用户和客服数，用作下一个ID
+    private long users;
+    private long services;
+
+    public RouterSimulator(IConnectionRouter router, PrintStream out) {
+        this.router = router;
+        this.out = out;
+    }
+
+    public void run(String scriptFile) throws IOException {
+        run(Files.readAllLines(Paths.get(scriptFile), StandardCharsets.UTF_8));
+    }
+
+    public void run(List<String> script) {
+        out.println(HEADER);
+        int step = 0;
+        for (String raw : script) {
+            String line = raw.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            step++;
+            String[] parts = line.split("\\s+");
+            try {
+                execute(step, parts);
+            } catch (RuntimeException e) {
+                throw new IllegalArgumentException("第" + step + "步执行失败: " + line, e);
+            }
+        }
+        out.flush();
+    }
+
+    private void execute(int step, String[] parts) {
+        String event = parts[0].toLowerCase(Locale.ROOT);
+        String server = "";
+        String value = "";
+        int migrated = 0;
+
+        long start = System.nanoTime();
+        switch (event) {
+            case "add":
+                server = argument(parts, 1);
+                migrated = router.addServer(server).size();
+                break;
+            case "remove":
+                server = argument(parts, 1);
+                migrated = router.removeServer(server).size();
+                break;
+            case "weight":
+                if (!(router instanceof WeightedRouter)) {
+                    throw new IllegalArgumentException(router.getClass().getSimpleName() + "不支持权重");
+                }
+                server = argument(parts, 1);
+                value = argument(parts, 2);
+                migrated = ((WeightedRouter) router).setServerWeight(server, Double.parseDouble(value)).size();
+                break;
+            case "users":
+                value = argument(parts, 1);
+                for (long n = Long.parseLong(value); n > 0; n--) {
+                    router.addUser("sim-" + users++);
+                }
+                break;
+            case "services":
+                value = argument(parts, 1);
+                for (long n = Long.parseLong(value); n > 0; n--) {
+                    router.addService("sim-" + services++);
+                }
+                break;
+            default:
+                throw new IllegalArgumentException("未知事件: " + event);
+        }
+        long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        report(step, event, server, value, migrated, millis);
+    }
+
+    private void report(int step, String event, String server, String value, int migrated, long millis) {
+        LoadStats stats = router.getLoadStats();
+        long total = stats.getTotal();
+
+        out.printf(Locale.ROOT, "%d,%s,%s,%s,%d,%d,%d,%.4f,%.2f,%.2f,%d,%d,%.4f,%d%n",
+                step, event, server, value, stats.getServers(), total, migrated,
+                total == 0 ? 0 : 100.0 * migrated / total,
+                stats.getMean(), stats.getStddev(), stats.getMax(), stats.getMin(), stats.getImbalance(), millis);
+    }
+
+    private static String argument(String[] parts, int index) {
+        if (parts.length <= index) {
+            throw new IllegalArgumentException("缺少参数: " + String.join(" ", parts));
+        }
+        return parts[index];
+    }
+}
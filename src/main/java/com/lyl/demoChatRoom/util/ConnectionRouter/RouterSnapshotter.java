@@ -0,0 +1,305 @@
+package com.lyl.demoChatRoom.util.ConnectionRouter;
+
+import com.google.common.base.Utf8;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * ConsistentHashRouter的快照
+ * 把哈希环和连接映射写入内存映射文件，重启时先校验并恢复哈希环（大小只和服务器数有关），
+ * 立即可以提供路由；连接映射在后台线程校验后恢复，恢复时间不影响启动。
+ *
+ * 文件格式（大端）：
+ * <pre>
+ * 头部 40字节: magic int | version int | virtualNodes int | ring段长度 int | connections段长度 long
+ *             | ring段CRC32 long | connections段CRC32 long
+ * ring段:      服务器数 int, [长度 short, UTF-8]... | 环节点数 int, [hash long, 服务器序号 int]...
+ * connections段: 连接数 int, [长度 short, UTF-8 key, 服务器序号 int, 房间槽位 int(-1表示不是房间成员)]...
+ * </pre>
+ * 快照是模糊快照：写入期间路由器仍可修改，恢复时以当前状态为准
+ */
+public class RouterSnapshotter {
+
+    private static final Logger log = LoggerFactory.getLogger(RouterSnapshotter.class);
+
+    private static final int MAGIC = 0x43485253; // "CHRS"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 40;
+
+    private final ConsistentHashRouter router;
+    private final Path file;
+    private ScheduledExecutorService scheduler;
+
+    public RouterSnapshotter(ConsistentHashRouter router, Path file) {
+        this.router = router;
+        this.file = file;
+    }
+
+    /**
+     * 开始定时快照
+     */
+    public synchronized void start(long intervalMillis) {
+        if (scheduler != null) {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "router-snapshot");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                snapshot();
+            } catch (Exception e) {
+                log.error("路由快照失败: {}", file, e);
+            }
+        }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 停止定时快照并写最后一次
+     */
+    public synchronized void shutdown() {
+        if (scheduler != null) {
+            scheduler.shutdown();
+            try {
+                scheduler.awaitTermination(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            scheduler = null;
+        }
+        try {
+            snapshot();
+        } catch (IOException e) {
+            log.error("关闭时路由快照失败: {}", file, e);
+        }
+    }
+
+    /**
+     * 写一次快照：先写临时文件再原子替换，写到一半崩溃不会破坏旧快照
+     */
+    public synchronized void snapshot() throws IOException {
+        long start = System.nanoTime();
+
+        // 先复制出一致长度的数组，避免计算大小和写入之间集合变化
+        Map<String, Integer> serverIndex = new LinkedHashMap<>();
+        List<Map.Entry<Long, String>> ringEntries = new ArrayList<>(router.ring().entrySet());
+        for (Map.Entry<Long, String> entry : ringEntries) {
+            serverIndex.putIfAbsent(entry.getValue(), serverIndex.size());
+        }
+        Map<String, Integer> slots = router.roomMemberSlots();
+        List<String> keys = new ArrayList<>(router.connections().size());
+        List<String> servers = new ArrayList<>(router.connections().size());
+        for (Map.Entry<String, String> entry : router.connections().entrySet()) {
+            keys.add(entry.getKey());
+            servers.add(entry.getValue());
+            serverIndex.putIfAbsent(entry.getValue(), serverIndex.size());
+        }
+
+        long ringSize = 4 + 4 + ringEntries.size() * 12L;
+        for (String server : serverIndex.keySet()) {
+            ringSize += 2 + checkedLength(server);
+        }
+        long connectionsSize = 4;
+        for (String key : keys) {
+            connectionsSize += 2 + checkedLength(key) + 8;
+        }
+        long total = HEADER_SIZE + ringSize + connectionsSize;
+        if (total > Integer.MAX_VALUE) {
+            throw new IOException("快照超过2GB: " + total);
+        }
+
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder();
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, total);
+
+            buffer.position(HEADER_SIZE);
+            buffer.putInt(serverIndex.size());
+            for (String server : serverIndex.keySet()) {
+                putString(buffer, encoder, server);
+            }
+            buffer.putInt(ringEntries.size());
+            for (Map.Entry<Long, String> entry : ringEntries) {
+                buffer.putLong(entry.getKey());
+                buffer.putInt(serverIndex.get(entry.getValue()));
+            }
+
+            buffer.putInt(keys.size());
+            for (int i = 0; i < keys.size(); i++) {
+                putString(buffer, encoder, keys.get(i));
+                buffer.putInt(serverIndex.get(servers.get(i)));
+                Integer slot = slots.get(keys.get(i));
+                buffer.putInt(slot != null ? slot : -1);
+            }
+
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(4, VERSION);
+            buffer.putInt(8, router.getVirtualNodes());
+            buffer.putInt(12, (int) ringSize);
+            buffer.putLong(16, connectionsSize);
+            buffer.putLong(24, crc(buffer, HEADER_SIZE, (int) ringSize));
+            buffer.putLong(32, crc(buffer, HEADER_SIZE + (int) ringSize, (int) connectionsSize));
+            buffer.force();
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        log.info("路由快照完成: {}, 环节点 {}, 连接 {}, 耗时 {}ms", file, ringEntries.size(), keys.size(),
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+
+    /**
+     * 从快照恢复路由器
+     * 返回时哈希环已恢复，连接映射在后台线程恢复，完成后Restored.connections结束（值为恢复的连接数）
+     * @throws IOException 文件不存在、格式或版本不符、哈希环校验失败
+     */
+    public static Restored restore(Path file) throws IOException {
+        long start = System.nanoTime();
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            // 映射在通道关闭后仍然有效
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+            throw new IOException("不是路由快照文件: " + file);
+        }
+        if (buffer.getInt(4) != VERSION) {
+            throw new IOException("不支持的快照版本: " + buffer.getInt(4));
+        }
+        int virtualNodes = buffer.getInt(8);
+        int ringSize = buffer.getInt(12);
+        long connectionsSize = buffer.getLong(16);
+        if (HEADER_SIZE + ringSize + connectionsSize != buffer.capacity()) {
+            throw new IOException("快照长度不符: " + file);
+        }
+        if (crc(buffer, HEADER_SIZE, ringSize) != buffer.getLong(24)) {
+            throw new IOException("哈希环校验失败: " + file);
+        }
+
+        // 同步恢复哈希环
+        ByteBuffer ring = slice(buffer, HEADER_SIZE, ringSize);
+        String[] servers = new String[ring.getInt()];
+        for (int i = 0; i < servers.length; i++) {
+            servers[i] = getString(ring);
+        }
+        Map<Long, String> entries = new HashMap<>();
+        for (int i = ring.getInt(); i > 0; i--) {
+            entries.put(ring.getLong(), servers[ring.getInt()]);
+        }
+        ConsistentHashRouter router = new ConsistentHashRouter(virtualNodes);
+        router.restoreRing(entries);
+        int ringVersion = router.getRingVersion();
+        log.info("哈希环已从快照恢复: 环节点 {}, 耗时 {}ms", entries.size(),
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+
+        // 后台校验并恢复连接映射
+        ByteBuffer connections = slice(buffer, HEADER_SIZE + ringSize, (int) connectionsSize);
+        long expectedCrc = buffer.getLong(32);
+        CompletableFuture<Integer> restored = CompletableFuture.supplyAsync(() -> {
+            long begin = System.nanoTime();
+            if (crc(connections, 0, connections.capacity()) != expectedCrc) {
+                throw new IllegalStateException("连接映射校验失败: " + file);
+            }
+            int count = connections.getInt();
+            for (int i = 0; i < count; i++) {
+                String key = getString(connections);
+                String server = servers[connections.getInt()];
+                int slot = connections.getInt();
+                router.restoreConnection(key, server, slot, ringVersion);
+            }
+            log.info("连接映射已从快照恢复: {}个, 耗时 {}ms", count,
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin));
+            return count;
+        }, command -> {
+            Thread thread = new Thread(command, "router-restore");
+            thread.setDaemon(true);
+            thread.start();
+        });
+        return new Restored(router, restored);
+    }
+
+    private static int checkedLength(String value) throws IOException {
+        int length = Utf8.encodedLength(value);
+        if (length > 0xFFFF) {
+            throw new IOException("key过长: " + value.substring(0, 32) + "...");
+        }
+        return length;
+    }
+
+    private static void putString(ByteBuffer buffer, CharsetEncoder encoder, String value) {
+        int lengthPosition = buffer.position();
+        buffer.position(lengthPosition + 2);
+        encoder.reset();
+        encoder.encode(CharBuffer.wrap(value), buffer, true);
+        encoder.flush(buffer);
+        buffer.putShort(lengthPosition, (short) (buffer.position() - lengthPosition - 2));
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        int length = buffer.getShort() & 0xFFFF;
+        String value;
+        if (buffer.hasArray()) {
+            value = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length, StandardCharsets.UTF_8);
+        } else {
+            byte[] bytes = new byte[length];
+            buffer.duplicate().get(bytes);
+            value = new String(bytes, StandardCharsets.UTF_8);
+        }
+        buffer.position(buffer.position() + length);
+        return value;
+    }
+
+    private static ByteBuffer slice(ByteBuffer buffer, int offset, int length) {
+        ByteBuffer duplicate = buffer.duplicate();
+        duplicate.position(offset);
+        duplicate.limit(offset + length);
+        return duplicate.slice();
+    }
+
+    private static long crc(ByteBuffer buffer, int offset, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(slice(buffer, offset, length));
+        return crc.getValue();
+    }
+
+    /**
+     * 恢复结果：路由器已可用，connections为后台恢复连接映射的进度
+     */
+    public static class Restored {
+        private final ConsistentHashRouter router;
+        private final CompletableFuture<Integer> connections;
+
+        Restored(ConsistentHashRouter router, CompletableFuture<Integer> connections) {
+            this.router = router;
+            this.connections = connections;
+        }
+
+        public ConsistentHashRouter getRouter() {
+            return router;
+        }
+
+        public CompletableFuture<Integer> getConnections() {
+            return connections;
+        }
+    }
+}
@@ -1,18 +1,37 @@
 package com.lyl.demoChatRoom.util.ConnectionRouter;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
 import com.google.common.hash.HashFunction;
 import com.google.common.hash.Hashing;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.HashOperations;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisOperations;
 import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.SessionCallback;
 import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.data.redis.serializer.GenericToStringSerializer;
+import org.springframework.data.redis.serializer.StringRedisSerializer;
 
 import java.nio.charset.StandardCharsets;
 import java.util.*;
 import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.stream.Collectors;
 
 /**
@@ -25,11 +44,26 @@ public class StatelessConsistentHashRouter implements IConnectionRouter {
     // Redis键名常量
     private static final String HASH_RING_NODES = "hash_ring:nodes";
     private static final String IM_SERVERS = "im_servers";
-    private static final String CONNECTION_MAPPING = "connection_mapping";
+    private static final String CONNECTION_MAPPING = LoadCounterScript.CONNECTION_MAPPING;
+    // 服务器 -> 连接数，与connection_mapping由同一个Lua脚本更新
+    private static final String CONNECTION_COUNTS = LoadCounterScript.CONNECTION_COUNTS;
     private static final String HASH_RING_CONFIG = "hash_ring:config";
     private static final String SERVER_CHANGE_CHANNEL = "im_server_changes";
+    // 房间元数据：room_meta:房间ID 为 槽位->成员数，room_members:房间ID 为 用户ID->槽位
+    private static final String ROOM_META_PREFIX = "room_meta:";
+    private static final String ROOM_MEMBERS_PREFIX = "room_members:";
+    // 迁移时一条HSET携带的最大字段数
+    private static final int MIGRATION_WRITE_BATCH = 1000;
+    // 迁移计算中单个fork-join任务直接处理的最大连接数
+    private static final int RELOCATE_THRESHOLD = 1024;
+
+    private static final RedisScript<Long> COUNTED_WRITE = new DefaultRedisScript<>(LoadCounterScript.SOURCE, Long.class);
+    private static final List<String> COUNTED_WRITE_KEYS = Arrays.asList(CONNECTION_MAPPING, CONNECTION_COUNTS);
+    private static final StringRedisSerializer STRING_SERIALIZER = StringRedisSerializer.UTF_8;
     
     private final RedisTemplate<String, Object> redisTemplate;
+    // 脚本参数手工编码，与值序列化器保持一致
+    private final ObjectMapper mapper = RouterRedisTemplates.newObjectMapper();
     private final HashFunction hashFunction;
     private final int virtualNodes;
     
@@ -37,16 +71,42 @@ public class StatelessConsistentHashRouter implements IConnectionRouter {
     private volatile NavigableMap<Long, String> localRing = new ConcurrentSkipListMap<>();
     private volatile long cacheVersion = -1;
     private final ScheduledExecutorService scheduler;
+
+    // 近端缓存：key -> 分配结果，带哈希环版本，版本变化后旧条目自然失效
+    private final Cache<String, Assignment> nearCache;
+    private final long versionCheckIntervalNanos;
+    private volatile long lastVersionCheckNanos;
+    // 取到了但版本已过期的条目，统计时按未命中计算
+    private final LongAdder staleHits = new LongAdder();
+
+    private volatile RoomPlacement roomPlacement = new RoomPlacement();
+    private volatile int migrationChunkSize = 10_000;
+    private volatile long roomTtlSeconds = TimeUnit.DAYS.toSeconds(1);
     
     public StatelessConsistentHashRouter(RedisTemplate<String, Object> redisTemplate) {
         this(redisTemplate, 150);
     }
     
     public StatelessConsistentHashRouter(RedisTemplate<String, Object> redisTemplate, int virtualNodes) {
+        this(redisTemplate, virtualNodes, 100_000, 1000);
+    }
+
+    /**
+     * @param nearCacheSize              近端缓存最多保存的key数
+     * @param versionCheckIntervalMillis 查询路径上两次检查哈希环版本的最小间隔
+     */
+    public StatelessConsistentHashRouter(RedisTemplate<String, Object> redisTemplate, int virtualNodes,
+                                         long nearCacheSize, long versionCheckIntervalMillis) {
         this.redisTemplate = redisTemplate;
         this.hashFunction = Hashing.murmur3_128();
         this.virtualNodes = virtualNodes;
         this.scheduler = Executors.newScheduledThreadPool(1);
+        this.nearCache = CacheBuilder.newBuilder()
+                .maximumSize(nearCacheSize)
+                .recordStats()
+                .build();
+        this.versionCheckIntervalNanos = TimeUnit.MILLISECONDS.toNanos(versionCheckIntervalMillis);
+        this.lastVersionCheckNanos = System.nanoTime();
         
         // 初始化配置
         initializeConfig();
@@ -71,6 +131,10 @@ public class StatelessConsistentHashRouter implements IConnectionRouter {
                 config.put("version", 0);
                 redisTemplate.opsForHash().putAll(HASH_RING_CONFIG, config);
             }
+            // 计数器不存在或版本较旧时（升级前写入的映射没有计入），按现有映射重建一次
+            if (!LoadCounterScript.isCurrent(redisTemplate.opsForValue().get(LoadCounterScript.COUNTS_VERSION_KEY))) {
+                rebuildLoadCounters();
+            }
         } catch (Exception e) {
             log.error("初始化配置失败", e);
         }
@@ -81,6 +145,17 @@ public class StatelessConsistentHashRouter implements IConnectionRouter {
         return getServer("user:" + userId);
     }
     
+    @Override
+    public void removeUser(String userId) {
+        String key = "user:" + userId;
+        try {
+            redisTemplate.execute(COUNTED_WRITE, STRING_SERIALIZER, new GenericToStringSerializer<>(Long.class),
+                    COUNTED_WRITE_KEYS, key, "");
+        } catch (Exception e) {
+            log.error("移除用户映射失败: {}", userId, e);
+        }
+    }
+    
     @Override
     public String addService(String serviceId) {
         return getServer("customer_service:" + serviceId);
@@ -97,41 +172,154 @@ public class StatelessConsistentHashRouter implements IConnectionRouter {
     }
 
     private String getServer(String key, boolean isUpdateToRedis) {
-        // 确保本地缓存是最新的
-        refreshCacheIfNeeded();
-        
-        if (localRing.isEmpty()) {
-            return null;
+        // 确保本地缓存是最新的（按间隔检查版本，不是每次都访问Redis）
+        refreshCacheIfStale();
+
+        long version = cacheVersion;
+        Assignment cached = nearCache.getIfPresent(key);
+        String server;
+        if (cached != null && cached.version == version) {
+            server = cached.server;
+        } else {
+            if (cached != null) {
+                staleHits.increment();
+            }
+            server = findServerForConnection(key);
+            if (server == null) {
+                return null;
+            }
+            nearCache.put(key, new Assignment(server, version));
         }
-        
-        long hash = hashFunction.hashString(key, StandardCharsets.UTF_8).asLong();
-        
-        // 查找顺时针方向第一个节点
-        Map.Entry<Long, String> entry = localRing.ceilingEntry(hash);
-        if (entry == null) {
-            entry = localRing.firstEntry();
+
+        // 只有登记用户时才写入连接映射，查询不修改Redis；
+        // 映射可能已被其他节点或人工清理删除，登记时总是写入（脚本对相同的值不做修改）
+        if (isUpdateToRedis) {
+            cacheConnectionMapping(key, server);
         }
-        
-        String server = entry.getValue();
-        
-        // 缓存连接映射
-        cacheConnectionMapping(key, server);
-        
         return server;
     }
 
     private String getServer(String key) {
         return getServer(key, true);
     }
+
+    @Override
+    public String addRoomMember(String roomId, String userId) {
+        refreshCacheIfStale();
+        String membersKey = ROOM_MEMBERS_PREFIX + roomId;
+        Object slotObj = redisTemplate.opsForHash().get(membersKey, userId);
+        int slot;
+        if (slotObj != null) {
+            slot = Integer.parseInt(slotObj.toString());
+        } else {
+            // 按各槽位当前人数选择槽位；并发加入时可能略微超过容量
+            slot = roomPlacement.chooseSlot(roomId, slotCounts(roomId));
+            if (redisTemplate.opsForHash().putIfAbsent(membersKey, userId, slot)) {
+                redisTemplate.opsForHash().increment(ROOM_META_PREFIX + roomId, String.valueOf(slot), 1);
+            } else {
+                slot = Integer.parseInt(String.valueOf(redisTemplate.opsForHash().get(membersKey, userId)));
+            }
+        }
+        touchRoom(roomId);
+
+        String server = roomServer(roomId, slot);
+        if (server != null) {
+            cacheConnectionMapping(RoomPlacement.memberKey(roomId, userId), server);
+        }
+        return server;
+    }
+
+    @Override
+    public void removeRoomMember(String roomId, String userId) {
+        try {
+            String membersKey = ROOM_MEMBERS_PREFIX + roomId;
+            Object slotObj = redisTemplate.opsForHash().get(membersKey, userId);
+            if (slotObj == null || redisTemplate.opsForHash().delete(membersKey, userId) == 0) {
+                return;
+            }
+            redisTemplate.opsForHash().increment(ROOM_META_PREFIX + roomId, slotObj.toString(), -1);
+            touchRoom(roomId);
+            redisTemplate.execute(COUNTED_WRITE, STRING_SERIALIZER, new GenericToStringSerializer<>(Long.class),
+                    COUNTED_WRITE_KEYS, RoomPlacement.memberKey(roomId, userId), "");
+        } catch (Exception e) {
+            log.error("移除房间成员失败: {} / {}", roomId, userId, e);
+        }
+    }
+
+    @Override
+    public String getServerForRoom(String roomId) {
+        refreshCacheIfStale();
+        return roomServer(roomId, 0);
+    }
+
+    @Override
+    public List<String> getServersForRoom(String roomId) {
+        refreshCacheIfStale();
+        return roomPlacement.servers(localRing, roomHash(roomId));
+    }
+
+    /**
+     * 延长房间元数据的过期时间
+     */
+    private void touchRoom(String roomId) {
+        redisTemplate.expire(ROOM_MEMBERS_PREFIX + roomId, roomTtlSeconds, TimeUnit.SECONDS);
+        redisTemplate.expire(ROOM_META_PREFIX + roomId, roomTtlSeconds, TimeUnit.SECONDS);
+    }
+
+    private Map<Integer, Long> slotCounts(String roomId) {
+        Map<Integer, Long> counts = new HashMap<>();
+        for (Map.Entry<Object, Object> entry : redisTemplate.opsForHash().entries(ROOM_META_PREFIX + roomId).entrySet()) {
+            counts.put(Integer.parseInt(entry.getKey().toString()), Long.parseLong(entry.getValue().toString()));
+        }
+        return counts;
+    }
+
+    private String roomServer(String roomId, int slot) {
+        return roomPlacement.server(localRing, roomHash(roomId), slot);
+    }
+
+    private long roomHash(String roomId) {
+        return hashFunction.hashString(RoomPlacement.roomKey(roomId), StandardCharsets.UTF_8).asLong();
+    }
+
+    /**
+     * 哈希环变化后连接的新位置，房间成员跟随房间的节点
+     * 只读本地哈希环和预先读取的槽位，可以并行调用
+     * @param roomSlots 房间ID -> 用户ID -> 槽位，由roomSlots(keys)预先读取
+     */
+    private String relocate(String connection, Map<String, Map<String, Integer>> roomSlots) {
+        String roomId = RoomPlacement.roomOf(connection);
+        if (roomId == null) {
+            return findServerForConnection(connection);
+        }
+        Integer slot = roomSlots.getOrDefault(roomId, Collections.emptyMap()).get(RoomPlacement.userOf(connection));
+        return roomServer(roomId, slot != null ? slot : 0);
+    }
+
+    public void setRoomPlacement(RoomPlacement roomPlacement) {
+        this.roomPlacement = roomPlacement;
+    }
+
+    /**
+     * @param migrationChunkSize 迁移时每次HSCAN读取并处理的连接数
+     */
+    public void setMigrationChunkSize(int migrationChunkSize) {
+        this.migrationChunkSize = Math.max(1, migrationChunkSize);
+    }
+
+    /**
+     * @param roomTtlSeconds 房间元数据在最后一次加入或离开后保留的时间，
+     *                       节点崩溃没来得及离开的成员在这之后不再占用名额
+     */
+    public void setRoomTtlSeconds(long roomTtlSeconds) {
+        this.roomTtlSeconds = Math.max(1, roomTtlSeconds);
+    }
     
     @Override
     public List<String> addServer(String server) {
         try {
             log.info("开始添加服务器: {}", server);
             
-            // 获取添加前的连接分布（用于计算迁移）
-            Map<String, String> beforeMapping = getCurrentConnectionMapping();
-            
             // 1. 添加到服务器列表
             redisTemplate.opsForSet().add(IM_SERVERS, server);
             
@@ -149,7 +337,7 @@ public class StatelessConsistentHashRouter implements IConnectionRouter {
             loadRingFromRedis();
             
             // 5. 计算迁移的连接
-            List<String> migratedConnections = calculateMigratedConnections(beforeMapping);
+            List<String> migratedConnections = calculateMigratedConnections();
             
             // 6. 发布服务器变更事件
             publishServerChangeEvent("ADD", server);
@@ -168,36 +356,26 @@ public class StatelessConsistentHashRouter implements IConnectionRouter {
         try {
             log.info("开始移除服务器: {}", server);
             
-            // 1. 获取该服务器上的连接（需要迁移的连接）
-            List<String> connectionsToMigrate = getConnectionsToMigrate(server);
-            
-            // 2. 从服务器列表移除
+            // 1. 从服务器列表移除
             redisTemplate.opsForSet().remove(IM_SERVERS, server);
             
-            // 3. 移除虚拟节点
+            // 2. 移除虚拟节点
             for (int i = 0; i < virtualNodes; i++) {
                 String virtualNode = server + "#" + i;
                 redisTemplate.opsForZSet().remove(HASH_RING_NODES, virtualNode);
             }
             
-            // 4. 更新版本号
+            // 3. 更新版本号
             redisTemplate.opsForHash().increment(HASH_RING_CONFIG, "version", 1);
             
-            // 5. 清理该服务器的连接映射缓存
-            cleanupConnectionMappings(server);
-            
-            // 6. 立即刷新本地缓存
+            // 4. 立即刷新本地缓存
             loadRingFromRedis();
             
-            // 7. 重新分配迁移的连接
-            for (String connection : connectionsToMigrate) {
-                String newServer = getServer(connection);
-                if (newServer != null) {
-                    cacheConnectionMapping(connection, newServer);
-                }
-            }
+            // 5. 重新分配连接：该服务器上的连接，以及候选节点随之变化的房间成员
+            List<String> connectionsToMigrate = calculateMigratedConnections();
+            redisTemplate.opsForHash().delete(CONNECTION_COUNTS, server);
             
-            // 8. 发布服务器变更事件
+            // 6. 发布服务器变更事件
             publishServerChangeEvent("REMOVE", server);
             
             log.info("服务器移除完成: {}, 迁移连接数: {}", server, connectionsToMigrate.size());
@@ -324,92 +502,237 @@ public class StatelessConsistentHashRouter implements IConnectionRouter {
     }
     
     /**
-     * 缓存连接映射
+     * 查询路径上的版本检查，距上次检查不足间隔时直接使用本地哈希环
      */
-    private void cacheConnectionMapping(String connection, String server) {
-        try {
-            redisTemplate.opsForHash().put(CONNECTION_MAPPING, connection, server);
-        } catch (Exception e) {
-            log.error("缓存连接映射失败: {} -> {}", connection, server, e);
+    private void refreshCacheIfStale() {
+        long now = System.nanoTime();
+        if (now - lastVersionCheckNanos < versionCheckIntervalNanos) {
+            return;
         }
+        lastVersionCheckNanos = now;
+        refreshCacheIfNeeded();
     }
-    
+
     /**
-     * 获取当前所有连接的映射关系
+     * 近端缓存命中统计
      */
-    private Map<String, String> getCurrentConnectionMapping() {
+    public CacheStats getNearCacheStats() {
+        CacheStats stats = nearCache.stats();
+        long stale = staleHits.sum();
+        return new CacheStats(stats.hitCount() - stale, stats.missCount() + stale,
+                stats.loadSuccessCount(), stats.loadExceptionCount(), stats.totalLoadTime(), stats.evictionCount());
+    }
+
+    /**
+     * 缓存连接映射
+     */
+    private void cacheConnectionMapping(String connection, String server) {
         try {
-            Map<Object, Object> rawMapping = redisTemplate.opsForHash().entries(CONNECTION_MAPPING);
-            Map<String, String> mapping = new HashMap<>();
-            for (Map.Entry<Object, Object> entry : rawMapping.entrySet()) {
-                mapping.put(entry.getKey().toString(), entry.getValue().toString());
-            }
-            return mapping;
+            redisTemplate.execute(COUNTED_WRITE, STRING_SERIALIZER, new GenericToStringSerializer<>(Long.class),
+                    COUNTED_WRITE_KEYS, connection, encode(server));
         } catch (Exception e) {
-            log.error("获取当前连接映射失败", e);
-            return new HashMap<>();
+            log.error("缓存连接映射失败: {} -> {}", connection, server, e);
         }
     }
     
     /**
-     * 计算迁移的连接
+     * 按新哈希环重新分配connection_mapping中的连接，返回位置变化的连接
+     * 用HSCAN分块读取，每块在fork-join池中并行计算新位置，变化的条目用管道批量写回，
+     * 内存占用只和块大小有关。HSCAN期间哈希表扩容时个别连接可能重复出现在结果中
      */
-    private List<String> calculateMigratedConnections(Map<String, String> beforeMapping) {
+    private List<String> calculateMigratedConnections() {
         List<String> migratedConnections = new ArrayList<>();
-        
-        try {
-            // 重新计算所有连接的分配
-            for (String connection : beforeMapping.keySet()) {
-                String oldServer = beforeMapping.get(connection);
-                String newServer = findServerForConnection(connection);
-                
-                if (newServer != null && !newServer.equals(oldServer)) {
-                    migratedConnections.add(connection);
-                    // 更新映射
-                    cacheConnectionMapping(connection, newServer);
+        int chunkSize = migrationChunkSize;
+        List<String> keys = new ArrayList<>(chunkSize);
+        List<String> owners = new ArrayList<>(chunkSize);
+
+        try (Cursor<Map.Entry<Object, Object>> cursor = redisTemplate.opsForHash().scan(CONNECTION_MAPPING,
+                ScanOptions.scanOptions().count(chunkSize).build())) {
+            while (cursor.hasNext()) {
+                Map.Entry<Object, Object> entry = cursor.next();
+                keys.add(entry.getKey().toString());
+                owners.add(String.valueOf(entry.getValue()));
+                if (keys.size() >= chunkSize) {
+                    migrateChunk(keys, owners, migratedConnections);
+                    keys.clear();
+                    owners.clear();
                 }
             }
+            if (!keys.isEmpty()) {
+                migrateChunk(keys, owners, migratedConnections);
+            }
         } catch (Exception e) {
             log.error("计算迁移连接失败", e);
         }
-        
+
         return migratedConnections;
     }
-    
+
+    private void migrateChunk(List<String> keys, List<String> owners, List<String> migratedConnections) {
+        Map<String, Map<String, Integer>> roomSlots = roomSlots(keys);
+        String[] targets = new String[keys.size()];
+        ForkJoinPool.commonPool().invoke(new RelocateTask(this, keys, roomSlots, targets, 0, keys.size()));
+
+        // 连接, 编码后的新服务器（空串表示删除）成对排列
+        List<byte[]> changes = new ArrayList<>();
+        for (int i = 0; i < targets.length; i++) {
+            String target = targets[i];
+            if (target == null) {
+                // 哈希环已空，连接没有去处
+                changes.add(STRING_SERIALIZER.serialize(keys.get(i)));
+                changes.add(new byte[0]);
+            } else if (!target.equals(owners.get(i))) {
+                changes.add(STRING_SERIALIZER.serialize(keys.get(i)));
+                changes.add(STRING_SERIALIZER.serialize(encode(target)));
+            } else {
+                continue;
+            }
+            migratedConnections.add(keys.get(i));
+        }
+        if (changes.isEmpty()) {
+            return;
+        }
+
+        // 每批一条EVAL，同时更新映射和计数，所有批次用管道发出
+        byte[] script = STRING_SERIALIZER.serialize(LoadCounterScript.SOURCE);
+        byte[][] countedKeys = {STRING_SERIALIZER.serialize(CONNECTION_MAPPING), STRING_SERIALIZER.serialize(CONNECTION_COUNTS)};
+        redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (int from = 0; from < changes.size(); from += MIGRATION_WRITE_BATCH * 2) {
+                List<byte[]> batch = changes.subList(from, Math.min(from + MIGRATION_WRITE_BATCH * 2, changes.size()));
+                byte[][] keysAndArgs = new byte[2 + batch.size()][];
+                keysAndArgs[0] = countedKeys[0];
+                keysAndArgs[1] = countedKeys[1];
+                for (int i = 0; i < batch.size(); i++) {
+                    keysAndArgs[2 + i] = batch.get(i);
+                }
+                connection.scriptingCommands().eval(script, ReturnType.INTEGER, 2, keysAndArgs);
+            }
+            return null;
+        });
+    }
+
+    /**
+     * 用HSCAN按connection_mapping重建connection_counts并记下计数版本，需要遍历全部连接，只在升级或修复时使用
+     */
+    public void rebuildLoadCounters() {
+        Map<String, Long> counts = new HashMap<>();
+        try (Cursor<Map.Entry<Object, Object>> cursor = redisTemplate.opsForHash().scan(CONNECTION_MAPPING,
+                ScanOptions.scanOptions().count(migrationChunkSize).build())) {
+            while (cursor.hasNext()) {
+                counts.merge(String.valueOf(cursor.next().getValue()), 1L, Long::sum);
+            }
+        }
+        redisTemplate.delete(CONNECTION_COUNTS);
+        if (!counts.isEmpty()) {
+            redisTemplate.opsForHash().putAll(CONNECTION_COUNTS, counts);
+        }
+        redisTemplate.opsForValue().set(LoadCounterScript.COUNTS_VERSION_KEY, LoadCounterScript.COUNTS_VERSION);
+        log.info("连接计数已重建: {}", counts);
+    }
+
     /**
-     * 清理指定服务器的连接映射
+     * 各服务器的连接数统计，只读取计数器和服务器列表，与连接总数无关
      */
-    private void cleanupConnectionMappings(String server) {
+    @Override
+    public LoadStats getLoadStats() {
+        Map<String, Long> counts = new HashMap<>();
+        for (String server : getAllServers()) {
+            counts.put(server, 0L);
+        }
+        for (Map.Entry<Object, Object> entry : redisTemplate.opsForHash().entries(CONNECTION_COUNTS).entrySet()) {
+            String server = entry.getKey().toString();
+            if (counts.containsKey(server)) {
+                counts.put(server, Long.parseLong(entry.getValue().toString()));
+            }
+        }
+        return LoadStats.of(counts);
+    }
+
+    private String encode(Object value) {
         try {
-            Map<Object, Object> allMappings = redisTemplate.opsForHash().entries(CONNECTION_MAPPING);
-            List<String> toRemove = new ArrayList<>();
-            
-            for (Map.Entry<Object, Object> entry : allMappings.entrySet()) {
-                if (server.equals(entry.getValue().toString())) {
-                    toRemove.add(entry.getKey().toString());
+            return mapper.writeValueAsString(value);
+        } catch (JsonProcessingException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    /**
+     * 读取一块连接中房间成员的槽位，每个房间一条HMGET，用管道一次发出
+     */
+    private Map<String, Map<String, Integer>> roomSlots(List<String> keys) {
+        Map<String, List<Object>> usersByRoom = new LinkedHashMap<>();
+        for (String key : keys) {
+            String roomId = RoomPlacement.roomOf(key);
+            if (roomId != null) {
+                usersByRoom.computeIfAbsent(roomId, id -> new ArrayList<>()).add(RoomPlacement.userOf(key));
+            }
+        }
+        if (usersByRoom.isEmpty()) {
+            return Collections.emptyMap();
+        }
+
+        List<Object> results = redisTemplate.executePipelined(new SessionCallback<Object>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public <K, V> Object execute(RedisOperations<K, V> operations) {
+                HashOperations<String, Object, Object> hash = ((RedisOperations<String, Object>) operations).opsForHash();
+                for (Map.Entry<String, List<Object>> entry : usersByRoom.entrySet()) {
+                    hash.multiGet(ROOM_MEMBERS_PREFIX + entry.getKey(), entry.getValue());
                 }
+                return null;
             }
-            
-            if (!toRemove.isEmpty()) {
-                String[] keys = toRemove.toArray(new String[0]);
-                redisTemplate.opsForHash().delete(CONNECTION_MAPPING, (Object[]) keys);
+        });
+
+        Map<String, Map<String, Integer>> roomSlots = new HashMap<>();
+        Iterator<Object> result = results.iterator();
+        for (Map.Entry<String, List<Object>> entry : usersByRoom.entrySet()) {
+            List<?> slots = (List<?>) result.next();
+            Map<String, Integer> members = new HashMap<>();
+            for (int i = 0; i < slots.size(); i++) {
+                if (slots.get(i) != null) {
+                    members.put(entry.getValue().get(i).toString(), Integer.parseInt(slots.get(i).toString()));
+                }
             }
-            
-        } catch (Exception e) {
-            log.error("清理连接映射失败: {}", server, e);
+            roomSlots.put(entry.getKey(), members);
         }
+        return roomSlots;
     }
-    
+
     /**
-     * 获取需要迁移的连接
+     * 并行计算一块连接的新位置
+     * 静态类，不隐式持有外部路由器；只在本进程的fork-join池中执行，不会被序列化
      */
-    private List<String> getConnectionsToMigrate(String server) {
-        try {
-            Set<String> connections = getConnectionsOnServer(server);
-            return new ArrayList<>(connections);
-        } catch (Exception e) {
-            log.error("获取迁移连接失败: {}", server, e);
-            return new ArrayList<>();
+    private static final class RelocateTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final transient StatelessConsistentHashRouter router;
+        private final transient List<String> keys;
+        private final transient Map<String, Map<String, Integer>> roomSlots;
+        private final String[] targets;
+        private final int from;
+        private final int to;
+
+        RelocateTask(StatelessConsistentHashRouter router, List<String> keys,
+                     Map<String, Map<String, Integer>> roomSlots, String[] targets, int from, int to) {
+            this.router = router;
+            this.keys = keys;
+            this.roomSlots = roomSlots;
+            this.targets = targets;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= RELOCATE_THRESHOLD) {
+                for (int i = from; i < to; i++) {
+                    targets[i] = router.relocate(keys.get(i), roomSlots);
+                }
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new RelocateTask(router, keys, roomSlots, targets, from, middle),
+                    new RelocateTask(router, keys, roomSlots, targets, middle, to));
         }
     }
     
@@ -476,6 +799,19 @@ public class StatelessConsistentHashRouter implements IConnectionRouter {
         }
     }
     
+    /**
+     * 近端缓存中的一条分配结果
+     */
+    private static final class Assignment {
+        final String server;
+        final long version;
+
+        Assignment(String server, long version) {
+            this.server = server;
+            this.version = version;
+        }
+    }
+
     /**
      * 调试方法：打印哈希环状态
      */
@@ -492,12 +828,13 @@ public class StatelessConsistentHashRouter implements IConnectionRouter {
      * 调试方法：打印负载均衡统计
      */
     public void printLoadBalanceStats() {
-        Map<String, Set<String>> allConnections = getAllConnections();
+        LoadStats stats = getLoadStats();
         System.out.println("=== 负载均衡统计 ===");
-        for (Map.Entry<String, Set<String>> entry : allConnections.entrySet()) {
-            System.out.printf("Server: %s, Connections: %d%n", 
-                entry.getKey(), entry.getValue().size());
+        for (Map.Entry<String, Long> entry : stats.getCounts().entrySet()) {
+            System.out.printf("Server: %s, Connections: %d%n", entry.getKey(), entry.getValue());
         }
+        System.out.printf("Total: %d, Stddev: %.2f, Max/Mean: %.4f%n", stats.getTotal(), stats.getStddev(),
+                stats.getImbalance());
         System.out.println();
     }
 }
@@ -0,0 +1,17 @@
+package com.lyl.demoChatRoom.util.ConnectionRouter;
+
+import java.util.List;
+
+/**
+ * 支持按权重分配虚拟节点的路由器
+ */
+public interface WeightedRouter {
+
+    /**
+     * 调整服务器权重，虚拟节点数按 基础虚拟节点数*权重 重新分配
+     * @param server 已添加的服务器
+     * @param weight 相对权重，1为默认
+     * @return 需要迁移的连接列表
+     */
+    List<String> setServerWeight(String server, double weight);
+}
@@ -11,43 +11,75 @@ const elements = {
     messageInput: document.getElementById('message-input'),
     sendBtn: document.getElementById('send-btn'),
     usernameDisplay: document.getElementById('username-display'),
-    chatContainer: document.getElementById('chat-container')
+    chatContainer: document.getElementById('chat-container'),
+    typingIndicator: document.getElementById('typing-indicator')
 };
 
 // 新增全局变量用于状态管理
 let reconnectAttempts = 0; // 记录重连次数
 let reconnectTimeout = 3000; // 初始重连间隔（毫秒）
-let heartbeatInterval; // 心跳定时器
 let reconnectTimer; // 重连定时器
+
+// 可靠投递：按会话序号去重、补齐，并定期发送累计确认
+const CONVERSATION_ID = "lobby";
+let epoch; // 序号所属的纪元，服务重启或会话重建后变大，序号从1重新开始
+let lastSeq = 0; // 已连续收到的最大序号
+let ackedSeq = 0; // 已确认给服务端的序号
+const pendingMessages = new Map(); // 序号不连续时暂存的消息
+let ackTimer;
+let gapAckTimer; // 缺口确认的合并定时器，乱序到达的一批消息只确认一次
+const GAP_ACK_DELAY = 200;
+
+// 发件箱：已发送但还没收到自己广播的消息，重连后用同一个clientMsgId重发，服务端负责去重
+const outbox = new Map(); // clientMsgId -> 消息
+let clientMsgCounter = 0;
+
+// 正在输入：最多每2秒告知一次，停止输入3秒后发送stop；服务端合并后转发，丢了也无妨
+const TYPING_INTERVAL = 2000;
+const TYPING_IDLE = 3000;
+let lastTypingSent = 0;
+let typingStopTimer;
+const typingUsers = new Map(); // 用户 -> 提示过期定时器
+
 // ==================== WebSocket连接 ====================
 function initWebSocket() {
-    socket = new WebSocket("ws://localhost:8081/chat");
+    // 页面与WebSocket由同一个Netty端口提供
+    const protocol = location.protocol === "https:" ? "wss://" : "ws://";
+    socket = new WebSocket(protocol + location.host + "/chat?user=" + encodeURIComponent(currentUser));
     // 连接成功
     socket.onopen = () => {
         console.log("WebSocket连接已建立");
         // 清除重连计时器
         clearTimeout(reconnectTimer);
         reconnectAttempts = 0; // 重置重连次数
+        // 心跳由服务端的WebSocket Ping控制帧驱动，浏览器自动回复Pong
 
-        // 启动心跳
-        heartbeatInterval = setInterval(() => {
-            if (socket.readyState === WebSocket.OPEN) {
-                socket.send("ping");
-            }
-        }, 30000); // 每30秒发送一次心跳
+        // 断线重连后先确认已收到的位置，服务端补发缺失的消息
+        if (lastSeq > 0) {
+            sendAck(true);
+        }
+        // 有缺口时持续确认，直到服务端补齐
+        ackTimer = setInterval(() => sendAck(pendingMessages.size > 0), 2000);
+        // 断线前可能没送达的消息
+        outbox.forEach(message => socket.send(JSON.stringify(message)));
     };
     // 接收消息
     socket.onmessage = (event) => {
-        if ("pong" === event.data) return;
-        const message = JSON.parse(event.data);
-        appendMessage(message.user, message.content);
+        let message;
+        try {
+            message = JSON.parse(event.data);
+        } catch (e) {
+            // 发送方中途断开的流式消息是不完整的JSON
+            console.warn("忽略无法解析的消息");
+            return;
+        }
+        receiveMessage(message);
     };
     // 连接关闭
     socket.onclose = (event) => {
         console.log("WebSocket连接已关闭，正在尝试重新连接...");
+        clearInterval(ackTimer);
 
-        // 清除心跳
-        clearInterval(heartbeatInterval);
         // 指数退避策略
         reconnectTimeout = Math.min(reconnectTimeout * 1.5, 30000);
         reconnectTimer = setTimeout(() => {
@@ -70,14 +102,132 @@ function sendMessage() {
 
     const message = {
         user: currentUser,
-        content: content
+        content: content,
+        conversationId: CONVERSATION_ID,
+        clientMsgId: Date.now().toString(36) + "-" + (clientMsgCounter++).toString(36)
+            + "-" + Math.random().toString(36).slice(2, 8)
     };
 
-    socket.send(JSON.stringify(message));
+    sendTyping("stop");
+    outbox.set(message.clientMsgId, message);
+    if (socket && socket.readyState === WebSocket.OPEN) {
+        socket.send(JSON.stringify(message));
+    }
     elements.messageInput.value = "";
     elements.messageInput.focus();
 }
 
+function receiveMessage(message) {
+    if (message.type === "typing") {
+        showTyping(message.user, message.content === "start");
+        return;
+    }
+    // 流式转发的大消息，发送方以服务端信封中的为准
+    if (message.type === "stream") {
+        appendMessage(message.user, message.body && message.body.content);
+        return;
+    }
+    // 收到自己消息的广播或重复回执，说明服务端已收到
+    if (message.clientMsgId !== undefined && (message.type === "duplicate" || message.user === currentUser)) {
+        outbox.delete(message.clientMsgId);
+        if (message.type === "duplicate") return;
+    }
+    if (message.seq === undefined) {
+        appendMessage(message.user, message.content);
+        return;
+    }
+    if (message.epoch !== undefined && epoch !== undefined && message.epoch !== epoch) {
+        // 旧纪元的消息（重启前的重发）直接丢弃
+        if (message.epoch < epoch) return;
+        // 新纪元从序号0开始重新计数，缺失的消息由确认触发补发
+        epoch = message.epoch;
+        lastSeq = 0;
+        ackedSeq = 0;
+        pendingMessages.clear();
+    }
+    // 首条消息作为起点
+    if (epoch === undefined) {
+        epoch = message.epoch;
+        lastSeq = message.seq - 1;
+        ackedSeq = lastSeq;
+    }
+    // 重发造成的重复消息
+    if (message.seq <= lastSeq || pendingMessages.has(message.seq)) {
+        return;
+    }
+    if (message.seq > lastSeq + 1) {
+        // 有缺口，暂存并尽快确认当前位置，触发服务端重发；确认和聊天消息共用连接，短时间内的缺口合并成一次确认
+        pendingMessages.set(message.seq, message);
+        if (!gapAckTimer) {
+            gapAckTimer = setTimeout(() => {
+                gapAckTimer = undefined;
+                if (pendingMessages.size > 0) sendAck(true);
+            }, GAP_ACK_DELAY);
+        }
+        return;
+    }
+
+    appendMessage(message.user, message.content);
+    lastSeq = message.seq;
+    // 缺口补齐后按顺序显示暂存的消息
+    while (pendingMessages.has(lastSeq + 1)) {
+        const next = pendingMessages.get(lastSeq + 1);
+        pendingMessages.delete(lastSeq + 1);
+        appendMessage(next.user, next.content);
+        lastSeq = next.seq;
+    }
+}
+
+function onInput() {
+    const now = Date.now();
+    if (now - lastTypingSent >= TYPING_INTERVAL) {
+        sendTyping("start");
+    }
+    clearTimeout(typingStopTimer);
+    typingStopTimer = setTimeout(() => sendTyping("stop"), TYPING_IDLE);
+}
+
+function sendTyping(state) {
+    if (state === "stop") {
+        clearTimeout(typingStopTimer);
+        if (lastTypingSent === 0) return; // 没有发过start
+    }
+    if (!socket || socket.readyState !== WebSocket.OPEN) return;
+    socket.send(JSON.stringify({
+        type: "typing",
+        user: currentUser,
+        conversationId: CONVERSATION_ID,
+        content: state
+    }));
+    lastTypingSent = state === "start" ? Date.now() : 0;
+}
+
+function showTyping(user, typing) {
+    if (user === currentUser) return;
+    clearTimeout(typingUsers.get(user));
+    if (typing) {
+        // 收不到stop时提示自动消失
+        typingUsers.set(user, setTimeout(() => showTyping(user, false), TYPING_IDLE + TYPING_INTERVAL));
+    } else {
+        typingUsers.delete(user);
+    }
+    const users = Array.from(typingUsers.keys());
+    elements.typingIndicator.textContent = users.length === 0 ? ""
+        : users.length > 3 ? "多人正在输入..." : users.join("、") + " 正在输入...";
+}
+
+function sendAck(force) {
+    if (!socket || socket.readyState !== WebSocket.OPEN) return;
+    if (!force && lastSeq === ackedSeq) return;
+    socket.send(JSON.stringify({
+        type: "ack",
+        conversationId: CONVERSATION_ID,
+        seq: lastSeq,
+        epoch: epoch
+    }));
+    ackedSeq = lastSeq;
+}
+
 function appendMessage(user, content) {
     const messageDiv = document.createElement("div");
     messageDiv.className = "message";
@@ -125,6 +275,9 @@ function bindEvents() {
     // 发送按钮
     elements.sendBtn.addEventListener('click', sendMessage);
 
+    // 正在输入
+    elements.messageInput.addEventListener('input', onInput);
+
     // 回车发送
     elements.messageInput.addEventListener('keypress', (e) => {
         if (e.key === "Enter") sendMessage();